@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a pass over every subfile of a compact PakFile, summing decompressed sizes, through the entry map against
+ * {@link PakFile#entries()} sequentially and in parallel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntriesBenchmark {
+
+    @Param({"100000"})
+    public int numFiles;
+
+    private Path pak;
+    private PakFile pakFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, numFiles, 64, 0L);
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        pakFile = reader.load(pak);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pakFile.close();
+        Files.deleteIfExists(pak);
+    }
+
+    @Benchmark
+    public long entryMap() {
+        return pakFile.getEntryMap().values().stream().mapToLong(e -> e.getFileInfo().getDecompressedSize()).sum();
+    }
+
+    @Benchmark
+    public long entries() {
+        return pakFile.entries().mapToLong(e -> e.getFileInfo().getDecompressedSize()).sum();
+    }
+
+    @Benchmark
+    public long entriesParallel() {
+        return pakFile.entries().parallel().mapToLong(e -> e.getFileInfo().getDecompressedSize()).sum();
+    }
+}
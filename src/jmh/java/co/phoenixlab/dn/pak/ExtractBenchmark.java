@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Measures extracting a single subfile to disk with {@link SubfileExtractor}, against the stream chain the
+ * {@code dump} command used before: {@code Files.newOutputStream}, {@code InflaterOutputStream},
+ * {@code Channels.newChannel} and {@link PakFile#transferTo(FileInfo, java.nio.channels.WritableByteChannel)},
+ * followed by {@code Files.size} to count the bytes written. {@code mapped} inflates into a mapping of the output
+ * file instead of writing it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractBenchmark {
+
+    /** Number of subfiles in the generated pak */
+    private static final int NUM_FILES = 16;
+
+    @Param({"4096", "1048576"})
+    public int fileSize;
+
+    private Path pak;
+    private Path dest;
+    private PakFile pakFile;
+    private FileInfo fileInfo;
+    private Inflater inflater;
+    private SubfileExtractor extractor;
+    private SubfileExtractor mappedExtractor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, NUM_FILES, fileSize, 0L);
+        dest = Files.createTempFile("dnpak-bench", ".bin");
+        pakFile = new PakFileReader().load(pak);
+        fileInfo = pakFile.getEntryMap().get(SyntheticPak.pathOf(NUM_FILES / 2).substring(1)).getFileInfo();
+        inflater = new Inflater();
+        extractor = new SubfileExtractor();
+        mappedExtractor = new SubfileExtractor();
+        mappedExtractor.setMapThreshold(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        extractor.close();
+        mappedExtractor.close();
+        inflater.end();
+        pakFile.close();
+        Files.deleteIfExists(pak);
+        Files.deleteIfExists(dest);
+    }
+
+    @Benchmark
+    public long streams() throws IOException {
+        inflater.reset();
+        try (InflaterOutputStream outputStream = new InflaterOutputStream(Files.newOutputStream(dest,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), inflater)) {
+            pakFile.transferTo(fileInfo, Channels.newChannel(outputStream));
+            outputStream.flush();
+        }
+        return Files.size(dest);
+    }
+
+    @Benchmark
+    public long extractor() throws IOException {
+        return extractor.extract(pakFile, fileInfo, dest);
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        return mappedExtractor.extract(pakFile, fileInfo, dest);
+    }
+}
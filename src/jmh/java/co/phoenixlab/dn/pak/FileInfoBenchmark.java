@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of the raw file table with {@link FileInfo#load(ByteBuffer)} and {@link FileTableCursor}, without
+ * building the index. Run with {@code -prof gc} to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileInfoBenchmark {
+
+    @Param({"10000"})
+    public int numFiles;
+
+    private ByteBuffer table;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path pak = Files.createTempFile("dnpak-bench", ".pak");
+        try {
+            SyntheticPak.create(pak, numFiles, 64, 0L);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(pak.toFile(), "r")) {
+                PakHeader header = new PakHeader();
+                header.read(randomAccessFile);
+                long tableOffset = header.getFileTableOffset();
+                FileChannel channel = randomAccessFile.getChannel();
+                table = ByteBuffer.allocateDirect(numFiles * FileInfo.FILE_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (table.hasRemaining()) {
+                    if (channel.read(table, tableOffset + table.position()) < 0) {
+                        throw new IOException("Unexpected EOF");
+                    }
+                }
+                table.flip();
+            }
+        } finally {
+            Files.deleteIfExists(pak);
+        }
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        ByteBuffer buffer = table.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < numFiles; ++i) {
+            blackhole.consume(new FileInfo().load(buffer));
+        }
+    }
+
+    @Benchmark
+    public void loadFromCursor(Blackhole blackhole) {
+        FileTableCursor cursor = new FileTableCursor(table, numFiles);
+        while (cursor.next()) {
+            blackhole.consume(new FileInfo().load(cursor));
+        }
+    }
+
+    @Benchmark
+    public long scanCursor() {
+        //  Fields only, no path decoding
+        FileTableCursor cursor = new FileTableCursor(table, numFiles);
+        long total = 0;
+        while (cursor.next()) {
+            total += cursor.getDiskOffset() + cursor.getDiskSize();
+        }
+        return total;
+    }
+}
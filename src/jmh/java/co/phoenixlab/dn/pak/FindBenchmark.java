@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures searching subfile names, by scanning every name as the {@code find} command used to and through the
+ * {@link NameIndex}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FindBenchmark {
+
+    @Param({"100000"})
+    public int numFiles;
+
+    @Param({"file1234", "e9"})
+    public String query;
+
+    private Path pak;
+    private PakFile pakFile;
+    private NameIndex nameIndex;
+    private Pattern pattern;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, numFiles, 64, 0L);
+        pakFile = new PakFileReader().load(pak);
+        nameIndex = pakFile.getNameIndex();
+        pattern = Pattern.compile(query + "\\d*\\.dat");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pakFile.close();
+        Files.deleteIfExists(pak);
+    }
+
+    @Benchmark
+    public List<String> scanContaining() {
+        List<String> results = new ArrayList<>();
+        for (FileEntry entry : pakFile.getEntryMap().values()) {
+            if (entry.name.contains(query)) {
+                results.add(entry.getFileInfo().getFullPath());
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public int[] indexContaining() {
+        return nameIndex.findContaining(query, true);
+    }
+
+    @Benchmark
+    public List<String> scanMatching() {
+        List<String> results = new ArrayList<>();
+        for (FileEntry entry : pakFile.getEntryMap().values()) {
+            if (pattern.matcher(entry.name).find()) {
+                results.add(entry.getFileInfo().getFullPath());
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public int[] indexMatching() {
+        return nameIndex.findMatching(pattern, true);
+    }
+
+    @Benchmark
+    public NameIndex build() {
+        return NameIndex.build(nameIndex.getIndex());
+    }
+}
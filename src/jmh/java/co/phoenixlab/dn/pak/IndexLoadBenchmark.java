@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PakFileReader#load(Path)}, which parses the header and file table and builds the index, against
+ * loading the index from an {@link IndexCache} sidecar. {@code loadOne} opens the pak to read a single subfile, where
+ * lazy mode defers everything but the index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexLoadBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numFiles;
+
+    @Param({"eager", "compact", "lazy"})
+    public String mode;
+
+    private Path pak;
+    private String subfile;
+    private IndexCache indexCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, numFiles, 64, 0L);
+        subfile = SyntheticPak.pathOf(numFiles / 2);
+        indexCache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setIndexCache(indexCache);
+        reader.load(pak).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        indexCache.invalidate(pak);
+        Files.deleteIfExists(pak);
+    }
+
+    private PakFileReader newReader() {
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact("compact".equals(mode));
+        reader.setLazy("lazy".equals(mode));
+        return reader;
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        PakFileReader reader = newReader();
+        try (PakFile pakFile = reader.load(pak)) {
+            return pakFile.getNumFiles();
+        }
+    }
+
+    @Benchmark
+    public int loadCached() throws IOException {
+        PakFileReader reader = newReader();
+        reader.setIndexCache(indexCache);
+        try (PakFile pakFile = reader.load(pak)) {
+            return pakFile.getNumFiles();
+        }
+    }
+
+    @Benchmark
+    public byte[] loadOne() throws IOException {
+        try (PakFile pakFile = newReader().load(pak)) {
+            return pakFile.readAllBytes(subfile);
+        }
+    }
+}
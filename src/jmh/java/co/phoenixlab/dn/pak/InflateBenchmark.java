@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Measures reading and inflating a single subfile into memory, the way {@link DNPakTool} does it for each subfile, and
+ * through the {@link PakFile} content API.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InflateBenchmark {
+
+    /** Number of subfiles in the generated pak */
+    private static final int NUM_FILES = 16;
+
+    @Param({"4096", "1048576"})
+    public int fileSize;
+
+    private Path pak;
+    private PakFile pakFile;
+    private FileInfo fileInfo;
+    private ByteArrayOutputStream out;
+    private ByteBuffer heapBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, NUM_FILES, fileSize, 0L);
+        pakFile = new PakFileReader().load(pak);
+        fileInfo = pakFile.getEntryMap().get(SyntheticPak.pathOf(NUM_FILES / 2).substring(1)).getFileInfo();
+        out = new ByteArrayOutputStream(fileSize);
+        heapBuffer = ByteBuffer.allocate(fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pakFile.close();
+        Files.deleteIfExists(pak);
+    }
+
+    @Benchmark
+    public int inflate() throws IOException {
+        out.reset();
+        try (InflaterOutputStream outputStream = new InflaterOutputStream(out)) {
+            pakFile.transferTo(fileInfo, Channels.newChannel(outputStream));
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] readAllBytes() throws IOException {
+        return pakFile.readAllBytes(fileInfo);
+    }
+
+    @Benchmark
+    public int readIntoBuffer() throws IOException {
+        heapBuffer.clear();
+        return pakFile.read(fileInfo, heapBuffer);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures subfile lookups by path, through the directory tree, the flat entry map and the compact index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    /** Number of distinct paths cycled through by each benchmark */
+    private static final int NUM_QUERIES = 1024;
+
+    @Param({"100000"})
+    public int numFiles;
+
+    private Path pak;
+    private PakFile pakFile;
+    private PakIndex index;
+    private String[] queries;
+    private String[] mapQueries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pak = Files.createTempFile("dnpak-bench", ".pak");
+        SyntheticPak.create(pak, numFiles, 64, 0L);
+        pakFile = new PakFileReader().load(pak);
+        index = pakFile.getIndex();
+        Random random = new Random(0L);
+        queries = new String[NUM_QUERIES];
+        mapQueries = new String[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; ++i) {
+            queries[i] = SyntheticPak.pathOf(random.nextInt(numFiles));
+            //  entryMap keys do not have the leading backslash
+            mapQueries[i] = queries[i].substring(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pakFile.close();
+        Files.deleteIfExists(pak);
+    }
+
+    @Benchmark
+    public Entry dirEntryGet() {
+        next = (next + 1) & (NUM_QUERIES - 1);
+        return pakFile.getRoot().get(queries[next]);
+    }
+
+    @Benchmark
+    public FileEntry entryMapGet() {
+        next = (next + 1) & (NUM_QUERIES - 1);
+        return pakFile.getEntryMap().get(mapQueries[next]);
+    }
+
+    @Benchmark
+    public int indexOrdinalOf() {
+        next = (next + 1) & (NUM_QUERIES - 1);
+        return index.ordinalOf(queries[next]);
+    }
+}
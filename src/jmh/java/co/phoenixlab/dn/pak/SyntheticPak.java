@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Generates synthetic PakFiles for benchmarking. The generated paks have a deterministic layout for a given seed so
+ * that results are comparable across runs.
+ */
+final class SyntheticPak {
+
+    /** Number of top level directories in a generated pak */
+    private static final int TOP_DIRS = 16;
+    /** Number of second level directories under each top level directory */
+    private static final int SUB_DIRS = 32;
+
+    private SyntheticPak() {
+    }
+
+    /**
+     * Gets the subfile path of the i-th generated file, including the leading backslash.
+     * @param i The index of the generated file
+     * @return The path of the i-th file in a generated pak
+     */
+    static String pathOf(int i) {
+        return "\\resource\\dir" + (i % TOP_DIRS) + "\\sub" + ((i / TOP_DIRS) % SUB_DIRS) + "\\file" + i + ".dat";
+    }
+
+    /**
+     * Writes a pak with {@code numFiles} subfiles of roughly {@code fileSize} bytes each.
+     * @param path The path to write the pak to, overwritten if it exists
+     * @param numFiles The number of subfiles
+     * @param fileSize The decompressed size of each subfile, in bytes
+     * @param seed The seed for the subfile contents
+     * @throws IOException If there was an error writing the pak
+     */
+    static void create(Path path, int numFiles, int fileSize, long seed) throws IOException {
+        Random random = new Random(seed);
+        Deflater deflater = new Deflater();
+        byte[] content = new byte[fileSize];
+        byte[] compressed = new byte[fileSize + (fileSize >> 3) + 64];
+        List<long[]> infos = new ArrayList<>(numFiles);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(PakHeader.HEADER_SIZE);
+            for (int i = 0; i < numFiles; ++i) {
+                fillContent(content, random);
+                deflater.reset();
+                deflater.setInput(content);
+                deflater.finish();
+                int len = 0;
+                while (!deflater.finished()) {
+                    if (len == compressed.length) {
+                        byte[] grown = new byte[compressed.length * 2];
+                        System.arraycopy(compressed, 0, grown, 0, len);
+                        compressed = grown;
+                    }
+                    len += deflater.deflate(compressed, len, compressed.length - len);
+                }
+                long offset = channel.position();
+                writeFully(channel, ByteBuffer.wrap(compressed, 0, len));
+                infos.add(new long[]{len, fileSize, offset});
+            }
+            long tableOffset = channel.position();
+            ByteBuffer record = ByteBuffer.allocate(FileInfo.FILE_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < numFiles; ++i) {
+                long[] info = infos.get(i);
+                record.clear();
+                byte[] name = pathOf(i).getBytes(StandardCharsets.UTF_8);
+                record.put(name);
+                record.put(new byte[256 - name.length]);
+                record.putInt((int) info[0]);
+                record.putInt((int) info[1]);
+                record.putInt((int) info[0]);
+                record.putInt((int) info[2]);
+                record.putInt(0);
+                record.put(new byte[40]);
+                record.flip();
+                writeFully(channel, record);
+            }
+            ByteBuffer header = ByteBuffer.allocate(PakHeader.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(PakHeader.MAGIC_WORD.getBytes(StandardCharsets.UTF_8));
+            header.position(PakHeader.MAGIC_WORD_SIZE);
+            header.putInt(PakHeader.UNKNOWN_CONST);
+            header.putInt(numFiles);
+            header.putInt((int) tableOffset);
+            header.clear();
+            channel.position(0);
+            writeFully(channel, header);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes {@code numFiles} loose files of {@code fileSize} bytes each under a directory, laid out like the subfiles
+     * of {@link SyntheticPak#create(Path, int, int, long)}.
+     * @param root The directory to write the files under
+     * @param numFiles The number of files
+     * @param fileSize The size of each file, in bytes
+     * @param seed The seed for the file contents
+     * @throws IOException If there was an error writing the files
+     */
+    static void createTree(Path root, int numFiles, int fileSize, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < numFiles; ++i) {
+            fillContent(content, random);
+            Path file = root.resolve(pathOf(i).substring(1).replace('\\', '/'));
+            Files.createDirectories(file.getParent());
+            Files.write(file, content);
+        }
+    }
+
+    /**
+     * Fills the buffer with moderately compressible text-like data, similar to the tables and scripts found in real
+     * resource paks.
+     */
+    private static void fillContent(byte[] content, Random random) {
+        for (int i = 0; i < content.length; ++i) {
+            int r = random.nextInt(64);
+            content[i] = r < 16 ? (byte) ' ' : (byte) ('a' + (r % 26));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
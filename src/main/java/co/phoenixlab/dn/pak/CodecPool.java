@@ -0,0 +1,327 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A thread safe pool of {@link Inflater}s, {@link Deflater}s and fixed size byte buffers.
+ * <p>
+ * Inflaters and Deflaters hold native memory that is only released by {@code end()} or by finalization, so creating
+ * one per subfile puts a lot of pressure on both. Instead, borrow one with {@link CodecPool#borrowInflater()} and
+ * friends, and close the returned {@link Lease} when done, ideally with try-with-resources. Returned codecs are
+ * {@code reset()} before being handed out again, and Deflaters are restored to the default level and strategy. At
+ * most {@code maxIdle} instances of each kind are kept; any extras are ended when returned.
+ * <p>
+ * A Lease that becomes unreachable without being closed is reported as a leak: the leak count is incremented, a
+ * warning is printed to {@code System.err} (with the stack trace of the borrow if {@link CodecPool#setTrackLeaks} is
+ * enabled) and the codec is ended.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CodecPool {
+
+    /** {@value} bytes, the size of buffers handed out by {@link CodecPool#borrowBuffer()} */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The kinds of objects pooled */
+    public enum Kind {
+        INFLATER,
+        DEFLATER,
+        BUFFER
+    }
+
+    private static final CodecPool DEFAULT = new CodecPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private final int maxIdle;
+    private final Map<Kind, BlockingQueue<Object>> idle = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> hits = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> misses = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> outstanding = new EnumMap<>(Kind.class);
+    private final LongAdder leaks = new LongAdder();
+    /** Trackers for all outstanding leases, which keeps the trackers themselves reachable */
+    private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Lease<?>> leaked = new ReferenceQueue<>();
+    private volatile boolean trackLeaks;
+
+    /**
+     * Constructs a CodecPool.
+     * @param maxIdle The maximum number of idle instances of each kind to keep
+     */
+    public CodecPool(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        this.maxIdle = maxIdle;
+        for (Kind kind : Kind.values()) {
+            idle.put(kind, new ArrayBlockingQueue<>(Math.max(1, maxIdle)));
+            hits.put(kind, new LongAdder());
+            misses.put(kind, new LongAdder());
+            outstanding.put(kind, new LongAdder());
+        }
+    }
+
+    /**
+     * @return The CodecPool shared by the reader and writer
+     */
+    public static CodecPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets whether to record the stack trace of every borrow, so that leaks can be traced back to their source. This
+     * is expensive and should only be enabled while debugging.
+     * @param trackLeaks True to record borrow stack traces
+     */
+    public void setTrackLeaks(boolean trackLeaks) {
+        this.trackLeaks = trackLeaks;
+    }
+
+    /**
+     * Borrows an Inflater in its initial state.
+     * @return A Lease of an Inflater, which must be closed
+     */
+    public Lease<Inflater> borrowInflater() {
+        return borrow(Kind.INFLATER, Inflater::new);
+    }
+
+    /**
+     * Borrows a Deflater with the default compression level, in its initial state.
+     * @return A Lease of a Deflater, which must be closed
+     */
+    public Lease<Deflater> borrowDeflater() {
+        return borrow(Kind.DEFLATER, Deflater::new);
+    }
+
+    /**
+     * Borrows a buffer of {@link CodecPool#BUFFER_SIZE} bytes. Its contents are undefined.
+     * @return A Lease of a buffer, which must be closed
+     */
+    public Lease<byte[]> borrowBuffer() {
+        return borrow(Kind.BUFFER, () -> new byte[BUFFER_SIZE]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Lease<T> borrow(Kind kind, Supplier<T> factory) {
+        expungeLeaks();
+        Object value = idle.get(kind).poll();
+        if (value == null) {
+            misses.get(kind).increment();
+            value = factory.get();
+        } else {
+            hits.get(kind).increment();
+        }
+        outstanding.get(kind).increment();
+        Lease<T> lease = new Lease<>(this, (T) value);
+        lease.tracker = new Tracker(lease, kind, value, trackLeaks ? new Throwable("Borrowed here") : null, leaked);
+        trackers.add(lease.tracker);
+        return lease;
+    }
+
+    private void release(Tracker tracker) {
+        if (!trackers.remove(tracker)) {
+            return;
+        }
+        tracker.clear();
+        outstanding.get(tracker.kind).decrement();
+        Object value = tracker.value;
+        switch (tracker.kind) {
+            case INFLATER:
+                ((Inflater) value).reset();
+                break;
+            case DEFLATER:
+                Deflater deflater = (Deflater) value;
+                //  reset() keeps the level and strategy, so restore the defaults for the next borrower
+                deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+                deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+                deflater.reset();
+                break;
+            default:
+                break;
+        }
+        if (maxIdle == 0 || !idle.get(tracker.kind).offer(value)) {
+            end(tracker.kind, value);
+        }
+    }
+
+    /**
+     * Reclaims the codecs of any leases that were garbage collected without being closed.
+     */
+    private void expungeLeaks() {
+        Tracker tracker;
+        while ((tracker = (Tracker) leaked.poll()) != null) {
+            if (trackers.remove(tracker)) {
+                leaks.increment();
+                outstanding.get(tracker.kind).decrement();
+                end(tracker.kind, tracker.value);
+                System.err.println("CodecPool: " + tracker.kind + " lease was not closed before being " +
+                        "garbage collected" + (tracker.site == null ? ", enable setTrackLeaks() to find where" : ""));
+                if (tracker.site != null) {
+                    tracker.site.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    private static void end(Kind kind, Object value) {
+        if (kind == Kind.INFLATER) {
+            ((Inflater) value).end();
+        } else if (kind == Kind.DEFLATER) {
+            ((Deflater) value).end();
+        }
+    }
+
+    /**
+     * Ends and discards all idle codecs. Outstanding leases are unaffected.
+     */
+    public void clear() {
+        for (Kind kind : Kind.values()) {
+            Object value;
+            while ((value = idle.get(kind).poll()) != null) {
+                end(kind, value);
+            }
+        }
+    }
+
+    /**
+     * @param kind The kind of object
+     * @return The number of borrows that were satisfied by an idle instance
+     */
+    public long getHits(Kind kind) {
+        return hits.get(kind).sum();
+    }
+
+    /**
+     * @param kind The kind of object
+     * @return The number of borrows that required creating a new instance
+     */
+    public long getMisses(Kind kind) {
+        return misses.get(kind).sum();
+    }
+
+    /**
+     * @param kind The kind of object
+     * @return The number of leases that are currently borrowed
+     */
+    public long getOutstanding(Kind kind) {
+        expungeLeaks();
+        return outstanding.get(kind).sum();
+    }
+
+    /**
+     * @param kind The kind of object
+     * @return The number of idle instances currently held
+     */
+    public int getIdle(Kind kind) {
+        return idle.get(kind).size();
+    }
+
+    /**
+     * @return The number of leases that were garbage collected without being closed
+     */
+    public long getLeaks() {
+        expungeLeaks();
+        return leaks.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CodecPool{");
+        for (Kind kind : Kind.values()) {
+            builder.append(kind).append("={hits=").append(getHits(kind)).
+                    append(", misses=").append(getMisses(kind)).
+                    append(", outstanding=").append(getOutstanding(kind)).
+                    append(", idle=").append(getIdle(kind)).append("}, ");
+        }
+        return builder.append("leaks=").append(getLeaks()).append('}').toString();
+    }
+
+    /**
+     * A borrowed object, which is returned to its CodecPool when closed. A Lease must not be used after it has been
+     * closed, and is not thread safe.
+     * @param <T> The type of object borrowed
+     */
+    public static final class Lease<T> implements AutoCloseable {
+
+        private final CodecPool pool;
+        private T value;
+        private Tracker tracker;
+
+        private Lease(CodecPool pool, T value) {
+            this.pool = pool;
+            this.value = value;
+        }
+
+        /**
+         * @return The borrowed object
+         * @throws IllegalStateException If this Lease has been closed
+         */
+        public T get() {
+            T value = this.value;
+            if (value == null) {
+                throw new IllegalStateException("Lease has already been closed");
+            }
+            return value;
+        }
+
+        /**
+         * Returns the borrowed object to the pool. Closing a Lease more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (value != null) {
+                value = null;
+                pool.release(tracker);
+            }
+        }
+    }
+
+    /**
+     * Tracks a Lease, holding on to the borrowed object so that it can be ended if the Lease is leaked.
+     */
+    private static final class Tracker extends WeakReference<Lease<?>> {
+
+        final Kind kind;
+        final Object value;
+        final Throwable site;
+
+        Tracker(Lease<?> lease, Kind kind, Object value, Throwable site, ReferenceQueue<Lease<?>> queue) {
+            super(lease, queue);
+            this.kind = kind;
+            this.value = value;
+            this.site = site;
+        }
+    }
+}
@@ -25,27 +25,69 @@
 package co.phoenixlab.dn.pak;
 
 import java.io.IOException;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.InflaterOutputStream;
+import java.util.zip.Deflater;
 
 public class DNPakTool {
 
     private static final Pattern TOKENIZE = Pattern.compile("\"(\\\\\"|[^\"])*?\"|[^ ]+");
     private static final String[] EMPTY_STR_ARRAY = new String[0];
 
-    private static int filesDumped;
+    /**
+     * Keeps the indexes of loaded paks in the temporary directory, so that loading a pak again skips parsing it. The
+     * NameIndex is only built, and then kept as well, once a pak is searched with find
+     */
+    private static final IndexCache INDEX_CACHE = new IndexCache(Paths.get(System.getProperty("java.io.tmpdir"),
+            "dnpaktool-index"));
+    /** The number of paks the interactive shell keeps open by default */
+    private static final int SESSION_CAPACITY = 4;
+    /**
+     * The paks kept open between commands. Only the interactive shell caches anything; a single command loads each pak
+     * afresh
+     */
+    private static final PakFileCache SESSION;
+
+    static {
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        reader.setIndexCache(INDEX_CACHE);
+        SESSION = new PakFileCache(reader, 0);
+    }
+
+    private static final AtomicInteger filesDumped = new AtomicInteger();
     private static Pattern filterPatternCached;
     @SuppressWarnings({"WeakerAccess", "CanBeFinal"})
     public static long PRINT_INTERVAL = 500L;
+    /**
+     * The largest read used to fetch a run of adjacent subfiles while dumping
+     */
+    @SuppressWarnings({"WeakerAccess", "CanBeFinal"})
+    public static int MAX_READ_RUN = 1024 * 1024;
+    /**
+     * Whether dumps read subfiles in disk order. When off, subfiles are read one at a time in directory order
+     */
+    @SuppressWarnings({"WeakerAccess", "CanBeFinal"})
+    public static boolean DISK_ORDER = true;
+    /**
+     * The decompressed size from which dump -m inflates subfiles into a mapping of their output file
+     */
+    @SuppressWarnings({"WeakerAccess", "CanBeFinal"})
+    public static long MAP_OUTPUT_THRESHOLD = 1024 * 1024;
     private static final FileVisitor<Path> visitor = new FileVisitor<Path>() {
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
@@ -82,12 +124,18 @@ public class DNPakTool {
 
     private static void interactive() {
         Scanner scanner = new Scanner(System.in);
+        SESSION.setCapacity(SESSION_CAPACITY);
         while (true) {
             System.out.println("Enter a command followed by its arguments, or enter \"help\" for a list of commands.");
             System.out.print("> ");
             String[] line = scanner.nextLine().split(" ", 2);
             String cmd = line[0].toLowerCase();
             if ("exit".equals(cmd) || "quit".equals(cmd) || "stop".equals(cmd)) {
+                try {
+                    SESSION.clear();
+                } catch (IOException e) {
+                    System.err.println("Error closing paks: " + e.toString());
+                }
                 return;
             }
             if (line.length == 1) {
@@ -95,7 +143,6 @@ public class DNPakTool {
             } else {
                 handleCommand(cmd, tokenize(line[1]));
             }
-            System.gc();
         }
     }
 
@@ -131,6 +178,30 @@ public class DNPakTool {
             case "dump":
                 dump(args);
                 break;
+            case "grep":
+                grep(args);
+                break;
+            case "pack":
+                pack(args);
+                break;
+            case "update":
+                update(args);
+                break;
+            case "compact":
+                compact(args);
+                break;
+            case "export":
+                export(args);
+                break;
+            case "open":
+                open(args);
+                break;
+            case "close":
+                close(args);
+                break;
+            case "cache":
+                cache(args);
+                break;
             case "cont":
                 continuity(args);
                 break;
@@ -146,11 +217,37 @@ public class DNPakTool {
         printHelpLine("ls file...", "Prints the file paths in the pak(s)");
         printHelpLine("find [-r] string file", "Finds all paths in the pak that match the given string, " +
                 "or if -r is provided, the string is treated as a regex");
-        printHelpLine("dump [-ds] [-fr string] src...[*] dest", "Dumps all files in the src paks into the dest " +
-                "directory. If src is terminated with /* then all .pak files within the directory will be dumped. " +
-                "If -d is provided, the output directory is EMPTIED before dumping. If -s is provided, " +
+        printHelpLine("dump [-dsm] [-t threads] [-fr string] src...[*] dest", "Dumps all files in the src paks " +
+                "into the dest directory. If src is terminated with /* then all .pak files within the directory will " +
+                "be dumped. If -d is provided, the output directory is EMPTIED before dumping. If -s is provided, " +
                 "then the deletion prompt with -d will be suppressed. -s implies -d. If -f is provided, it will only " +
-                "dump files matching the string (or, if -r is provided, string is treated as a regex. -r implies -f");
+                "dump files matching the string (or, if -r is provided, string is treated as a regex. -r implies -f. " +
+                "If -t is provided, files are extracted in parallel using the given number of worker threads. " +
+                "If -m is provided, large files are decompressed straight into memory mapped output files");
+        printHelpLine("grep [-ix] [-t threads] [-m max] [-n string] pattern... pak", "Searches the contents of the " +
+                "subfiles in the pak for any of the patterns, without dumping them, and prints each match with some " +
+                "context. If -i is provided, ASCII letters match regardless of case. If -x is provided, the patterns " +
+                "are hex bytes. If -t is provided, subfiles are searched in parallel using the given number of " +
+                "worker threads. If -m is provided, the search stops after that many matches. If -n is provided, " +
+                "only subfiles whose path contains the string are searched");
+        printHelpLine("pack [-l level] [-t threads] src dest", "Packs all files under the src directory into the " +
+                "dest pak. If -l is provided, files are compressed with the given level from 0 (none) to 9 (best). " +
+                "If -t is provided, files are compressed in parallel using the given number of worker threads");
+        printHelpLine("update [-l level] [-d path]... pak [src]", "Updates the pak in place. Every file under the " +
+                "src directory is added to the pak, replacing any subfile with the same path, and each subfile given " +
+                "with -d is deleted. If -l is provided, files are compressed with the given level");
+        printHelpLine("compact src dest | compact -i src", "Removes the dead space left behind by overridden, " +
+                "deleted and replaced subfiles. Writes a compacted copy of src to dest, or if -i is provided, " +
+                "compacts src in place. An interrupted in-place compaction leaves a readable pak and can be rerun");
+        printHelpLine("export [-t threads] pak dest", "Exports the subfiles in the pak to the dest archive. If dest " +
+                "ends with .tar, a TAR archive of the decompressed files is written, otherwise a ZIP archive that " +
+                "reuses the compressed data as is. If -t is provided, checksums for the ZIP archive are computed in " +
+                "parallel using the given number of worker threads");
+        printHelpLine("open file...", "Loads the pak(s) into the session cache, so that later commands on them do " +
+                "not load them again. Paks stay open until they are closed, make room for others or change on disk");
+        printHelpLine("close [file...]", "Closes the pak(s), or every pak if none are given, and removes them from " +
+                "the session cache");
+        printHelpLine("cache [size]", "Lists the paks in the session cache, or sets how many paks it keeps open");
     }
 
     private static void printHelpLine(String cmds, String desc) {
@@ -166,8 +263,8 @@ public class DNPakTool {
             Path path = Paths.get(s);
             System.out.println("-- FILE LIST --");
             System.out.println(path.toString());
-            PakFileReader reader = new PakFileReader();
-            try (PakFile pakFile = reader.load(path)) {
+            try (PakFileCache.Handle handle = SESSION.open(path)) {
+                PakFile pakFile = handle.get();
                 System.out.printf("Read %d files\n", pakFile.getNumFiles());
                 printDirectory(pakFile.getRoot(), 0);
             } catch (IOException e) {
@@ -175,7 +272,6 @@ public class DNPakTool {
                 e.printStackTrace(System.err);
             }
             System.out.println("---------------");
-            System.gc();
         }
     }
 
@@ -259,20 +355,22 @@ public class DNPakTool {
     }
 
     private static List<String> searchResults(String pattern, boolean regex, Path file) {
-        Predicate<String> matcher;
-        if (regex) {
-            filterPatternCached = Pattern.compile(pattern);
-            matcher = filterPatternCached.asPredicate();
-        } else {
-            matcher = s -> s.contains(pattern);
-        }
         List<String> ret = new ArrayList<>();
-        PakFileReader reader = new PakFileReader();
-        try (PakFile pakFile = reader.load(file)) {
+        try (PakFileCache.Handle handle = SESSION.open(file)) {
+            PakFile pakFile = handle.get();
             int toRead = pakFile.getNumFiles();
             System.out.printf("Read %d files\n", toRead);
-            DirEntry dir = pakFile.getRoot();
-            searchDir(dir, ret, matcher);
+            NameIndex nameIndex = pakFile.getNameIndex();
+            int[] ordinals;
+            if (regex) {
+                filterPatternCached = Pattern.compile(pattern);
+                ordinals = nameIndex.findMatching(filterPatternCached, true);
+            } else {
+                ordinals = nameIndex.findContaining(pattern, true);
+            }
+            for (int ordinal : ordinals) {
+                ret.add(nameIndex.getIndex().getPath(ordinal));
+            }
         } catch (IOException e) {
             System.err.printf("Error searching %s:%n", file.toString());
             e.printStackTrace(System.err);
@@ -280,21 +378,102 @@ public class DNPakTool {
         return ret;
     }
 
-    private static void searchDir(DirEntry dirEntry, List<String> results, Predicate<String> matcher) {
-        for (Entry entry : dirEntry.getChildren().values()) {
-            if (entry instanceof DirEntry) {
-                searchDir((DirEntry) entry, results, matcher);
-            } else if (entry instanceof FileEntry) {
-                FileEntry fileEntry = (FileEntry) entry;
-                if (matcher.test(fileEntry.name)) {
-                    results.add(fileEntry.getFileInfo().getFullPath());
+    private static void grep(String[] args) {
+        boolean ignoreCase = false;
+        boolean hex = false;
+        int threads = 1;
+        int max = Integer.MAX_VALUE;
+        String pathFilter = null;
+        int argIndex = 0;
+        try {
+            while (argIndex < args.length && args[argIndex].startsWith("-")) {
+                String flag = args[argIndex++];
+                if ("-t".equals(flag) || "-m".equals(flag) || "-n".equals(flag)) {
+                    if (argIndex == args.length) {
+                        break;
+                    }
+                    String value = args[argIndex++];
+                    if ("-t".equals(flag)) {
+                        threads = Integer.parseInt(value);
+                    } else if ("-m".equals(flag)) {
+                        max = Integer.parseInt(value);
+                    } else {
+                        pathFilter = value;
+                    }
+                } else {
+                    for (int i = 1; i < flag.length(); ++i) {
+                        char c = flag.charAt(i);
+                        if (c == 'i') {
+                            ignoreCase = true;
+                        } else if (c == 'x') {
+                            hex = true;
+                        } else {
+                            throw new IllegalArgumentException("Unknown option: " + flag);
+                        }
+                    }
                 }
             }
+            if (args.length - argIndex < 2) {
+                System.out.println("Usage: grep [-ix] [-t threads] [-m max] [-n string] pattern... pak; see help");
+                return;
+            }
+            byte[][] patterns = new byte[args.length - argIndex - 1][];
+            for (int i = 0; i < patterns.length; ++i) {
+                String pattern = args[argIndex + i];
+                patterns[i] = hex ? parseHex(pattern) : pattern.getBytes(StandardCharsets.UTF_8);
+            }
+            PakGrep grep = new PakGrep(patterns);
+            grep.setIgnoreCase(ignoreCase);
+            grep.setThreads(threads);
+            grep.setLimit(max);
+            if (pathFilter != null) {
+                String filterStr = pathFilter;
+                grep.setFilter(path -> path.contains(filterStr));
+            }
+            Path file = Paths.get(args[args.length - 1]);
+            long start = System.nanoTime();
+            try (PakFileCache.Handle handle = SESSION.open(file)) {
+                PakFile pakFile = handle.get();
+                int found = grep.search(pakFile, match -> System.out.printf("%s @ 0x%08X: %s%n",
+                        match.getPath(), match.getOffset(), printable(match.getContext())));
+                System.out.printf("Found %d matches in %d ms\n", found,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error searching: " + e.toString());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static byte[] parseHex(String hex) {
+        hex = hex.replace(" ", "");
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex pattern: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi == -1 || lo == -1) {
+                throw new IllegalArgumentException("Invalid hex pattern: " + hex);
+            }
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+
+    private static String printable(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length);
+        for (byte b : bytes) {
+            builder.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
         }
+        return builder.toString();
     }
 
     private static void printDumpUsage() {
-        System.out.println("Usage: dump [-ds] [-fr string] src... dest; see help");
+        System.out.println("Usage: dump [-dsm] [-t threads] [-fr string] src... dest; see help");
     }
 
     private static void dump(String[] args) {
@@ -305,8 +484,11 @@ public class DNPakTool {
         boolean delete = false,
                 suppress = false,
                 find = false,
-                regex = false;
+                regex = false,
+                parallel = false,
+                mapOutput = false;
         String patternArg = null;
+        String threadsArg = null;
         List<String> files = new ArrayList<>();
         for (String s : args) {
             if (s.startsWith("-")) {
@@ -324,18 +506,38 @@ public class DNPakTool {
                             //  FALL THROUGH
                         case 'f':
                             find = true;
+                            break;
+                        case 't':
+                            parallel = true;
+                            break;
+                        case 'm':
+                            mapOutput = true;
                     }
                 }
+            } else if (parallel && threadsArg == null) {
+                threadsArg = s;
             } else if (find && patternArg == null) {
                 patternArg = s;
             } else {
                 files.add(s);
             }
         }
-        if (files.size() < 2 || (find && patternArg == null)) {
+        if (files.size() < 2 || (find && patternArg == null) || (parallel && threadsArg == null)) {
             printDumpUsage();
             return;
         }
+        int threads = 1;
+        if (parallel) {
+            try {
+                threads = Integer.parseInt(threadsArg);
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            if (threads < 1) {
+                System.out.println("Thread count must be a positive integer");
+                return;
+            }
+        }
         Path dest = Paths.get(files.remove(files.size() - 1)).toAbsolutePath().normalize();
         if (delete && deleteDir(suppress, dest)) {
             return;
@@ -343,19 +545,21 @@ public class DNPakTool {
         final boolean useFilter = find;
         final boolean useRegex = regex;
         final String filterArg = patternArg;
+        final int numThreads = threads;
+        final long mapThreshold = mapOutput ? MAP_OUTPUT_THRESHOLD : Long.MAX_VALUE;
         for (String src : files) {
             if (src.endsWith("/*") || src.endsWith("\\*")) {
                 try (Stream<Path> stream = Files.list(Paths.get(src.substring(0, src.length() - 2)))) {
                     stream.filter(p -> p.getFileName().toString().endsWith(".pak")).
-                            forEach(path -> dumpPak(useFilter, useRegex, filterArg, path, dest));
+                            forEach(path -> dumpPak(useFilter, useRegex, filterArg, numThreads, mapThreshold, path,
+                                    dest));
                 } catch (IOException e) {
                     System.err.printf("Error while dumping %s:%n", src);
                     e.printStackTrace(System.err);
                 }
             } else {
-                dumpPak(useFilter, useRegex, filterArg, Paths.get(src), dest);
+                dumpPak(useFilter, useRegex, filterArg, numThreads, mapThreshold, Paths.get(src), dest);
             }
-            System.gc();
         }
     }
 
@@ -379,14 +583,15 @@ public class DNPakTool {
         return false;
     }
 
-    private static void dumpPak(boolean find, boolean regex, String patternArg, Path source, Path dest) {
+    static void dumpPak(boolean find, boolean regex, String patternArg, int threads, long mapThreshold, Path source,
+                        Path dest) {
         System.out.println("Dumping " + source.toString() + " into " + dest.toString());
-        PakFileReader reader = new PakFileReader();
-        try (PakFile pakFile = reader.load(source)) {
+        try (PakFileCache.Handle handle = SESSION.open(source)) {
+            PakFile pakFile = handle.get();
             int toRead = pakFile.getNumFiles();
             System.out.printf("Read %d files\n", toRead);
             Files.createDirectories(dest);
-            filesDumped = 0;
+            filesDumped.set(0);
             int fmtLen = String.format("%d", toRead).length();
             String fmt = "Dumping... %2$," + fmtLen + "d/%3$," + fmtLen + "d %1$3d%% %4$4d f/s %5$,6d KB/s\r";
             Predicate<String> filter;
@@ -401,8 +606,28 @@ public class DNPakTool {
             } else {
                 filter = s -> true;
             }
-            dumpDir(pakFile.getRoot(), dest, pakFile, toRead, fmt, filter);
-            System.out.printf(fmt, 100, filesDumped, toRead, 0, 0);
+            List<FileEntry> entries = new ArrayList<>(toRead);
+            List<Path> paths = new ArrayList<>(toRead);
+            collectFiles(pakFile.getRoot(), dest, entries, paths);
+            List<FileInfo> selected = new ArrayList<>(entries.size());
+            List<Path> selectedPaths = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); ++i) {
+                FileEntry fe = entries.get(i);
+                if (isValid(fe) && filter.test(fe.name)) {
+                    selected.add(fe.getFileInfo());
+                    selectedPaths.add(paths.get(i));
+                } else {
+                    filesDumped.incrementAndGet();
+                }
+            }
+            //  Reading in disk order turns a dump into one pass over the pak instead of a seek per subfile
+            List<ReadRun> runs = DISK_ORDER ? ReadRun.plan(selected, MAX_READ_RUN) : ReadRun.inOrder(selected);
+            if (threads > 1) {
+                dumpParallel(pakFile, runs, selected, selectedPaths, toRead, fmt, threads, mapThreshold);
+            } else {
+                dumpSequential(pakFile, runs, selected, selectedPaths, toRead, fmt, mapThreshold);
+            }
+            System.out.printf(fmt, 100, filesDumped.get(), toRead, 0, 0);
             System.out.println("\nFiles dumped");
         } catch (IOException e) {
             System.err.println("Error dumping: " + e.toString());
@@ -410,66 +635,398 @@ public class DNPakTool {
         }
     }
 
-    private static void dumpDir(DirEntry dirEntry, Path root, PakFile pakFile, int total, String progressFmt,
-                                Predicate<String> filter) throws IOException {
-        //  It is the previous call's responsibility to create each subdirectory on the FS
+    private static void dumpSequential(PakFile pakFile, List<ReadRun> runs, List<FileInfo> fileInfos,
+                                       List<Path> paths, int total, String progressFmt, long mapThreshold)
+            throws IOException {
         long lastPrintTime = System.currentTimeMillis() - PRINT_INTERVAL;
         float scalar = 1000F / (float) PRINT_INTERVAL;
-        int filesAccum = 0;
+        int lastDumped = filesDumped.get();
         long bytesAccum = 0L;
-        for (Entry entry : dirEntry.getChildren().values()) {
-            Path path = root.resolve(entry.name);
-            if (entry instanceof DirEntry) {
-                //  Don't create the dir - we'll delegate that to the file dumper
-                dumpDir((DirEntry) entry, path, pakFile, total, progressFmt, filter);
-            } else if (entry instanceof FileEntry) {
-                //  Check for invalid
-                FileEntry fe = (FileEntry) entry;
-                if (isValid(fe) && filter.test(entry.name)) {
-                    dumpFile((FileEntry) entry, path, pakFile);
-                    bytesAccum += Files.size(path);
-                }
-                ++filesDumped;
-                ++filesAccum;
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_READ_RUN);
+        try (SubfileExtractor extractor = new SubfileExtractor()) {
+            extractor.setMapThreshold(mapThreshold);
+            for (ReadRun run : runs) {
+                bytesAccum += dumpRun(pakFile, run, fileInfos, paths, buffer, extractor);
                 long time = System.currentTimeMillis();
                 if (time - lastPrintTime >= PRINT_INTERVAL) {
                     lastPrintTime = time;
-                    System.out.printf(progressFmt, (int) (100 * ((float) (filesDumped) / (float) total)),
-                            filesDumped, total,
-                            (int) (filesAccum * scalar),
+                    int dumped = filesDumped.get();
+                    System.out.printf(progressFmt, (int) (100 * ((float) (dumped) / (float) total)),
+                            dumped, total,
+                            (int) ((dumped - lastDumped) * scalar),
                             (long) (bytesAccum * scalar / 1024));
-                    filesAccum = 0;
+                    lastDumped = dumped;
                     bytesAccum = 0;
                 }
             }
         }
     }
 
+    /**
+     * Dumps the PakFile using a pool of worker threads. Each worker has its own {@link SubfileExtractor} and read
+     * buffer and pulls the next run off the shared list, so the workers still sweep through the pak in disk order;
+     * the data is read with positional reads on the PakFile's shared channel. The calling thread only reports progress
+     * until all workers have finished.
+     */
+    private static void dumpParallel(PakFile pakFile, List<ReadRun> runs, List<FileInfo> fileInfos, List<Path> paths,
+                                     int total, String progressFmt, int threads, long mapThreshold)
+            throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong bytesDumped = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            futures.add(executor.submit(() -> {
+                try (SubfileExtractor extractor = new SubfileExtractor()) {
+                    extractor.setMapThreshold(mapThreshold);
+                    ByteBuffer buffer = ByteBuffer.allocate(MAX_READ_RUN);
+                    int index;
+                    while ((index = next.getAndIncrement()) < runs.size()) {
+                        bytesDumped.addAndGet(dumpRun(pakFile, runs.get(index), fileInfos, paths, buffer, extractor));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    //  Stop the other workers as well
+                    next.set(runs.size());
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        float scalar = 1000F / (float) PRINT_INTERVAL;
+        int lastDumped = filesDumped.get();
+        long lastBytes = 0L;
+        try {
+            while (!executor.awaitTermination(PRINT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                int dumped = filesDumped.get();
+                long bytes = bytesDumped.get();
+                System.out.printf(progressFmt, (int) (100 * ((float) (dumped) / (float) total)),
+                        dumped, total,
+                        (int) ((dumped - lastDumped) * scalar),
+                        (long) ((bytes - lastBytes) * scalar / 1024));
+                lastDumped = dumped;
+                lastBytes = bytes;
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while dumping", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void collectFiles(DirEntry dirEntry, Path root, List<FileEntry> entries, List<Path> paths) {
+        for (Entry entry : dirEntry.getChildren().values()) {
+            Path path = root.resolve(entry.name);
+            if (entry instanceof DirEntry) {
+                collectFiles((DirEntry) entry, path, entries, paths);
+            } else if (entry instanceof FileEntry) {
+                entries.add((FileEntry) entry);
+                paths.add(path);
+            }
+        }
+    }
+
     private static boolean isValid(FileEntry fileEntry) {
         FileInfo fileInfo = fileEntry.getFileInfo();
         return fileInfo.getDiskSize() != 0 && fileInfo.getDecompressedSize() != 0;
     }
 
-    private static void dumpFile(FileEntry fileEntry, Path path, PakFile pakFile) throws IOException {
-        Files.createDirectories(path.getParent());
-        try (InflaterOutputStream outputStream = new InflaterOutputStream(Files.newOutputStream(path,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
-            WritableByteChannel byteChannel = Channels.newChannel(outputStream);
-            pakFile.transferTo(fileEntry.getFileInfo(), byteChannel);
-            outputStream.flush();
+    /**
+     * Reads a run with a single positional read and then dumps each of its subfiles from the buffer. A run that does
+     * not fit in the buffer holds a single large subfile, which is streamed from the PakFile instead.
+     * @return The number of bytes written
+     */
+    private static long dumpRun(PakFile pakFile, ReadRun run, List<FileInfo> fileInfos, List<Path> paths,
+                                ByteBuffer buffer, SubfileExtractor extractor) throws IOException {
+        long bytes = 0L;
+        if (run.segment.length > buffer.capacity()) {
+            for (int index : run.indices) {
+                bytes += extractor.extract(pakFile, fileInfos.get(index), paths.get(index));
+                filesDumped.incrementAndGet();
+            }
+            return bytes;
+        }
+        buffer.clear();
+        buffer.limit((int) run.segment.length);
+        pakFile.readFully(run.segment.start, buffer);
+        for (int index : run.indices) {
+            FileInfo fileInfo = fileInfos.get(index);
+            bytes += extractor.extract(buffer.array(), run.offsetOf(fileInfo), fileInfo, paths.get(index));
+            filesDumped.incrementAndGet();
+        }
+        return bytes;
+    }
+
+    private static void pack(String[] args) {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        int threads = 1;
+        int argIndex = 0;
+        while (argIndex + 1 < args.length && ("-l".equals(args[argIndex]) || "-t".equals(args[argIndex]))) {
+            try {
+                if ("-l".equals(args[argIndex])) {
+                    level = Integer.parseInt(args[argIndex + 1]);
+                } else {
+                    threads = Integer.parseInt(args[argIndex + 1]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid number: " + args[argIndex + 1]);
+                return;
+            }
+            argIndex += 2;
+        }
+        if (args.length - argIndex != 2) {
+            System.out.println("Usage: pack [-l level] [-t threads] src dest");
+            return;
+        }
+        Path src = Paths.get(args[argIndex]);
+        Path dest = Paths.get(args[argIndex + 1]);
+        if (!Files.isDirectory(src)) {
+            System.err.println("Source is not a directory: " + src);
+            return;
+        }
+        evict(dest);
+        try {
+            PakFileWriter writer = new PakFileWriter(src, dest);
+            writer.setLevel(level);
+            writer.setThreads(threads);
+            long start = System.nanoTime();
+            int numFiles = writer.write();
+            System.out.printf("Packed %d files into %s (%,d bytes) in %d ms\n", numFiles, dest, Files.size(dest),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error packing: " + e.toString());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void update(String[] args) {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        List<String> deletions = new ArrayList<>();
+        int argIndex = 0;
+        while (argIndex + 1 < args.length && ("-l".equals(args[argIndex]) || "-d".equals(args[argIndex]))) {
+            if ("-l".equals(args[argIndex])) {
+                try {
+                    level = Integer.parseInt(args[argIndex + 1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid level: " + args[argIndex + 1]);
+                    return;
+                }
+            } else {
+                deletions.add(args[argIndex + 1]);
+            }
+            argIndex += 2;
+        }
+        int remaining = args.length - argIndex;
+        if (remaining != 1 && remaining != 2) {
+            System.out.println("Usage: update [-l level] [-d path]... pak [src]");
+            return;
+        }
+        Path pak = Paths.get(args[argIndex]);
+        Path src = remaining == 2 ? Paths.get(args[argIndex + 1]) : null;
+        if (src != null && !Files.isDirectory(src)) {
+            System.err.println("Source is not a directory: " + src);
+            return;
+        }
+        evict(pak);
+        long start = System.nanoTime();
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.setLevel(level);
+            int deleted = 0;
+            for (String path : deletions) {
+                if (updater.delete(path)) {
+                    ++deleted;
+                } else {
+                    System.out.println("Not found: " + path);
+                }
+            }
+            int added = 0;
+            int replaced = 0;
+            if (src != null) {
+                for (Path file : PakFileWriter.listSources(src)) {
+                    String path = PakFileWriter.newFileInfo(src, file).getFullPath();
+                    if (updater.contains(path)) {
+                        ++replaced;
+                    } else {
+                        ++added;
+                    }
+                    updater.put(path, file);
+                }
+            }
+            updater.commit();
+            System.out.printf("Added %d, replaced %d and deleted %d files, writing %,d bytes in %d ms\n",
+                    added, replaced, deleted, updater.getBytesWritten(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error updating: " + e.toString());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void compact(String[] args) {
+        boolean inPlace = args.length == 2 && "-i".equals(args[0]);
+        if (!inPlace && args.length != 2) {
+            System.out.println("Usage: compact src dest | compact -i src");
+            return;
+        }
+        Path src = Paths.get(args[inPlace ? 1 : 0]);
+        evict(src);
+        if (!inPlace) {
+            evict(Paths.get(args[1]));
+        }
+        long start = System.nanoTime();
+        try {
+            long before = Files.size(src);
+            PakCompactor compactor = new PakCompactor(src);
+            long after;
+            if (inPlace) {
+                after = before - compactor.compactInPlace();
+            } else {
+                after = compactor.compactTo(Paths.get(args[1]));
+            }
+            System.out.printf("Compacted %,d bytes to %,d bytes in %d ms\n", before, after,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error compacting: " + e.toString());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void export(String[] args) {
+        int threads = 1;
+        int argIndex = 0;
+        try {
+            if (args.length > 0 && "-t".equals(args[0])) {
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("Missing number of threads");
+                }
+                threads = Integer.parseInt(args[1]);
+                argIndex = 2;
+            }
+            if (args.length - argIndex != 2) {
+                System.out.println("Usage: export [-t threads] pak dest; see help");
+                return;
+            }
+            Path dest = Paths.get(args[argIndex + 1]);
+            long start = System.nanoTime();
+            try (PakFileCache.Handle handle = SESSION.open(Paths.get(args[argIndex]))) {
+                PakExporter exporter = new PakExporter(handle.get());
+                exporter.setThreads(threads);
+                int exported;
+                if (dest.getFileName().toString().toLowerCase().endsWith(".tar")) {
+                    exported = exporter.exportTar(dest);
+                } else {
+                    exported = exporter.exportZip(dest);
+                }
+                System.out.printf("Exported %d files to %s (%,d bytes) in %d ms\n", exported, dest, Files.size(dest),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error exporting: " + e.toString());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void open(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: open file...");
+            return;
+        }
+        for (String s : args) {
+            long start = System.nanoTime();
+            try (PakFileCache.Handle handle = SESSION.open(Paths.get(s))) {
+                System.out.printf("Opened %s, %d files in %d ms\n", handle.get().getPath(),
+                        handle.get().getNumFiles(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException e) {
+                System.err.println("Error opening: " + e.toString());
+            }
+        }
+        if (SESSION.getCapacity() == 0) {
+            System.out.println("The session cache is only kept in interactive mode");
+        }
+    }
+
+    private static void close(String[] args) {
+        try {
+            if (args.length == 0) {
+                SESSION.clear();
+                System.out.println("Closed all paks");
+                return;
+            }
+            for (String s : args) {
+                if (SESSION.evict(Paths.get(s))) {
+                    System.out.println("Closed " + s);
+                } else {
+                    System.out.println("Not open: " + s);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing: " + e.toString());
+        }
+    }
+
+    private static void cache(String[] args) {
+        if (args.length == 1) {
+            try {
+                SESSION.setCapacity(Integer.parseInt(args[0]));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid size: " + args[0]);
+                return;
+            }
+        } else if (args.length > 1) {
+            System.out.println("Usage: cache [size]");
+            return;
+        }
+        List<PakFile> pakFiles = SESSION.getPakFiles();
+        System.out.printf("%d of %d paks open, %d hits, %d misses\n", pakFiles.size(), SESSION.getCapacity(),
+                SESSION.getHits(), SESSION.getMisses());
+        //  Most recently used first
+        for (int i = pakFiles.size() - 1; i >= 0; --i) {
+            PakFile pakFile = pakFiles.get(i);
+            System.out.printf("%,10d files  %s%n", pakFile.getNumFiles(), pakFile.getPath());
+        }
+    }
+
+    /**
+     * Closes the pak if it is open in the session, before it is modified or replaced.
+     */
+    private static void evict(Path path) {
+        try {
+            SESSION.evict(path);
+        } catch (IOException e) {
+            System.err.println("Error closing " + path + ": " + e.toString());
         }
     }
 
     private static void continuity(String[] args) {
         String pathStr = args[0];
         Path path = Paths.get(pathStr);
-        PakFileReader reader = new PakFileReader();
-        try (PakFile pakFile = reader.load(path)) {
-            List<Segment> segments = pakFile.getEntryMap().values().stream().
-                    map(FileEntry::getFileInfo).
-                    map(fi -> new Segment(fi.getDiskOffset(), fi.getDiskSize(), -1)).
-                    sorted().
-                    collect(Collectors.toList());
+        try (PakFileCache.Handle handle = SESSION.open(path)) {
+            PakFile pakFile = handle.get();
+            PakIndex index = pakFile.getIndex();
+            List<Segment> segments = new ArrayList<>(index.getNumPaths());
+            for (int i = 0; i < index.size(); ++i) {
+                if (index.isLive(i)) {
+                    segments.add(new Segment(index.getDiskOffset(i), index.getDiskSize(i), -1));
+                }
+            }
+            Collections.sort(segments);
             Stack<Segment> stack = new Stack<>();
             segments.forEach(stack::push);
             long diff = 0;
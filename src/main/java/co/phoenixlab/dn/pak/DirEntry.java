@@ -24,17 +24,39 @@
 
 package co.phoenixlab.dn.pak;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Represents a directory in a PakFile. A DirEntry may contain other DirEntries and FileEntries.
+ * <p>
+ * Paths are resolved by scanning for separators in place and looking each component up by its position in the path,
+ * so {@link DirEntry#get(CharSequence)} does not allocate.
+ * <p>
+ * A tree built with {@link DirEntry#lazyRoot(PakIndex)} starts out as just the root, holding the ordinals of every
+ * subfile. The children of a DirEntry are only created when it is first walked into, at which point its subfiles
+ * are handed down to the new child DirEntries, so unvisited parts of the tree cost nothing.
  */
 public class DirEntry extends Entry implements Comparable<DirEntry> {
 
-    /** This DirEntry's children, can contain DirEntries and FileEntries */
-    private final Map<String, Entry> children = new HashMap<>();
+    /** The path separator, a backslash */
+    private static final char SEPARATOR = '\\';
+    /** The initial capacity of the child table, a power of two */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The names of this DirEntry's children, an open addressing hash table with linear probing */
+    private String[] keys = new String[INITIAL_CAPACITY];
+    /** This DirEntry's children, can contain DirEntries and FileEntries, parallel to {@link #keys} */
+    private Entry[] values = new Entry[INITIAL_CAPACITY];
+    /** The number of children */
+    private int numChildren;
+    /** The subfiles below this DirEntry whose entries have not been created yet, or null once expanded */
+    private volatile Pending pending;
 
     /**
      * Constructs a DirEntry with the given name and parent. If the parent is null, then this is a root entry/node.
@@ -51,49 +73,95 @@ public class DirEntry extends Entry implements Comparable<DirEntry> {
      * @return An unmodifiable map view of this DirEntry's children.
      */
     public Map<String, Entry> getChildren() {
-        return Collections.unmodifiableMap(children);
+        expand();
+        return new ChildMap();
+    }
+
+    /**
+     * Creates the root of a tree over the live subfiles of the index, with every DirEntry's children created when it
+     * is first walked into. The resulting tree is the same as inserting every subfile in file table order.
+     * @param index The PakIndex to take the subfiles from
+     * @return The root DirEntry
+     */
+    static DirEntry lazyRoot(PakIndex index) {
+        DirEntry root = new DirEntry("\\", null);
+        Pending pending = new Pending(index, index.getNumPaths());
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.isLive(i)) {
+                pending.add(i, 0);
+            }
+        }
+        root.pending = pending;
+        return root;
+    }
+
+    /**
+     * Creates this DirEntry's children from its pending subfiles, if it has not been done yet. Subfiles directly in
+     * this directory become FileEntries and the rest are handed down to the child DirEntries, in order, so that
+     * files and directories replace each other exactly as with {@link DirEntry#insert(String, FileInfo)}.
+     * @throws IllegalArgumentException If a subfile's directory is also the path of an earlier subfile, in which case
+     * the children created before it are kept
+     */
+    private void expand() {
+        if (pending == null) {
+            return;
+        }
+        synchronized (this) {
+            Pending pending = this.pending;
+            if (pending == null) {
+                return;
+            }
+            try {
+                PakIndex index = pending.index;
+                for (int i = 0; i < pending.count; ++i) {
+                    int ordinal = pending.ordinals[i];
+                    String path = index.getPath(ordinal);
+                    int len = path.length();
+                    int start = skipSeparator(path, pending.starts[i], len);
+                    int sep = nextSeparator(path, start, len);
+                    if (sep == len) {
+                        putFile(path, start, len, index.toFileInfo(ordinal));
+                    } else {
+                        DirEntry child = getOrCreateDir(path, start, sep);
+                        if (child.pending == null) {
+                            child.pending = new Pending(index, 4);
+                        }
+                        child.pending.add(ordinal, sep + 1);
+                    }
+                }
+            } finally {
+                //  Publishes the children, as readers check pending first. Also cleared on failure, as expanding
+                //  again would hand the earlier subfiles down a second time
+                this.pending = null;
+            }
+        }
     }
 
     /**
      * Recursively inserts a FileInfo into a FileEntry in the proper DirEntry.
      * <p>
-     * For instance, given the path "\a\b\c", this method will get or create a DirEntry with the name "a" and call
-     * {@code a.insert("\b\c", fileInfo)}. Once at "b", "b" will then construct a FileEntry with the given FileInfo
-     * and add it as a child, finishing the recursive insert operation.
+     * For instance, given the path "\a\b\c", this method will get or create a DirEntry with the name "a", then from
+     * "a" get or create "b". Once at "b", "b" will then construct a FileEntry with the given FileInfo and add it as a
+     * child, finishing the insert operation.
      * <p>
      * The leading backslash is optional.
      * @param path The path to the desired insertion point, relative to this DirEntry
      * @param fileInfo The FileInfo to insert into a FileEntry once at its proper DirEntry
      * @return The FileEntry that was inserted
+     * @throws IllegalArgumentException If the path requests the child of a file/leaf.
      */
     FileEntry insert(String path, FileInfo fileInfo) {
-        if (path.startsWith("\\")) {
-            path = path.substring(1);
-        }
-        String[] strs = path.split("\\\\", 2);
-        if (strs.length == 1) {
-            FileEntry entry =  new FileEntry(fileInfo.getFileName(), parent, fileInfo);
-            children.put(strs[0], entry);
-            return entry;
-        }
-        Entry newEntry = children.get(strs[0]);
-        DirEntry dirEntry;
-        if (newEntry instanceof DirEntry) {
-            dirEntry = (DirEntry) newEntry;
-        } else if (newEntry != null) {
-            throw new IllegalArgumentException("Cannot replace an existing file with a directory");
-        } else {
-            dirEntry = new DirEntry(strs[0], parent);
-            children.put(strs[0], dirEntry);
-        }
-        return dirEntry.insert(strs[1], fileInfo);
+        int len = path.length();
+        int start = skipSeparator(path, 0, len);
+        int nameStart = fileNameStart(path, start, len);
+        return resolveDir(path, start, nameStart).putFile(path, nameStart, len, fileInfo);
     }
 
     /**
      * Recursively gets the specified Entry at path.
      * <p>
      * For instance, given the path "\a\b\c", this method will find the child entry named "a". If "a" is a DirEntry,
-     * then it will call {@code a.get("\b\c"}. If "a" is not a DirEntry, then the method will fail with an
+     * then it will continue from "a" with "b". If "a" is not a DirEntry, then the method will fail with an
      * {@code IllegalArgumentException}. Once at "b", "b" will then return whatever "c" is: a DirEntry, a FileEntry, or
      * null (item does not exist).
      * <p>
@@ -103,25 +171,358 @@ public class DirEntry extends Entry implements Comparable<DirEntry> {
      * @throws IllegalArgumentException If the path requests the child of a file/leaf.
      */
     public Entry get(String path) {
-        if (path.startsWith("\\")) {
-            path = path.substring(1);
+        return get((CharSequence) path);
+    }
+
+    /**
+     * Gets the specified Entry at path, exactly as {@link DirEntry#get(String)}. Callers may pass a reused
+     * {@code StringBuilder} or any other CharSequence; nothing is allocated during the lookup.
+     * @param path The path to the entry, relative to this DirEntry
+     * @return The Entry at path relative to this DirEntry, or null if no such entry exists
+     * @throws IllegalArgumentException If the path requests the child of a file/leaf.
+     */
+    public Entry get(CharSequence path) {
+        int len = path.length();
+        int start = skipSeparator(path, 0, len);
+        DirEntry dirEntry = this;
+        while (true) {
+            int end = nextSeparator(path, start, len);
+            Entry entry = dirEntry.getChild(path, start, end);
+            if (end == len) {
+                return entry;
+            }
+            if (entry instanceof DirEntry) {
+                dirEntry = (DirEntry) entry;
+                start = skipSeparator(path, end + 1, len);
+            } else if (entry == null) {
+                return null;
+            } else {
+                throw new IllegalArgumentException("Cannot get a child of a file (leaf) node");
+            }
         }
-        String[] strs = path.split("\\\\", 2);
-        Entry entry = children.get(strs[0]);
-        if (strs.length == 1) {
-            return entry;
+    }
+
+    /**
+     * Gets or creates the DirEntry for the directories in {@code path[start, nameStart)}, where nameStart is the
+     * position of the last component as found by {@link DirEntry#fileNameStart(CharSequence, int, int)}.
+     * @throws IllegalArgumentException If a component of the path is a file
+     */
+    private DirEntry resolveDir(String path, int start, int nameStart) {
+        DirEntry dirEntry = this;
+        dirEntry.expand();
+        while (start < nameStart) {
+            int sep = nextSeparator(path, start, nameStart);
+            dirEntry = dirEntry.getOrCreateDir(path, start, sep);
+            dirEntry.expand();
+            start = skipSeparator(path, sep + 1, nameStart);
+        }
+        return dirEntry;
+    }
+
+    /**
+     * Gets the child named {@code path[start, end)}, or null if there is none.
+     */
+    private Entry getChild(CharSequence path, int start, int end) {
+        expand();
+        int mask = keys.length - 1;
+        for (int slot = hash(path, start, end) & mask; ; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (key == null) {
+                return null;
+            }
+            if (regionEquals(key, path, start, end)) {
+                return values[slot];
+            }
         }
+    }
+
+    /**
+     * Gets or creates the child DirEntry named {@code path[start, end)}.
+     * @throws IllegalArgumentException If the child is a file
+     */
+    private DirEntry getOrCreateDir(String path, int start, int end) {
+        int slot = findSlot(path, start, end);
+        Entry entry = values[slot];
         if (entry instanceof DirEntry) {
-            return ((DirEntry) entry).get(strs[1]);
-        } else if (entry == null) {
-            return null;
-        } else {
-            throw new IllegalArgumentException("Cannot get a child of a file (leaf) node");
+            return (DirEntry) entry;
+        } else if (entry != null) {
+            throw new IllegalArgumentException("Cannot replace an existing file with a directory");
+        }
+        String dirName = path.substring(start, end);
+        DirEntry dirEntry = new DirEntry(dirName, parent);
+        put(slot, dirName, dirEntry);
+        return dirEntry;
+    }
+
+    /**
+     * Puts a new FileEntry named {@code path[start, end)}, replacing any existing child of that name.
+     */
+    private FileEntry putFile(String path, int start, int end, FileInfo fileInfo) {
+        int slot = findSlot(path, start, end);
+        String key = keys[slot];
+        FileEntry entry = new FileEntry(fileInfo.getFileName(), parent, fileInfo);
+        put(slot, key == null ? path.substring(start, end) : key, entry);
+        return entry;
+    }
+
+    /**
+     * Finds the slot holding the child named {@code path[start, end)}, or the empty slot it would be inserted at.
+     */
+    private int findSlot(CharSequence path, int start, int end) {
+        int mask = keys.length - 1;
+        for (int slot = hash(path, start, end) & mask; ; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (key == null || regionEquals(key, path, start, end)) {
+                return slot;
+            }
+        }
+    }
+
+    private void put(int slot, String key, Entry entry) {
+        if (keys[slot] != null) {
+            values[slot] = entry;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = entry;
+        ++numChildren;
+        //  Keep the load factor at or below 3/4
+        if (numChildren * 4 > keys.length * 3) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        Entry[] oldValues = values;
+        keys = new String[capacity];
+        values = new Entry[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            String key = oldKeys[i];
+            if (key != null) {
+                int slot = key.hashCode() & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Computes the same hash as {@link String#hashCode()} for {@code path[start, end)}.
+     */
+    static int hash(CharSequence path, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; ++i) {
+            h = 31 * h + path.charAt(i);
+        }
+        return h;
+    }
+
+    private static boolean regionEquals(String key, CharSequence path, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        if (path instanceof String) {
+            return key.regionMatches(0, (String) path, start, end - start);
+        }
+        for (int i = start, j = 0; i < end; ++i, ++j) {
+            if (key.charAt(j) != path.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of the next separator at or after start, or end if there is none
+     */
+    private static int nextSeparator(CharSequence path, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (path.charAt(i) == SEPARATOR) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return The start of the last component of {@code path[start, end)}, walking the components the same way as
+     * {@link DirEntry#get(CharSequence)}
+     */
+    private static int fileNameStart(CharSequence path, int start, int end) {
+        while (true) {
+            int sep = nextSeparator(path, start, end);
+            if (sep == end) {
+                return start;
+            }
+            start = skipSeparator(path, sep + 1, end);
         }
     }
 
+    /**
+     * Skips a single separator at start, as each path component may optionally begin with one.
+     */
+    private static int skipSeparator(CharSequence path, int start, int end) {
+        return start < end && path.charAt(start) == SEPARATOR ? start + 1 : start;
+    }
+
     @Override
     public int compareTo(DirEntry o) {
         return this.name.compareToIgnoreCase(o.name);
     }
+
+    /**
+     * Inserts many FileInfos into a tree, as {@link DirEntry#insert(String, FileInfo)} would one by one. PakFiles
+     * list their subfiles grouped by directory, so the directory of the previous insert is remembered and reused
+     * whenever the next path shares it, skipping the walk from the root.
+     */
+    static class BulkInserter {
+
+        private final DirEntry root;
+        /** The path of the previous insert, or null */
+        private String lastPath;
+        /** The start and end of the directories in {@link #lastPath} */
+        private int lastStart;
+        private int lastEnd;
+        /** The DirEntry that {@code lastPath[lastStart, lastEnd)} resolved to */
+        private DirEntry lastDir;
+
+        BulkInserter(DirEntry root) {
+            this.root = root;
+        }
+
+        /**
+         * Inserts a FileInfo into the tree.
+         * @param path The path to insert at, relative to the root
+         * @param fileInfo The FileInfo to insert
+         * @return The FileEntry that was inserted
+         * @throws IllegalArgumentException If the path requests the child of a file/leaf.
+         */
+        FileEntry insert(String path, FileInfo fileInfo) {
+            int len = path.length();
+            int start = skipSeparator(path, 0, len);
+            int nameStart = fileNameStart(path, start, len);
+            DirEntry dirEntry;
+            if (lastPath != null && nameStart - start == lastEnd - lastStart &&
+                    path.regionMatches(start, lastPath, lastStart, nameStart - start)) {
+                dirEntry = lastDir;
+            } else {
+                dirEntry = root.resolveDir(path, start, nameStart);
+                lastPath = path;
+                lastStart = start;
+                lastEnd = nameStart;
+                lastDir = dirEntry;
+            }
+            return insertInto(dirEntry, path, nameStart, len, fileInfo);
+        }
+
+        private FileEntry insertInto(DirEntry dirEntry, String path, int start, int end, FileInfo fileInfo) {
+            if (dirEntry.getChild(path, start, end) instanceof DirEntry) {
+                //  A file is replacing a directory, which may be the remembered one or one of its ancestors
+                lastPath = null;
+                lastDir = null;
+            }
+            return dirEntry.putFile(path, start, end, fileInfo);
+        }
+    }
+
+    /**
+     * The subfiles below a DirEntry that has not been expanded yet: their ordinals in the index, in file table order,
+     * and where each one's path continues below the DirEntry. Only modified while the tree is being expanded.
+     */
+    private static class Pending {
+
+        final PakIndex index;
+        int[] ordinals;
+        int[] starts;
+        int count;
+
+        Pending(PakIndex index, int capacity) {
+            this.index = index;
+            ordinals = new int[Math.max(1, capacity)];
+            starts = new int[ordinals.length];
+        }
+
+        void add(int ordinal, int start) {
+            if (count == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            ordinals[count] = ordinal;
+            starts[count] = start;
+            ++count;
+        }
+    }
+
+    /**
+     * An unmodifiable map view over the child table. Within a Map, {@code Entry} names {@link Map.Entry}, so
+     * {@link co.phoenixlab.dn.pak.Entry} is written out in full.
+     */
+    private class ChildMap extends AbstractMap<String, co.phoenixlab.dn.pak.Entry> {
+
+        @Override
+        public co.phoenixlab.dn.pak.Entry get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            String name = (String) key;
+            return getChild(name, 0, name.length());
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return numChildren;
+        }
+
+        @Override
+        public Set<Map.Entry<String, co.phoenixlab.dn.pak.Entry>> entrySet() {
+            return new AbstractSet<Map.Entry<String, co.phoenixlab.dn.pak.Entry>>() {
+                @Override
+                public Iterator<Map.Entry<String, co.phoenixlab.dn.pak.Entry>> iterator() {
+                    return new Iterator<Map.Entry<String, co.phoenixlab.dn.pak.Entry>>() {
+                        private final String[] iterKeys = keys;
+                        private final co.phoenixlab.dn.pak.Entry[] iterValues = values;
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < iterKeys.length && iterKeys[from] == null) {
+                                ++from;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < iterKeys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, co.phoenixlab.dn.pak.Entry> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, co.phoenixlab.dn.pak.Entry> entry =
+                                    new SimpleImmutableEntry<>(iterKeys[next], iterValues[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return numChildren;
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * A Spliterator over a fixed array of {@link PakIndex} ordinals that maps each one to its FileEntry as it is reached.
+ * <p>
+ * Since the ordinals are known up front, the exact size of every split is known, and each split hands off the first
+ * half of the remaining ordinals, so parallel streams divide the work evenly. The array is never modified.
+ */
+class EntrySpliterator implements Spliterator<FileEntry> {
+
+    /** The ordinals to visit, in encounter order */
+    private final int[] ordinals;
+    /** Maps an ordinal to its FileEntry, which must not be null */
+    private final IntFunction<FileEntry> toEntry;
+    /** The next ordinal to visit, an index into {@link EntrySpliterator#ordinals} */
+    private int index;
+    /** The end (exclusive) of this Spliterator's range of {@link EntrySpliterator#ordinals} */
+    private final int end;
+
+    /**
+     * Constructs an EntrySpliterator over all of the given ordinals.
+     * @param ordinals The ordinals to visit, in encounter order
+     * @param toEntry Maps an ordinal to its FileEntry, may be called from any thread
+     */
+    EntrySpliterator(int[] ordinals, IntFunction<FileEntry> toEntry) {
+        this(ordinals, toEntry, 0, ordinals.length);
+    }
+
+    private EntrySpliterator(int[] ordinals, IntFunction<FileEntry> toEntry, int index, int end) {
+        this.ordinals = ordinals;
+        this.toEntry = toEntry;
+        this.index = index;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super FileEntry> action) {
+        if (index >= end) {
+            return false;
+        }
+        action.accept(toEntry.apply(ordinals[index++]));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super FileEntry> action) {
+        int end = this.end;
+        for (int i = index; i < end; ++i) {
+            action.accept(toEntry.apply(ordinals[i]));
+        }
+        index = end;
+    }
+
+    @Override
+    public Spliterator<FileEntry> trySplit() {
+        int mid = (index + end) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        EntrySpliterator prefix = new EntrySpliterator(ordinals, toEntry, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - index;
+    }
+
+    @Override
+    public int characteristics() {
+        //  Not DISTINCT, FileEntries in different directories with the same name are equal
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
@@ -25,6 +25,7 @@
 package co.phoenixlab.dn.pak;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static co.phoenixlab.dn.pak.Util.readNulTerminatedStr;
 import static java.lang.Integer.*;
@@ -34,7 +35,7 @@ public class FileInfo {
     /**
      * {@value} bytes, the size of the name field on disk. The name itself may be shorter.
      */
-    private static final int NAME_BYTES_SIZE = 256;
+    static final int NAME_BYTES_SIZE = 256;
     /**
      * {@value} bytes, the size of a FileInfo on disk.
      */
@@ -45,6 +46,17 @@ public class FileInfo {
      */
     private static final int PADDING_SIZE = 40;
 
+    /** Offset of the disk size field within a FileInfo on disk */
+    static final int DISK_SIZE_OFFSET = NAME_BYTES_SIZE;
+    /** Offset of the decompressed size field within a FileInfo on disk */
+    static final int DECOMPRESSED_SIZE_OFFSET = DISK_SIZE_OFFSET + 4;
+    /** Offset of the compressed size field within a FileInfo on disk */
+    static final int COMPRESSED_SIZE_OFFSET = DECOMPRESSED_SIZE_OFFSET + 4;
+    /** Offset of the disk offset field within a FileInfo on disk */
+    static final int DISK_OFFSET_OFFSET = COMPRESSED_SIZE_OFFSET + 4;
+    /** Offset of the unknown field within a FileInfo on disk */
+    static final int UNKNOWN_OFFSET = DISK_OFFSET_OFFSET + 4;
+
     /** The full path to this file, starting with root (\) */
     private String fullPath;
     /** The name of this file, which is the path after the last non-trailing backslash (\) */
@@ -73,18 +85,86 @@ public class FileInfo {
         if (fullPath.length() > 0) {
             fullPath = fullPath.substring(1);   //  Remove leading backslash
         }
-        String[] tmp = fullPath.split("\\\\");
-        fileName = tmp[tmp.length - 1];
+        fileName = fileNameOf(fullPath);
         diskSize = toUnsignedLong(buffer.getInt());
         decompressedSize = toUnsignedLong(buffer.getInt());
         compressedSize = toUnsignedLong(buffer.getInt());
         diskOffset = toUnsignedLong(buffer.getInt());
         unknown = buffer.getInt();
-        byte[] padding = new byte[PADDING_SIZE];
-        buffer.get(padding);
+        //  Skip padding
+        buffer.position(buffer.position() + PADDING_SIZE);
+        return this;
+    }
+
+    /**
+     * Loads a FileInfo from the record the given FileTableCursor is currently on. Unlike
+     * {@link FileInfo#load(ByteBuffer)}, this does not allocate anything besides the path strings.
+     * @param cursor The FileTableCursor to read from, positioned at the desired record
+     * @return This FileInfo, after its fields have been filled from the data on disk.
+     */
+    public FileInfo load(FileTableCursor cursor) {
+        fullPath = cursor.getFullPath();
+        fileName = fileNameOf(fullPath);
+        diskSize = cursor.getDiskSize();
+        decompressedSize = cursor.getDecompressedSize();
+        compressedSize = cursor.getCompressedSize();
+        diskOffset = cursor.getDiskOffset();
+        unknown = cursor.getUnknown();
         return this;
     }
 
+    /**
+     * Writes this FileInfo as a file table record at the buffer's position, the inverse of
+     * {@link FileInfo#load(ByteBuffer)}. The buffer must be little endian.
+     * @param buffer The ByteBuffer to write to, with at least {@link FileInfo#FILE_INFO_SIZE} bytes remaining
+     * @throws IllegalArgumentException If the full path is too long for the name field, or a size or offset does not
+     * fit in 32 bits
+     */
+    public void write(ByteBuffer buffer) {
+        byte[] pathBytes = ("\\" + fullPath).getBytes(StandardCharsets.UTF_8);
+        //  Leave room for the NUL terminator
+        if (pathBytes.length >= NAME_BYTES_SIZE) {
+            throw new IllegalArgumentException("Path is too long: " + fullPath);
+        }
+        int start = buffer.position();
+        buffer.put(pathBytes);
+        for (int i = pathBytes.length; i < NAME_BYTES_SIZE; ++i) {
+            buffer.put((byte) 0);
+        }
+        buffer.putInt(toUnsignedInt(diskSize));
+        buffer.putInt(toUnsignedInt(decompressedSize));
+        buffer.putInt(toUnsignedInt(compressedSize));
+        buffer.putInt(toUnsignedInt(diskOffset));
+        buffer.putInt(unknown);
+        for (int i = 0; i < PADDING_SIZE; ++i) {
+            buffer.put((byte) 0);
+        }
+        assert buffer.position() - start == FILE_INFO_SIZE;
+    }
+
+    private static int toUnsignedInt(long value) {
+        if (value < 0 || value > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException(String.format("Value does not fit in 32 bits: 0x%016X", value));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Gets the portion of the path after the last backslash. Equivalent to taking the last element of
+     * {@code path.split("\\\\")} without the regex and array allocation.
+     */
+    static String fileNameOf(String path) {
+        int end = path.length();
+        //  split() drops trailing empty strings
+        while (end > 0 && path.charAt(end - 1) == '\\') {
+            --end;
+        }
+        if (end == 0) {
+            return "";
+        }
+        return path.substring(path.lastIndexOf('\\', end - 1) + 1, end);
+    }
+
     @Override
     public String toString() {
         return "FileEntry{" +
@@ -0,0 +1,446 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static co.phoenixlab.dn.pak.FileInfo.*;
+import static java.lang.Integer.toUnsignedLong;
+
+/**
+ * A flyweight view over a raw file table. Rather than copying each record into a {@link FileInfo}, a cursor is moved
+ * from record to record and its fields are read straight out of the underlying buffer with absolute gets. The padding
+ * is never touched and paths are only decoded when {@link FileTableCursor#getFullPath()} is called.
+ * <p>
+ * A cursor either covers a table that is already in memory, or reaches the table through a FileChannel one window of
+ * records at a time (see {@link FileTableCursor#open(FileChannel, PakHeader, boolean)}), so that tables of any size
+ * can be walked while only one window is mapped or buffered.
+ * <p>
+ * A FileTableCursor is not thread safe, but multiple cursors may share the same table.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileTableCursor {
+
+    /** {@value}, the number of records in each window of a windowed cursor, about 64 MB */
+    public static final int WINDOW_RECORDS = 212_000;
+    /** {@value}, the number of records in each chunk visited by {@link #forEachChunk}, about 5 MB */
+    static final int CHUNK_RECORDS = 16_384;
+    /** File tables with fewer records than this are not worth splitting into chunks */
+    static final int SPLIT_THRESHOLD = 4 * CHUNK_RECORDS;
+
+    /**
+     * The file table, or the current window of it, as a little endian buffer with record {@link #windowStart} at
+     * index 0. Only this cursor uses its position
+     */
+    private ByteBuffer table;
+    /** The number of records in the table */
+    private final int numRecords;
+    /** The channel windows are read from, or null if the whole table is in {@link #table} */
+    private final FileChannel channel;
+    /** The position of the file table in {@link #channel} */
+    private final long tableOffset;
+    /** The number of records in each window */
+    private final int windowRecords;
+    /** Whether windows are mapped, rather than read into {@link #table} */
+    private final boolean map;
+    /** The ordinal of the first record in {@link #table} */
+    private int windowStart;
+    /** The number of records currently in {@link #table} */
+    private int windowLength;
+    /** Scratch space for decoding paths */
+    private final byte[] nameBytes = new byte[NAME_BYTES_SIZE];
+    /** The current record */
+    private int ordinal;
+    /** The index in {@link FileTableCursor#table} of the start of the current record */
+    private int base;
+
+    /**
+     * Constructs a FileTableCursor over the given table, positioned before the first record. The buffer's
+     * position and limit are not used or modified; record 0 must start at index 0.
+     * @param table The file table
+     * @param numRecords The number of records in the table
+     * @throws IllegalArgumentException If the table is too small to hold numRecords records
+     */
+    public FileTableCursor(ByteBuffer table, int numRecords) {
+        if ((long) numRecords * FILE_INFO_SIZE > table.capacity()) {
+            throw new IllegalArgumentException("Table is too small for " + numRecords + " records");
+        }
+        //  Don't change the caller's byte order
+        this.table = table.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.numRecords = numRecords;
+        this.channel = null;
+        this.tableOffset = 0;
+        this.windowRecords = numRecords;
+        this.map = false;
+        this.windowStart = 0;
+        this.windowLength = numRecords;
+        this.ordinal = -1;
+        this.base = -FILE_INFO_SIZE;
+    }
+
+    /**
+     * Constructs a FileTableCursor that reaches the table through the given channel in windows of windowRecords
+     * records, positioned before the first record. The channel is not closed by the cursor.
+     * @param channel The channel to the table
+     * @param tableOffset The position of the file table in the channel
+     * @param numRecords The number of records in the table
+     * @param windowRecords The number of records in each window
+     * @param map True to map each window, false to read it into a single reused heap buffer
+     * @throws IllegalArgumentException If windowRecords is less than 1
+     */
+    FileTableCursor(FileChannel channel, long tableOffset, int numRecords, int windowRecords, boolean map) {
+        if (windowRecords < 1) {
+            throw new IllegalArgumentException("Invalid window size: " + windowRecords);
+        }
+        this.windowRecords = Math.max(1, Math.min(windowRecords, numRecords));
+        this.map = map;
+        this.table = map ? null :
+                ByteBuffer.allocate(this.windowRecords * FILE_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.numRecords = numRecords;
+        this.channel = channel;
+        this.tableOffset = tableOffset;
+        this.windowStart = 0;
+        this.windowLength = 0;
+        this.ordinal = -1;
+        this.base = -FILE_INFO_SIZE;
+    }
+
+    /**
+     * Opens a windowed FileTableCursor over the file table described by the header. No more than
+     * {@link #WINDOW_RECORDS} records are mapped or buffered at once, so the table may be larger than 2 GB, and a
+     * table that fits in one window is mapped or read in one go.
+     * <p>
+     * Mapped windows are the fastest to parse, but a mapping is only released once its buffer is garbage collected
+     * and prevents the file from being truncated on some platforms; read windows copy the table into a reused heap
+     * buffer instead.
+     * @param channel The channel to the PakFile, which the cursor does not close
+     * @param header The PakFile's header
+     * @param map True to map each window, false to read it
+     * @return A FileTableCursor positioned before the first record
+     * @throws InvalidPakException If the table has more records than can be indexed, or extends past the end of the
+     * file
+     * @throws IOException If there was an error getting the size of the file
+     */
+    static FileTableCursor open(FileChannel channel, PakHeader header, boolean map) throws IOException {
+        return new FileTableCursor(channel, header.getFileTableOffset(), checkTable(channel, header), WINDOW_RECORDS,
+                map);
+    }
+
+    /**
+     * Checks that the file table described by the header can be walked.
+     * @param channel The channel to the PakFile
+     * @param header The PakFile's header
+     * @return The number of records in the table
+     * @throws InvalidPakException If the table has more records than can be indexed, or extends past the end of the
+     * file
+     * @throws IOException If there was an error getting the size of the file
+     */
+    static int checkTable(FileChannel channel, PakHeader header) throws IOException {
+        long numFiles = header.getNumFiles();
+        //  Every record ends up in a PakIndex, whose hash table must fit in an array
+        if (numFiles > PakIndex.MAX_SIZE) {
+            throw new InvalidPakException("File table is too large: " + numFiles + " files");
+        }
+        long tableEnd = header.getFileTableOffset() + numFiles * FILE_INFO_SIZE;
+        if (tableEnd > channel.size()) {
+            throw new InvalidPakException(String.format("File table ends at 0x%X, past the end of the file at 0x%X",
+                    tableEnd, channel.size()));
+        }
+        return (int) numFiles;
+    }
+
+    /**
+     * Checks whether the file table described by the header is large enough to be worth parsing with
+     * {@link #forEachChunk} on the common ForkJoinPool, and that the pool has more than one thread to parse with.
+     * @param header The PakFile's header
+     * @return True to parse the table in chunks, false to walk it with a single cursor
+     */
+    static boolean isWorthSplitting(PakHeader header) {
+        return header.getNumFiles() >= SPLIT_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Splits the file table described by the header into chunks of chunkRecords records and visits them in parallel
+     * on the given pool, each through its own mapped cursor. Chunks are visited in no particular order; since every
+     * record lies in exactly one chunk, visitors may write to disjoint parts of shared arrays, which are visible to
+     * the caller once this method returns.
+     * @param channel The channel to the PakFile, which is not closed
+     * @param header The PakFile's header
+     * @param chunkRecords The number of records in each chunk, except the last one
+     * @param pool The pool to run on
+     * @param visitor The visitor to call for each chunk
+     * @return The number of chunks, {@code ceil(numRecords / chunkRecords)}
+     * @throws InvalidPakException If the table is invalid, see {@link #checkTable(FileChannel, PakHeader)}
+     * @throws IOException If there was an error mapping the table
+     */
+    static int forEachChunk(FileChannel channel, PakHeader header, int chunkRecords, ForkJoinPool pool,
+                            ChunkVisitor visitor) throws IOException {
+        if (chunkRecords < 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkRecords);
+        }
+        int numRecords = checkTable(channel, header);
+        int numChunks = (int) ((numRecords + (long) chunkRecords - 1) / chunkRecords);
+        try {
+            pool.invoke(new ChunkTask(channel, header.getFileTableOffset(), numRecords, chunkRecords, visitor,
+                    0, numChunks));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return numChunks;
+    }
+
+    /**
+     * Visits one chunk of a file table, see {@link #forEachChunk}.
+     */
+    @FunctionalInterface
+    interface ChunkVisitor {
+        /**
+         * @param chunk The index of the chunk
+         * @param first The ordinal in the whole table of the chunk's first record
+         * @param cursor A cursor over only the chunk's records, positioned before the first one. Its ordinals are
+         * relative to first
+         */
+        void visit(int chunk, int first, FileTableCursor cursor);
+    }
+
+    /**
+     * Splits a range of chunks in half until there is one left, and visits it.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long tableOffset;
+        private final int numRecords;
+        private final int chunkRecords;
+        private final ChunkVisitor visitor;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long tableOffset, int numRecords, int chunkRecords, ChunkVisitor visitor,
+                  int from, int to) {
+            this.channel = channel;
+            this.tableOffset = tableOffset;
+            this.numRecords = numRecords;
+            this.chunkRecords = chunkRecords;
+            this.visitor = visitor;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(channel, tableOffset, numRecords, chunkRecords, visitor, from, mid),
+                        new ChunkTask(channel, tableOffset, numRecords, chunkRecords, visitor, mid, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            int first = from * chunkRecords;
+            int length = Math.min(chunkRecords, numRecords - first);
+            visitor.visit(from, first, new FileTableCursor(channel, tableOffset + (long) first * FILE_INFO_SIZE,
+                    length, length, true));
+        }
+    }
+
+    /**
+     * Makes sure the record at the given ordinal is in {@link #table}, mapping or reading the window starting at it
+     * if not.
+     * @throws UncheckedIOException If there was an error mapping or reading the window
+     */
+    private void ensureLoaded(int ordinal) {
+        if (ordinal >= windowStart && ordinal < windowStart + windowLength) {
+            return;
+        }
+        int length = Math.min(windowRecords, numRecords - ordinal);
+        long position = tableOffset + (long) ordinal * FILE_INFO_SIZE;
+        try {
+            if (map) {
+                //  Drop the old window first so that it can be unmapped
+                table = null;
+                table = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) length * FILE_INFO_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                windowStart = ordinal;
+                windowLength = length;
+                return;
+            }
+            table.clear();
+            table.limit(length * FILE_INFO_SIZE);
+            while (table.hasRemaining()) {
+                if (channel.read(table, position + table.position()) == -1) {
+                    throw new InvalidPakException("Unexpected EOF in file table");
+                }
+            }
+        } catch (IOException e) {
+            windowLength = 0;
+            throw new UncheckedIOException(e);
+        }
+        windowStart = ordinal;
+        windowLength = length;
+    }
+
+    /**
+     * Advances to the next record.
+     * @return True if the cursor is now on a valid record, false if there are no more records
+     * @throws UncheckedIOException If this is a windowed cursor and there was an error reading the next window
+     */
+    public boolean next() {
+        if (ordinal + 1 >= numRecords) {
+            ordinal = numRecords;
+            return false;
+        }
+        ++ordinal;
+        if (channel != null) {
+            ensureLoaded(ordinal);
+            base = (ordinal - windowStart) * FILE_INFO_SIZE;
+        } else {
+            base += FILE_INFO_SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the given record.
+     * @param ordinal The index of the record in the table
+     * @return This FileTableCursor, for chaining
+     * @throws IndexOutOfBoundsException If the ordinal is not in the table
+     * @throws UncheckedIOException If this is a windowed cursor and there was an error reading the record's window
+     */
+    public FileTableCursor moveTo(int ordinal) {
+        if (ordinal < 0 || ordinal >= numRecords) {
+            throw new IndexOutOfBoundsException("Record " + ordinal + " out of " + numRecords);
+        }
+        if (channel != null) {
+            ensureLoaded(ordinal);
+        }
+        this.ordinal = ordinal;
+        this.base = (ordinal - windowStart) * FILE_INFO_SIZE;
+        return this;
+    }
+
+    /**
+     * @return The index of the current record in the table
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * @return The number of records in the table
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @see FileInfo#getDiskSize()
+     */
+    public long getDiskSize() {
+        return toUnsignedLong(table.getInt(base + DISK_SIZE_OFFSET));
+    }
+
+    /**
+     * @see FileInfo#getDecompressedSize()
+     */
+    public long getDecompressedSize() {
+        return toUnsignedLong(table.getInt(base + DECOMPRESSED_SIZE_OFFSET));
+    }
+
+    /**
+     * @see FileInfo#getCompressedSize()
+     */
+    public long getCompressedSize() {
+        return toUnsignedLong(table.getInt(base + COMPRESSED_SIZE_OFFSET));
+    }
+
+    /**
+     * @see FileInfo#getDiskOffset()
+     */
+    public long getDiskOffset() {
+        return toUnsignedLong(table.getInt(base + DISK_OFFSET_OFFSET));
+    }
+
+    /**
+     * @see FileInfo#getUnknown()
+     */
+    public int getUnknown() {
+        return table.getInt(base + UNKNOWN_OFFSET);
+    }
+
+    /**
+     * Gets the length of the raw path, in bytes, not including the NUL terminator
+     * @return The length of the path on disk
+     */
+    public int getPathLength() {
+        //  Bulk copy rather than scanning with absolute gets, it's much faster on direct buffers
+        table.position(base);
+        table.get(nameBytes);
+        int len = 0;
+        while (len < NAME_BYTES_SIZE && nameBytes[len] != 0) {
+            ++len;
+        }
+        return len;
+    }
+
+    /**
+     * Decodes the path of the current record. As with {@link FileInfo#getFullPath()}, the leading backslash is
+     * removed.
+     * @return The full path of the current record
+     */
+    public String getFullPath() {
+        int len = getPathLength();
+        if (len == 0) {
+            return "";
+        }
+        //  Skip the leading backslash
+        return new String(nameBytes, 1, len - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the raw UTF-8 path of the current record into the given array, without the leading backslash.
+     * @param dest The array to copy into
+     * @param offset The index in dest to start copying to, with room for at least 255 bytes after it
+     * @return The number of bytes copied
+     */
+    public int getPathBytes(byte[] dest, int offset) {
+        int len = getPathLength();
+        if (len == 0) {
+            return 0;
+        }
+        System.arraycopy(nameBytes, 1, dest, offset, len - 1);
+        return len - 1;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An IndexCache persists the {@link PakIndex} of each PakFile loaded through a {@link PakFileReader} into a sidecar
+ * file, so that the next load can map the sidecar instead of parsing the file table and rebuilding the hash table.
+ * <p>
+ * Each sidecar records the size and last modified time of its PakFile as well as the file count and file table offset
+ * from the header. If any of these no longer match, or the sidecar is damaged, it is ignored and rewritten on the next
+ * load. Failure to write a sidecar (for example, a read only directory) is not an error; the PakFile simply loads
+ * uncached.
+ * <p>
+ * With {@link IndexCache#setIncludeNames(boolean)}, sidecars also hold the {@link NameIndex} of each PakFile, so that
+ * searches by name are fast from the first query.
+ * <p>
+ * Instances are safe for concurrent use.
+ * @see PakFileReader#setIndexCache(IndexCache)
+ */
+@SuppressWarnings("WeakerAccess")
+public class IndexCache {
+
+    /** The file extension of sidecar files, "{@value}" */
+    public static final String EXTENSION = ".idx";
+    /** The magic word at the beginning of every sidecar file */
+    static final byte[] MAGIC = "DNPAKIDX".getBytes(StandardCharsets.US_ASCII);
+    /** {@value}, the version of the sidecar format */
+    static final int VERSION = 1;
+    /** {@value} bytes, the size of the sidecar header */
+    static final int HEADER_SIZE = 48;
+    /** Header flag set when a NameIndex follows the PakIndex */
+    static final int FLAG_NAMES = 1;
+
+    /** The directory to keep sidecars in, or null to keep them beside their PakFile */
+    private final Path directory;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private volatile boolean includeNames;
+
+    /**
+     * Constructs an IndexCache that keeps each sidecar beside its PakFile, as {@code <pak name>.idx}.
+     */
+    public IndexCache() {
+        this(null);
+    }
+
+    /**
+     * Constructs an IndexCache that keeps all sidecars in the given directory. Since PakFiles in different directories
+     * may share a name, sidecars are named after both the PakFile's name and a hash of its absolute path.
+     * @param directory The directory to keep sidecars in. It is created when the first sidecar is written.
+     */
+    public IndexCache(Path directory) {
+        this.directory = directory;
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    /**
+     * Gets the location of the sidecar for the given PakFile. The sidecar may not exist.
+     * @param pakPath The path to the PakFile
+     * @return The path to its sidecar file
+     */
+    public Path getSidecarPath(Path pakPath) {
+        Path absolute = pakPath.toAbsolutePath().normalize();
+        String name = absolute.getFileName().toString();
+        if (directory == null) {
+            return absolute.resolveSibling(name + EXTENSION);
+        }
+        return directory.resolve(String.format("%s.%08x%s", name, absolute.toString().hashCode(), EXTENSION));
+    }
+
+    /**
+     * Deletes the sidecar for the given PakFile, if there is one.
+     * @param pakPath The path to the PakFile
+     * @throws IOException If the sidecar exists but could not be deleted
+     */
+    public void invalidate(Path pakPath) throws IOException {
+        Files.deleteIfExists(getSidecarPath(pakPath));
+    }
+
+    /**
+     * @return Whether sidecars include the NameIndex
+     */
+    public boolean isIncludeNames() {
+        return includeNames;
+    }
+
+    /**
+     * Sets whether sidecars include the {@link NameIndex} of their PakFile. When set, PakFiles loaded through this
+     * cache come with their NameIndex already built, and sidecars written without one are rewritten on the next load.
+     * Sidecars with a NameIndex can still be used when this is not set. Off by default.
+     * @param includeNames Whether to build and store the NameIndex
+     */
+    public void setIncludeNames(boolean includeNames) {
+        this.includeNames = includeNames;
+    }
+
+    /**
+     * @return The number of loads served from a sidecar
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of loads that had no valid sidecar
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Loads the cached index for the given PakFile, if there is a sidecar for it that is still valid.
+     * @param pakPath The path to the PakFile
+     * @param attributes The PakFile's attributes, read before its header
+     * @param header The PakFile's header, as just read
+     * @return The cached indexes, or null if there is no valid sidecar
+     */
+    Loaded load(Path pakPath, BasicFileAttributes attributes, PakHeader header) {
+        Path sidecar = getSidecarPath(pakPath);
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length >= HEADER_SIZE && length <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int flags = readHeader(buffer, attributes, header);
+                if (flags != -1) {
+                    PakIndex index = PakIndex.readFrom(buffer);
+                    if (index.size() == header.getNumFiles()) {
+                        NameIndex nameIndex = (flags & FLAG_NAMES) != 0 ? NameIndex.readFrom(buffer, index) : null;
+                        hits.increment();
+                        return new Loaded(index, nameIndex, attributes);
+                    }
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            //  No sidecar yet
+        } catch (IOException e) {
+            //  Unreadable or damaged sidecar, treat as a miss and let store() replace it
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Writes the sidecar for the given PakFile, replacing any existing one. The sidecar is written to a temporary file
+     * first and then moved into place, so readers never see a partial sidecar. Errors are ignored.
+     * <p>
+     * The sidecar is stamped with the given attributes rather than the PakFile's current ones, so that if the PakFile
+     * was rewritten after its index was built, the stale sidecar doesn't match and is ignored.
+     * @param pakPath The path to the PakFile
+     * @param attributes The PakFile's attributes, read before the index was built
+     * @param header The PakFile's header
+     * @param index The PakFile's index
+     * @param nameIndex The PakFile's NameIndex, or null to store only the PakIndex
+     */
+    void store(Path pakPath, BasicFileAttributes attributes, PakHeader header, PakIndex index, NameIndex nameIndex) {
+        Path sidecar = getSidecarPath(pakPath);
+        Path temp = null;
+        try {
+            Path parent = sidecar.getParent();
+            Files.createDirectories(parent);
+            temp = Files.createTempFile(parent, sidecar.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.put(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putInt(nameIndex != null ? FLAG_NAMES : 0);
+                buffer.putLong(attributes.size());
+                buffer.putLong(attributes.lastModifiedTime().toMillis());
+                buffer.putLong(header.getNumFiles());
+                buffer.putLong(header.getFileTableOffset());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                index.writeTo(channel);
+                if (nameIndex != null) {
+                    nameIndex.writeTo(channel);
+                }
+            }
+            try {
+                Files.move(temp, sidecar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException ignored) {
+            //  Caching is best effort
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and checks the sidecar header against the PakFile.
+     * @return The sidecar's flags, or -1 if the sidecar does not belong to the current version of the PakFile
+     */
+    private int readHeader(ByteBuffer buffer, BasicFileAttributes attributes, PakHeader header) {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            return -1;
+        }
+        int flags = buffer.getInt();
+        boolean valid = buffer.getLong() == attributes.size() &&
+                buffer.getLong() == attributes.lastModifiedTime().toMillis() &&
+                buffer.getLong() == header.getNumFiles() &&
+                buffer.getLong() == header.getFileTableOffset();
+        return valid ? flags & FLAG_NAMES : -1;
+    }
+
+    /**
+     * The indexes loaded from a sidecar.
+     */
+    static class Loaded {
+
+        final PakIndex index;
+        /** The NameIndex, or null if the sidecar does not have one */
+        final NameIndex nameIndex;
+        /** The attributes of the PakFile the indexes were built from, to stamp a sidecar with */
+        final BasicFileAttributes attributes;
+
+        Loaded(PakIndex index, NameIndex nameIndex, BasicFileAttributes attributes) {
+            this.index = index;
+            this.nameIndex = nameIndex;
+            this.attributes = attributes;
+        }
+    }
+}
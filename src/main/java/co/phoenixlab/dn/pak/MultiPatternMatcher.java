@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.util.Arrays;
+
+/**
+ * An Aho-Corasick automaton that finds any number of byte patterns in a single pass over a stream, one byte at a
+ * time, without ever backing up.
+ * <p>
+ * The automaton is compiled into a dense transition table of 256 entries per state, so each byte costs one array
+ * lookup regardless of the number of patterns. The table is sized by the total length of the patterns, which is
+ * expected to be small.
+ * <p>
+ * The matcher itself is immutable and may be shared between threads; the only scan state is the current state
+ * number, which callers keep themselves, starting from {@link MultiPatternMatcher#START}.
+ */
+class MultiPatternMatcher {
+
+    /** The initial state, before any bytes have been seen */
+    static final int START = 0;
+
+    /** Next state by (state * 256 + byte) */
+    private final int[] transitions;
+    /** Indices of the patterns that end in each state, or null if none do */
+    private final int[][] outputs;
+    private final int[] lengths;
+    private final int maxLength;
+
+    /**
+     * Compiles the patterns.
+     * @param patterns The patterns to find. Must not be empty.
+     * @param ignoreCase Whether ASCII letters match regardless of case
+     * @throws IllegalArgumentException If there are no patterns or a pattern is empty
+     */
+    MultiPatternMatcher(byte[][] patterns, boolean ignoreCase) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("No patterns given");
+        }
+        int maxStates = 1;
+        lengths = new int[patterns.length];
+        int max = 0;
+        for (int i = 0; i < patterns.length; ++i) {
+            if (patterns[i].length == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            maxStates += patterns[i].length;
+            lengths[i] = patterns[i].length;
+            max = Math.max(max, lengths[i]);
+        }
+        maxLength = max;
+        //  Build the trie, with -1 for missing edges
+        int[] table = new int[maxStates << 8];
+        Arrays.fill(table, -1);
+        int[][] out = new int[maxStates][];
+        int numStates = 1;
+        for (int i = 0; i < patterns.length; ++i) {
+            int state = START;
+            for (byte b : patterns[i]) {
+                int c = ignoreCase ? toLower(b & 0xFF) : b & 0xFF;
+                int next = table[(state << 8) | c];
+                if (next == -1) {
+                    next = numStates++;
+                    table[(state << 8) | c] = next;
+                }
+                state = next;
+            }
+            out[state] = append(out[state], i);
+        }
+        //  Breadth first, fill in the missing edges from the failure links and inherit their outputs
+        int[] fail = new int[numStates];
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < 256; ++c) {
+            int next = table[c];
+            if (next == -1) {
+                table[c] = START;
+            } else {
+                fail[next] = START;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < 256; ++c) {
+                int next = table[(state << 8) | c];
+                int fallback = table[(fail[state] << 8) | c];
+                if (next == -1) {
+                    table[(state << 8) | c] = fallback;
+                } else {
+                    fail[next] = fallback;
+                    if (out[fallback] != null) {
+                        for (int pattern : out[fallback]) {
+                            out[next] = append(out[next], pattern);
+                        }
+                    }
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (ignoreCase) {
+            for (int state = 0; state < numStates; ++state) {
+                for (int c = 'A'; c <= 'Z'; ++c) {
+                    table[(state << 8) | c] = table[(state << 8) | toLower(c)];
+                }
+            }
+        }
+        transitions = Arrays.copyOf(table, numStates << 8);
+        outputs = Arrays.copyOf(out, numStates);
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int[] append(int[] array, int value) {
+        if (array == null) {
+            return new int[]{value};
+        }
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    /**
+     * @return The state after reading the given byte in the given state
+     */
+    int step(int state, byte b) {
+        return transitions[(state << 8) | (b & 0xFF)];
+    }
+
+    /**
+     * @return The indices of the patterns that end at the last byte read to get to the given state, or null if none do
+     */
+    int[] matches(int state) {
+        return outputs[state];
+    }
+
+    /**
+     * @return The length of the given pattern
+     */
+    int length(int pattern) {
+        return lengths[pattern];
+    }
+
+    /**
+     * @return The length of the longest pattern
+     */
+    int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return The number of patterns
+     */
+    int numPatterns() {
+        return lengths.length;
+    }
+}
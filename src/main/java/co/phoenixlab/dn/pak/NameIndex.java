@@ -0,0 +1,401 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A trigram index over the paths in a {@link PakIndex}, for substring and regex searches that do not have to scan
+ * every path.
+ * <p>
+ * For every sequence of three bytes occurring in a UTF-8 encoded path, the index keeps a sorted postings list of the
+ * ordinals of the live entries whose path contains it. A substring query intersects the postings lists of the
+ * query's trigrams, and only the few candidates left are checked against the actual paths. Regex queries do the
+ * same with the literal text the pattern starts with, if any; patterns without one fall back to checking every path.
+ * <p>
+ * Queries can be restricted to file names, the part of the path after the last backslash. Since the file name is
+ * part of the path, the same postings serve both.
+ * <p>
+ * Results are the ordinals of live entries in the PakIndex, in ascending order. A NameIndex is immutable once built
+ * and is safe to share between threads.
+ * @see PakFile#getNameIndex()
+ */
+@SuppressWarnings("WeakerAccess")
+public class NameIndex {
+
+    private static final int[] EMPTY = new int[0];
+    private static final String METACHARACTERS = ".^$|?*+()[]{}";
+
+    /** The PakIndex whose paths are indexed */
+    private final PakIndex index;
+    /** The ordinals of all live entries, ascending */
+    private final int[] live;
+    /** Every distinct trigram, three bytes packed into the low 24 bits, ascending */
+    private final int[] grams;
+    /** Start of each trigram's postings in {@link NameIndex#postings}, with one extra trailing element */
+    private final int[] starts;
+    /** The postings lists of all trigrams, back to back */
+    private final int[] postings;
+
+    private NameIndex(PakIndex index, int[] live, int[] grams, int[] starts, int[] postings) {
+        this.index = index;
+        this.live = live;
+        this.grams = grams;
+        this.starts = starts;
+        this.postings = postings;
+    }
+
+    /**
+     * Builds the trigram index for the paths of all live entries in the given PakIndex.
+     * @param index The PakIndex to index
+     * @return A new NameIndex
+     */
+    public static NameIndex build(PakIndex index) {
+        int[] live = new int[index.getNumPaths()];
+        int numLive = 0;
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.isLive(i)) {
+                live[numLive++] = i;
+            }
+        }
+        byte[] data = index.getPathData();
+        //  First pass counts the entries per trigram so that the postings can be laid out in one array
+        GramCounter counter = new GramCounter();
+        for (int ordinal : live) {
+            for (int i = index.getPathStart(ordinal), end = index.getPathEnd(ordinal) - 2; i < end; ++i) {
+                counter.add(gram(data, i), ordinal);
+            }
+        }
+        int[] grams = counter.grams();
+        int[] starts = new int[grams.length + 1];
+        for (int i = 0; i < grams.length; ++i) {
+            starts[i + 1] = starts[i] + counter.count(grams[i]);
+        }
+        int[] postings = new int[starts[grams.length]];
+        int[] fill = Arrays.copyOf(starts, grams.length);
+        for (int ordinal : live) {
+            for (int i = index.getPathStart(ordinal), end = index.getPathEnd(ordinal) - 2; i < end; ++i) {
+                int k = Arrays.binarySearch(grams, gram(data, i));
+                //  Entries are visited in ascending order, so a repeat of a trigram within a path is always last
+                if (fill[k] == starts[k] || postings[fill[k] - 1] != ordinal) {
+                    postings[fill[k]++] = ordinal;
+                }
+            }
+        }
+        return new NameIndex(index, live, grams, starts, postings);
+    }
+
+    private static int gram(byte[] data, int i) {
+        return (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+    }
+
+    /**
+     * @return The PakIndex whose ordinals this NameIndex returns
+     */
+    public PakIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Finds the live entries whose path (or file name) contains the given string, the same as
+     * {@link String#contains(CharSequence)}. Paths do not include the leading backslash.
+     * @param string The string to look for
+     * @param nameOnly Whether to only match against the file name, rather than the full path
+     * @return The ordinals of the matching entries, ascending
+     */
+    public int[] findContaining(CharSequence string, boolean nameOnly) {
+        byte[] needle = string.toString().getBytes(StandardCharsets.UTF_8);
+        return filter(candidates(needle), ordinal -> index.pathContains(ordinal, needle, nameOnly));
+    }
+
+    /**
+     * Finds the live entries whose path (or file name) contains a match for the given pattern, the same as
+     * {@link Pattern#asPredicate()}. Paths do not include the leading backslash.
+     * <p>
+     * Only the literal text at the start of the pattern narrows down the search, so {@code "skill.*\\.dds"} is fast,
+     * while {@code ".*skill"} checks every path.
+     * @param pattern The pattern to match
+     * @param nameOnly Whether to only match against the file name, rather than the full path
+     * @return The ordinals of the matching entries, ascending
+     */
+    public int[] findMatching(Pattern pattern, boolean nameOnly) {
+        byte[] literal = literalPrefix(pattern).getBytes(StandardCharsets.UTF_8);
+        Matcher matcher = pattern.matcher("");
+        return filter(candidates(literal), ordinal -> {
+            String path = index.getPath(ordinal);
+            return matcher.reset(nameOnly ? FileInfo.fileNameOf(path) : path).find();
+        });
+    }
+
+    /**
+     * Gets the live entries whose path may contain the given bytes, by intersecting the postings of its trigrams.
+     * Strings shorter than a trigram cannot be narrowed down, so every live entry is a candidate.
+     */
+    int[] candidates(byte[] needle) {
+        if (needle.length < 3) {
+            return live;
+        }
+        int numGrams = needle.length - 2;
+        long[] ranges = new long[numGrams];
+        for (int i = 0; i < numGrams; ++i) {
+            int k = Arrays.binarySearch(grams, gram(needle, i));
+            if (k < 0) {
+                return EMPTY;
+            }
+            //  Sort by postings length so that the intersection starts with the shortest list
+            ranges[i] = (long) (starts[k + 1] - starts[k]) << 32 | k;
+        }
+        Arrays.sort(ranges);
+        int first = (int) ranges[0];
+        int[] result = Arrays.copyOfRange(postings, starts[first], starts[first + 1]);
+        int len = result.length;
+        for (int i = 1; i < numGrams && len > 0; ++i) {
+            int k = (int) ranges[i];
+            if (k == (int) ranges[i - 1]) {
+                continue;
+            }
+            int from = starts[k];
+            int to = starts[k + 1];
+            int kept = 0;
+            for (int j = 0; j < len; ++j) {
+                int found = Arrays.binarySearch(postings, from, to, result[j]);
+                if (found >= 0) {
+                    result[kept++] = result[j];
+                    //  Both lists are ascending, so the rest of the search can start after this match
+                    from = found + 1;
+                }
+            }
+            len = kept;
+        }
+        return len == result.length ? result : Arrays.copyOf(result, len);
+    }
+
+    private static int[] filter(int[] ordinals, IntPredicate predicate) {
+        int[] result = new int[Math.min(ordinals.length, 16)];
+        int len = 0;
+        for (int ordinal : ordinals) {
+            if (predicate.test(ordinal)) {
+                if (len == result.length) {
+                    result = Arrays.copyOf(result, len * 2);
+                }
+                result[len++] = ordinal;
+            }
+        }
+        return Arrays.copyOf(result, len);
+    }
+
+    /**
+     * Extracts the literal text that every match of the pattern must start with. This is deliberately conservative:
+     * any construct that is not a plain or escaped character ends the literal, and patterns with alternations or
+     * flags that change how characters match have none at all.
+     * @return The literal prefix, which may be empty
+     */
+    static String literalPrefix(Pattern pattern) {
+        String regex = pattern.pattern();
+        int flags = pattern.flags();
+        //  These change how characters match even in literal patterns
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.CANON_EQ)) != 0) {
+            return "";
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex;
+        }
+        if ((flags & Pattern.COMMENTS) != 0 || regex.indexOf('|') != -1) {
+            return "";
+        }
+        StringBuilder literal = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int next = i + 1;
+            if (c == '\\') {
+                //  Only escaped punctuation is literal; letters and digits are classes, quotes or references
+                if (next == regex.length() || Character.isLetterOrDigit(regex.charAt(next))) {
+                    break;
+                }
+                c = regex.charAt(next++);
+            } else if (METACHARACTERS.indexOf(c) != -1) {
+                break;
+            }
+            if (next < regex.length() && "?*{".indexOf(regex.charAt(next)) != -1) {
+                //  The character may not occur at all
+                break;
+            }
+            literal.append(c);
+            i = next;
+        }
+        //  A quantified supplementary character leaves its high surrogate behind, which can't be encoded on its own
+        int len = literal.length();
+        if (len > 0 && Character.isHighSurrogate(literal.charAt(len - 1))) {
+            literal.setLength(len - 1);
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Writes this index so that it can be read back by {@link NameIndex#readFrom(ByteBuffer, PakIndex)}. All
+     * values are little endian.
+     * @param out The channel to write to
+     * @throws IOException If there was an error writing
+     */
+    void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CodecPool.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(live.length).putInt(grams.length).putInt(postings.length);
+        for (int[] array : new int[][]{live, grams, starts, postings}) {
+            PakIndex.writeInts(array, buffer, out);
+        }
+        PakIndex.flush(buffer, out);
+    }
+
+    /**
+     * Reads an index written by {@link NameIndex#writeTo(WritableByteChannel)}.
+     * @param in The buffer to read from, positioned at the start of the index. Its byte order is changed to little
+     * endian.
+     * @param index The PakIndex the NameIndex was built from
+     * @return The NameIndex
+     * @throws InvalidPakException If the data is truncated or does not fit the PakIndex
+     */
+    static NameIndex readFrom(ByteBuffer in, PakIndex index) throws InvalidPakException {
+        try {
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            int numLive = in.getInt();
+            int numGrams = in.getInt();
+            int numPostings = in.getInt();
+            if (numLive != index.getNumPaths() || numGrams < 0 || numPostings < 0 ||
+                    4L * (numLive + 2L * numGrams + 1 + numPostings) > in.remaining()) {
+                throw new InvalidPakException("Invalid name index header");
+            }
+            int[] live = PakIndex.readInts(in, numLive);
+            int[] grams = PakIndex.readInts(in, numGrams);
+            int[] starts = PakIndex.readInts(in, numGrams + 1);
+            int[] postings = PakIndex.readInts(in, numPostings);
+            for (int ordinal : live) {
+                if (ordinal < 0 || ordinal >= index.size()) {
+                    throw new InvalidPakException("Invalid name index ordinals");
+                }
+            }
+            if (starts[0] != 0 || starts[numGrams] != numPostings) {
+                throw new InvalidPakException("Invalid name index postings");
+            }
+            for (int i = 0; i < numGrams; ++i) {
+                if (starts[i + 1] < starts[i]) {
+                    throw new InvalidPakException("Invalid name index postings");
+                }
+            }
+            for (int ordinal : postings) {
+                if (ordinal < 0 || ordinal >= index.size()) {
+                    throw new InvalidPakException("Invalid name index ordinals");
+                }
+            }
+            return new NameIndex(index, live, grams, starts, postings);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidPakException("Truncated name index", e);
+        }
+    }
+
+    /**
+     * Open addressing table from trigram to the number of distinct paths it occurs in.
+     */
+    private static class GramCounter {
+
+        private int[] keys = newKeys(1024);
+        private int[] counts = new int[1024];
+        /** The last ordinal counted for each trigram, so that repeats within a path count once */
+        private int[] lasts = new int[1024];
+        private int size;
+
+        private static int[] newKeys(int capacity) {
+            int[] keys = new int[capacity];
+            Arrays.fill(keys, -1);
+            return keys;
+        }
+
+        void add(int gram, int ordinal) {
+            int slot = find(keys, gram);
+            if (keys[slot] == -1) {
+                keys[slot] = gram;
+                lasts[slot] = ordinal;
+                counts[slot] = 1;
+                if (++size > keys.length * 3 / 4) {
+                    grow();
+                }
+            } else if (lasts[slot] != ordinal) {
+                lasts[slot] = ordinal;
+                ++counts[slot];
+            }
+        }
+
+        int count(int gram) {
+            return counts[find(keys, gram)];
+        }
+
+        int[] grams() {
+            int[] grams = new int[size];
+            int len = 0;
+            for (int key : keys) {
+                if (key != -1) {
+                    grams[len++] = key;
+                }
+            }
+            Arrays.sort(grams);
+            return grams;
+        }
+
+        private static int find(int[] keys, int gram) {
+            int mask = keys.length - 1;
+            int slot = PakIndex.mix(gram) & mask;
+            while (keys[slot] != -1 && keys[slot] != gram) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            int[] oldLasts = lasts;
+            keys = newKeys(oldKeys.length * 2);
+            counts = new int[keys.length];
+            lasts = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldKeys[i] != -1) {
+                    int slot = find(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    lasts[slot] = oldLasts[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A PakCompactor removes the dead space between subfiles of a PakFile, such as that left behind by patches, by moving
+ * the compressed data of live subfiles next to each other in disk offset order. Data is copied as is with
+ * {@link FileChannel#transferTo}, without being inflated or deflated. Subfiles whose data overlaps are moved together
+ * as one {@link Segment} so their relative layout is preserved. Entries overridden by a later entry of the same path
+ * are dropped.
+ * <p>
+ * {@link PakCompactor#compactTo(Path)} writes a compacted copy. {@link PakCompactor#compactInPlace()} compacts the
+ * PakFile itself without needing space for a copy, in an order that keeps the PakFile valid if interrupted at any
+ * point:
+ * <ol>
+ *     <li>A file table with only the live entries is written after the end of the file and the header is pointed at
+ *     it, freeing the old file table and overridden data.</li>
+ *     <li>Segments are copied down into free space. A segment's entries in the file table are only updated once its
+ *     copy is on disk, and its old location is only reused once the updated entries are on disk, so every entry
+ *     always points at a complete copy of its data. A segment that does not fit in the free space before it is
+ *     first staged past the end of the file.</li>
+ *     <li>The file table is moved down after the last segment and the file is truncated.</li>
+ * </ol>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakCompactor {
+
+    /** {@value} bytes, the default limit on data staged past the end of the file at a time when compacting in place */
+    public static final long DEFAULT_MAX_STAGING_BYTES = 64L * 1024L * 1024L;
+
+    private final Path path;
+    private long maxStagingBytes;
+    /**
+     * <b>For testing only</b>, the number of syncs after which {@link PakCompactor#compactInPlace()} fails as if the
+     * process had crashed, or -1 to never fail
+     */
+    int crashAfterSyncs = -1;
+    private int syncs;
+
+    /**
+     * Constructs a PakCompactor for the given PakFile.
+     * @param path The path to the PakFile
+     */
+    public PakCompactor(Path path) {
+        this.path = path;
+        this.maxStagingBytes = DEFAULT_MAX_STAGING_BYTES;
+    }
+
+    /**
+     * @return The limit on data staged past the end of the file at a time when compacting in place, in bytes
+     */
+    public long getMaxStagingBytes() {
+        return maxStagingBytes;
+    }
+
+    /**
+     * Sets the limit on data staged past the end of the file at a time when compacting in place. A segment larger
+     * than the limit is still staged on its own.
+     * @param maxStagingBytes The limit, in bytes
+     */
+    public void setMaxStagingBytes(long maxStagingBytes) {
+        this.maxStagingBytes = maxStagingBytes;
+    }
+
+    /**
+     * Writes a compacted copy of the PakFile. The copy's file table lists the live entries in their original order.
+     * @param dest Where to write the copy. Any existing file is replaced.
+     * @return The size of the copy, in bytes
+     * @throws FileNotFoundException If the PakFile does not exist
+     * @throws InvalidPakException If the PakFile is invalid
+     * @throws IOException If there was an error reading the PakFile or writing the copy
+     */
+    public long compactTo(Path dest) throws IOException {
+        checkExists();
+        if (Files.exists(dest) && Files.isSameFile(path, dest)) {
+            throw new IOException("Destination is the same file as the source, use compactInPlace()");
+        }
+        try (RandomAccessFile in = new RandomAccessFile(path.toFile(), "r");
+             RandomAccessFile out = new RandomAccessFile(dest.toFile(), "rw")) {
+            PakHeader header = new PakHeader();
+            header.read(in);
+            List<FileInfo> entries = readLiveEntries(in.getChannel(), header);
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            long position = PakHeader.HEADER_SIZE;
+            for (Cluster cluster : clusters(entries)) {
+                transfer(in.getChannel(), cluster.segment.start, cluster.segment.length, outChannel, position);
+                cluster.moveTo(position, entries);
+                position += cluster.segment.length;
+            }
+            PakFileWriter.writeTable(outChannel, entries, position);
+            PakFileWriter.writeHeader(outChannel, entries.size(), position);
+            return outChannel.size();
+        }
+    }
+
+    /**
+     * Compacts the PakFile in place. See {@link PakCompactor} for the order of operations that keeps the PakFile valid
+     * if this is interrupted.
+     * @return The number of bytes the PakFile shrank by
+     * @throws FileNotFoundException If the PakFile does not exist
+     * @throws InvalidPakException If the PakFile is invalid
+     * @throws IOException If there was an error reading or writing the PakFile
+     */
+    public long compactInPlace() throws IOException {
+        checkExists();
+        syncs = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel target = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            FileChannel channel = raf.getChannel();
+            long originalSize = channel.size();
+            PakHeader header = new PakHeader();
+            header.read(raf);
+            List<FileInfo> entries = readLiveEntries(channel, header);
+            long tableSize = (long) entries.size() * FileInfo.FILE_INFO_SIZE;
+            //  1. Live entries only, with the table last
+            long tableOffset = align(channel.size());
+            commitTable(channel, entries, tableOffset);
+            //  2. Move segments down
+            InPlaceMover mover = new InPlaceMover(channel, target, entries, tableOffset);
+            List<Cluster> clusters = clusters(entries);
+            long dest = PakHeader.HEADER_SIZE;
+            for (int i = 0; i < clusters.size(); ) {
+                Cluster cluster = clusters.get(i);
+                Segment segment = cluster.segment;
+                if (segment.start == dest) {
+                    dest = segment.end;
+                    ++i;
+                } else if (segment.start - dest >= segment.length) {
+                    dest = mover.move(cluster, dest);
+                    ++i;
+                } else {
+                    //  Stage as many segments as allowed, then the space they occupied is free to move them into
+                    int runEnd = i + 1;
+                    long staged = segment.length;
+                    while (runEnd < clusters.size() &&
+                            staged + clusters.get(runEnd).segment.length <= maxStagingBytes) {
+                        staged += clusters.get(runEnd).segment.length;
+                        ++runEnd;
+                    }
+                    dest = mover.stage(clusters.subList(i, runEnd), dest);
+                    i = runEnd;
+                }
+            }
+            mover.flush();
+            //  3. Move the table down after the data
+            long newTableOffset = align(dest);
+            if (newTableOffset != tableOffset) {
+                if (newTableOffset + tableSize > tableOffset) {
+                    //  The new location overlaps the current table, so go through a location past it first
+                    commitTable(channel, entries, align(tableOffset + tableSize));
+                }
+                commitTable(channel, entries, newTableOffset);
+            }
+            channel.truncate(newTableOffset + tableSize);
+            sync(channel);
+            return originalSize - channel.size();
+        }
+    }
+
+    private void checkExists() throws FileNotFoundException {
+        if (Files.notExists(path)) {
+            throw new FileNotFoundException("The file does not exist: " + path.toString());
+        }
+    }
+
+    /**
+     * Reads the live entries of the file table, in file table order, dropping entries overridden by a later entry
+     * with the same path.
+     */
+    static List<FileInfo> readLiveEntries(FileChannel channel, PakHeader header) throws IOException {
+        FileTableCursor cursor = FileTableCursor.open(channel, header, false);
+        List<FileInfo> entries = new ArrayList<>(cursor.getNumRecords());
+        Map<String, Integer> positions = new HashMap<>(cursor.getNumRecords());
+        try {
+            while (cursor.next()) {
+                FileInfo fileInfo = new FileInfo().load(cursor);
+                Integer previous = positions.put(fileInfo.getFullPath(), entries.size());
+                if (previous != null) {
+                    entries.set(previous, null);
+                }
+                entries.add(fileInfo);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        entries.removeIf(e -> e == null);
+        return entries;
+    }
+
+    /**
+     * Groups the entries into clusters of overlapping data, in disk offset order.
+     */
+    static List<Cluster> clusters(List<FileInfo> entries) {
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); ++i) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(entries.get(a).getDiskOffset(), entries.get(b).getDiskOffset()));
+        List<Cluster> clusters = new ArrayList<>();
+        Cluster current = null;
+        for (int index : order) {
+            FileInfo fileInfo = entries.get(index);
+            Segment segment = new Segment(fileInfo.getDiskOffset(), extent(fileInfo), -1);
+            //  Only merge segments that share data; merely adjacent ones can move independently
+            if (current != null && segment.start < current.segment.end) {
+                current.segment = current.segment.merge(segment);
+            } else {
+                current = new Cluster(segment);
+                clusters.add(current);
+            }
+            current.entries.add(index);
+        }
+        return clusters;
+    }
+
+    private static long extent(FileInfo fileInfo) {
+        return Math.max(fileInfo.getDiskSize(), fileInfo.getCompressedSize());
+    }
+
+    /**
+     * Rounds up to a multiple of 4, so that the disk offset fields of a file table written there are aligned and can
+     * be updated with a single aligned write.
+     */
+    private static long align(long position) {
+        return (position + 3) & ~3L;
+    }
+
+    /**
+     * Transfers {@code length} bytes from one channel to another, or to a different part of the same file.
+     */
+    static void transfer(FileChannel from, long fromPosition, long length, FileChannel to, long toPosition)
+            throws IOException {
+        to.position(toPosition);
+        long done = 0;
+        while (done < length) {
+            long transferred = from.transferTo(fromPosition + done, length - done, to);
+            if (transferred <= 0) {
+                throw new InvalidPakException("Unexpected EOF reading subfile data at " + (fromPosition + done));
+            }
+            done += transferred;
+        }
+    }
+
+    /**
+     * Writes the file table at the given offset and then the header pointing at it, syncing after each.
+     */
+    private void commitTable(FileChannel channel, List<FileInfo> entries, long tableOffset) throws IOException {
+        PakFileWriter.writeTable(channel, entries, tableOffset);
+        sync(channel);
+        PakFileWriter.writeHeader(channel, entries.size(), tableOffset);
+        sync(channel);
+    }
+
+    private void sync(FileChannel channel) throws IOException {
+        channel.force(true);
+        if (crashAfterSyncs >= 0 && ++syncs > crashAfterSyncs) {
+            throw new IOException("Simulated crash after " + crashAfterSyncs + " syncs");
+        }
+    }
+
+    /**
+     * Data that must move as a unit, and the positions in the entry list of the entries that refer to it.
+     */
+    static final class Cluster {
+        Segment segment;
+        final List<Integer> entries = new ArrayList<>(1);
+
+        Cluster(Segment segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Updates the entries and the segment for the data having moved to the given offset.
+         */
+        void moveTo(long offset, List<FileInfo> fileInfos) {
+            for (int index : entries) {
+                FileInfo fileInfo = fileInfos.get(index);
+                fileInfo.setDiskOffset(offset + (fileInfo.getDiskOffset() - segment.start));
+            }
+            segment = new Segment(offset, segment.length, -1);
+        }
+    }
+
+    /**
+     * Moves clusters within the PakFile while keeping every entry of the file table at tableOffset pointing at a
+     * complete copy of its data.
+     */
+    private final class InPlaceMover {
+        private final FileChannel channel;
+        private final FileChannel target;
+        private final List<FileInfo> entries;
+        private final long tableOffset;
+        /** Clusters copied but whose entries on disk have not been updated yet */
+        private final List<Cluster> pending = new ArrayList<>();
+        /** The new offsets of the pending clusters */
+        private final List<Long> pendingOffsets = new ArrayList<>();
+        /** The lowest old offset of the pending clusters, below which space is free */
+        private long pendingFrom = Long.MAX_VALUE;
+        private final ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+        InPlaceMover(FileChannel channel, FileChannel target, List<FileInfo> entries, long tableOffset) {
+            this.channel = channel;
+            this.target = target;
+            this.entries = entries;
+            this.tableOffset = tableOffset;
+        }
+
+        /**
+         * Copies a cluster into free space at dest.
+         * @return The end of the cluster's new location
+         */
+        long move(Cluster cluster, long dest) throws IOException {
+            long length = cluster.segment.length;
+            if (dest + length > pendingFrom) {
+                //  The space at dest is only free once the entries that pointed there are updated on disk
+                flush();
+            }
+            return copy(cluster, dest);
+        }
+
+        /**
+         * Copies a cluster to dest without checking that the space there is free.
+         * @return The end of the cluster's new location
+         */
+        private long copy(Cluster cluster, long dest) throws IOException {
+            long length = cluster.segment.length;
+            transfer(channel, cluster.segment.start, length, target, dest);
+            pendingFrom = Math.min(pendingFrom, cluster.segment.start);
+            pending.add(cluster);
+            pendingOffsets.add(dest);
+            return dest + length;
+        }
+
+        /**
+         * Copies the clusters past the end of the file and updates their entries, freeing the space they occupied,
+         * then moves them down to dest.
+         * @return The end of the last cluster's new location
+         */
+        long stage(List<Cluster> clusters, long dest) throws IOException {
+            flush();
+            long stagingStart = align(channel.size());
+            long staging = stagingStart;
+            for (Cluster cluster : clusters) {
+                //  Nothing lives past the end of the file, so the staging copies never wait on a flush
+                staging = copy(cluster, staging);
+            }
+            flush();
+            for (Cluster cluster : clusters) {
+                dest = move(cluster, dest);
+            }
+            flush();
+            //  Nothing refers to the staging area anymore
+            channel.truncate(stagingStart);
+            return dest;
+        }
+
+        /**
+         * Syncs the copied data, then updates and syncs the entries of the pending clusters.
+         */
+        void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            sync(channel);
+            for (int i = 0; i < pending.size(); ++i) {
+                Cluster cluster = pending.get(i);
+                long offset = pendingOffsets.get(i);
+                for (int index : cluster.entries) {
+                    FileInfo fileInfo = entries.get(index);
+                    long newOffset = offset + (fileInfo.getDiskOffset() - cluster.segment.start);
+                    field.clear();
+                    field.putInt((int) newOffset);
+                    field.flip();
+                    long position = tableOffset + (long) index * FileInfo.FILE_INFO_SIZE +
+                            FileInfo.DISK_OFFSET_OFFSET;
+                    while (field.hasRemaining()) {
+                        position += channel.write(field, position);
+                    }
+                }
+                cluster.moveTo(offset, entries);
+            }
+            sync(channel);
+            pending.clear();
+            pendingOffsets.clear();
+            pendingFrom = Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Exports the live subfiles of a PakFile to a standard ZIP or TAR archive.
+ * <p>
+ * Subfiles are zlib streams, which are raw deflate data between a 2 byte header and a 4 byte Adler-32 trailer, and
+ * deflate is also what ZIP uses. So a ZIP export copies each subfile's deflate data across as is with
+ * {@link FileChannel#transferTo}, without recompressing anything. ZIP does require the CRC-32 of the decompressed
+ * data, which zlib does not record, so each subfile is still inflated once to compute it; that pass can be spread
+ * over several threads. Subfiles without a plain zlib header to strip are stored uncompressed instead. Subfiles
+ * using a preset dictionary can't be inflated without it, so they are rejected and fail the export with an
+ * {@link InvalidPakException}. Archives with more than 65,535 entries or larger than 4 GB use the ZIP64 extensions.
+ * <p>
+ * A TAR export writes the inflated data, streaming each subfile in small chunks, to any channel. Paths that don't
+ * fit in a TAR header use GNU long name entries.
+ * <p>
+ * In both formats, entries are written in disk order with backslashes in paths replaced by forward slashes, and
+ * all entries get the PakFile's last modified time.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakExporter {
+
+    private static final int ZIP_LOCAL_HEADER = 0x04034B50;
+    private static final int ZIP_CENTRAL_HEADER = 0x02014B50;
+    private static final int ZIP_END = 0x06054B50;
+    private static final int ZIP64_END = 0x06064B50;
+    private static final int ZIP64_LOCATOR = 0x07064B50;
+    private static final int ZIP_VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    /** General purpose flag for UTF-8 names */
+    private static final int ZIP_UTF8 = 0x0800;
+    private static final int ZIP_STORED = 0;
+    private static final int ZIP_DEFLATED = 8;
+    private static final long ZIP_MAX_32 = 0xFFFFFFFFL;
+    private static final int ZIP_MAX_16 = 0xFFFF;
+    static final int TAR_BLOCK = 512;
+    private static final byte[] TAR_MAGIC = {'u', 's', 't', 'a', 'r', 0, '0', '0'};
+
+    private final PakFile pakFile;
+    private int threads;
+    private Predicate<String> filter;
+
+    /**
+     * Constructs a PakExporter for the given PakFile, which must be open.
+     * @param pakFile The PakFile to export
+     */
+    public PakExporter(PakFile pakFile) {
+        this.pakFile = pakFile;
+        threads = 1;
+        filter = path -> true;
+    }
+
+    /**
+     * Sets the number of threads to inflate subfiles with when computing the checksums for a ZIP export. Defaults
+     * to 1, which uses the calling thread.
+     * @throws IllegalArgumentException If threads is less than 1
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets which subfiles to export, by full path (without the leading backslash). All subfiles are exported by
+     * default.
+     */
+    public void setFilter(Predicate<String> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return The live subfiles that pass the filter, in disk order
+     */
+    private List<FileInfo> selectFiles() throws IOException {
+        PakIndex index = pakFile.getIndex();
+        List<FileInfo> fileInfos = new ArrayList<>(index.getNumPaths());
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.isLive(i) && filter.test(index.getPath(i))) {
+                fileInfos.add(index.toFileInfo(i));
+            }
+        }
+        fileInfos.sort((a, b) -> Long.compare(a.getDiskOffset(), b.getDiskOffset()));
+        return fileInfos;
+    }
+
+    private long lastModified() throws IOException {
+        return Files.getLastModifiedTime(pakFile.getPath()).toMillis();
+    }
+
+    /**
+     * Writes the subfiles to a ZIP archive, replacing the file if it exists.
+     * @param dest The path of the ZIP archive
+     * @return The number of entries written
+     * @throws InvalidPakException If a subfile could not be inflated, such as one that needs a preset dictionary
+     * @throws IOException If there was an error reading the PakFile or writing the archive
+     */
+    public int exportZip(Path dest) throws IOException {
+        List<FileInfo> fileInfos = selectFiles();
+        Checksum[] checksums = checksumAll(fileInfos);
+        int dosTime = dosTime(lastModified());
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(CodecPool.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (int i = 0; i < fileInfos.size(); ++i) {
+                FileInfo fileInfo = fileInfos.get(i);
+                Checksum checksum = checksums[i];
+                byte[] name = fileInfo.getFullPath().replace('\\', '/').getBytes(StandardCharsets.UTF_8);
+                boolean raw = checksum.rawLength >= 0;
+                long compressedSize = raw ? checksum.rawLength : checksum.size;
+                //  Local header
+                header.clear();
+                header.putInt(ZIP_LOCAL_HEADER).putShort((short) ZIP_VERSION).putShort((short) ZIP_UTF8)
+                        .putShort((short) (raw ? ZIP_DEFLATED : ZIP_STORED)).putInt(dosTime)
+                        .putInt((int) checksum.crc).putInt((int) compressedSize).putInt((int) checksum.size)
+                        .putShort((short) name.length).putShort((short) 0).put(name);
+                header.flip();
+                writeFully(out, header);
+                long localOffset = position;
+                position += 30 + name.length;
+                if (raw) {
+                    pakFile.transferTo(fileInfo.getDiskOffset() + 2, compressedSize, out);
+                } else if (checksum.size > 0) {
+                    inflate(fileInfo, null, (chunk, len) -> writeFully(out, ByteBuffer.wrap(chunk, 0, len)));
+                }
+                position += compressedSize;
+                //  Central directory header, with the offset in a ZIP64 extra field if it doesn't fit
+                boolean zip64 = localOffset >= ZIP_MAX_32;
+                header.clear();
+                header.putInt(ZIP_CENTRAL_HEADER).putShort((short) (zip64 ? ZIP64_VERSION : ZIP_VERSION))
+                        .putShort((short) (zip64 ? ZIP64_VERSION : ZIP_VERSION)).putShort((short) ZIP_UTF8)
+                        .putShort((short) (raw ? ZIP_DEFLATED : ZIP_STORED)).putInt(dosTime)
+                        .putInt((int) checksum.crc).putInt((int) compressedSize).putInt((int) checksum.size)
+                        .putShort((short) name.length).putShort((short) (zip64 ? 12 : 0))
+                        .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+                        .putInt((int) (zip64 ? ZIP_MAX_32 : localOffset)).put(name);
+                if (zip64) {
+                    header.putShort((short) 1).putShort((short) 8).putLong(localOffset);
+                }
+                centralDirectory.write(header.array(), 0, header.position());
+            }
+            long centralOffset = position;
+            long centralSize = centralDirectory.size();
+            writeFully(out, ByteBuffer.wrap(centralDirectory.toByteArray()));
+            position += centralSize;
+            header.clear();
+            int entries = fileInfos.size();
+            boolean zip64 = entries >= ZIP_MAX_16 || centralOffset >= ZIP_MAX_32 || centralSize >= ZIP_MAX_32;
+            if (zip64) {
+                header.putInt(ZIP64_END).putLong(44).putShort((short) ZIP64_VERSION)
+                        .putShort((short) ZIP64_VERSION).putInt(0).putInt(0).putLong(entries).putLong(entries)
+                        .putLong(centralSize).putLong(centralOffset);
+                header.putInt(ZIP64_LOCATOR).putInt(0).putLong(position).putInt(1);
+            }
+            header.putInt(ZIP_END).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) Math.min(entries, ZIP_MAX_16)).putShort((short) Math.min(entries, ZIP_MAX_16))
+                    .putInt((int) Math.min(centralSize, ZIP_MAX_32)).putInt((int) Math.min(centralOffset, ZIP_MAX_32))
+                    .putShort((short) 0);
+            header.flip();
+            writeFully(out, header);
+        }
+        return fileInfos.size();
+    }
+
+    /**
+     * Writes the subfiles to a TAR archive, replacing the file if it exists.
+     * @param dest The path of the TAR archive
+     * @return The number of entries written
+     * @throws InvalidPakException If a subfile could not be inflated, such as one that needs a preset dictionary
+     * @throws IOException If there was an error reading the PakFile or writing the archive
+     */
+    public int exportTar(Path dest) throws IOException {
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return exportTar(out);
+        }
+    }
+
+    /**
+     * Writes the subfiles as a TAR archive to the given channel, which is left open.
+     * @param out The channel to write to
+     * @return The number of entries written
+     * @throws InvalidPakException If a subfile could not be inflated (such as one that needs a preset dictionary) or
+     * does not match its decompressed size
+     * @throws IOException If there was an error reading the PakFile or writing the archive
+     */
+    public int exportTar(WritableByteChannel out) throws IOException {
+        List<FileInfo> fileInfos = selectFiles();
+        long mtime = lastModified() / 1000;
+        ByteBuffer padding = ByteBuffer.allocate(TAR_BLOCK * 2);
+        for (FileInfo fileInfo : fileInfos) {
+            String name = fileInfo.getFullPath().replace('\\', '/');
+            long size = fileInfo.getDiskSize() == 0 ? 0 : fileInfo.getDecompressedSize();
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > 100) {
+                //  GNU long name: an entry holding the name, followed by the real entry with a truncated name
+                writeFully(out, ByteBuffer.wrap(tarHeader("././@LongLink".getBytes(StandardCharsets.US_ASCII),
+                        nameBytes.length + 1, 0, 'L')));
+                ByteBuffer longName = ByteBuffer.allocate(blocks(nameBytes.length + 1));
+                longName.put(nameBytes);
+                longName.clear();
+                writeFully(out, longName);
+            }
+            writeFully(out, ByteBuffer.wrap(tarHeader(nameBytes, size, mtime, '0')));
+            if (size > 0) {
+                long written = inflate(fileInfo, null, (chunk, len) -> writeFully(out, ByteBuffer.wrap(chunk, 0, len)))
+                        .size;
+                if (written != size) {
+                    throw new InvalidPakException(String.format("Subfile %s does not match its decompressed size %,d",
+                            fileInfo.getFullPath(), size));
+                }
+            }
+            padding.clear();
+            padding.limit((int) (blocks(size) - size));
+            writeFully(out, padding);
+        }
+        //  Two zero blocks end the archive
+        padding.clear();
+        writeFully(out, padding);
+        return fileInfos.size();
+    }
+
+    private static long blocks(long size) {
+        return (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+    }
+
+    private static int blocks(int size) {
+        return (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+    }
+
+    /**
+     * Builds a ustar header block. Names longer than the 100 byte field are truncated; the caller precedes such
+     * entries with a long name entry.
+     */
+    static byte[] tarHeader(byte[] name, long size, long mtime, char type) {
+        byte[] header = new byte[TAR_BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        //  "ustar", NUL, version "00"
+        System.arraycopy(TAR_MAGIC, 0, header, 257, TAR_MAGIC.length);
+        //  The checksum is computed with its own field set to spaces
+        for (int i = 148; i < 156; ++i) {
+            header[i] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Writes a zero padded, NUL terminated octal number into a header field.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < pad; ++i) {
+            header[offset + i] = '0';
+        }
+        for (int i = 0; i < digits.length(); ++i) {
+            header[offset + pad + i] = (byte) digits.charAt(i);
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    /**
+     * Converts a time to an MS-DOS date and time, as used by ZIP, in the local time zone.
+     */
+    static int dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+                time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    /**
+     * Computes the checksums of all subfiles, in parallel if more than one thread is set.
+     */
+    private Checksum[] checksumAll(List<FileInfo> fileInfos) throws IOException {
+        Checksum[] checksums = new Checksum[fileInfos.size()];
+        AtomicInteger next = new AtomicInteger();
+        Callable worker = () -> {
+            CRC32 crc = new CRC32();
+            int index;
+            while ((index = next.getAndIncrement()) < checksums.length) {
+                crc.reset();
+                checksums[index] = inflate(fileInfos.get(index), crc, null);
+            }
+            return null;
+        };
+        if (threads == 1) {
+            worker.call();
+            return checksums;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; ++i) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        return worker.call();
+                    } catch (IOException | RuntimeException e) {
+                        //  Stop the other workers as well
+                        next.set(checksums.length);
+                        throw e;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return checksums;
+    }
+
+    /**
+     * Inflates a subfile in small chunks, reading it with positional reads.
+     * @param fileInfo The subfile
+     * @param crc The checksum to update with the inflated data, or null
+     * @param sink Receives the inflated data, or null
+     * @return The checksum and size of the inflated data and where its deflate data lies
+     */
+    private Checksum inflate(FileInfo fileInfo, CRC32 crc, Sink sink) throws IOException {
+        Checksum checksum = new Checksum();
+        if (fileInfo.getDiskSize() == 0 || fileInfo.getDecompressedSize() == 0) {
+            //  Nothing to inflate; store an empty entry
+            return checksum;
+        }
+        long length = ReadRun.rawSize(fileInfo);
+        long position = fileInfo.getDiskOffset();
+        long end = position + length;
+        try (CodecPool.Lease<Inflater> inflaterLease = CodecPool.getDefault().borrowInflater();
+             CodecPool.Lease<byte[]> inLease = CodecPool.getDefault().borrowBuffer();
+             CodecPool.Lease<byte[]> outLease = CodecPool.getDefault().borrowBuffer()) {
+            Inflater inflater = inflaterLease.get();
+            byte[] in = inLease.get();
+            byte[] out = outLease.get();
+            boolean first = true;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (position >= end) {
+                        throw new InvalidPakException("Truncated subfile " + fileInfo.getFullPath());
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(in, 0, (int) Math.min(in.length, end - position));
+                    pakFile.readFully(position, buffer);
+                    position += buffer.position();
+                    if (first) {
+                        first = false;
+                        checksum.rawLength = isPlainZlib(in, buffer.position()) ? 0 : -1;
+                    }
+                    inflater.setInput(in, 0, buffer.position());
+                }
+                int len = inflater.inflate(out);
+                if (len == 0 && inflater.needsDictionary()) {
+                    throw new InvalidPakException("Subfile needs a preset dictionary " + fileInfo.getFullPath());
+                }
+                if (crc != null) {
+                    crc.update(out, 0, len);
+                }
+                if (sink != null && len > 0) {
+                    sink.accept(out, len);
+                }
+            }
+            checksum.size = inflater.getBytesWritten();
+            if (checksum.rawLength == 0) {
+                //  Everything the inflater consumed except the zlib header and trailer
+                checksum.rawLength = inflater.getBytesRead() - 6;
+            }
+            if (crc != null) {
+                checksum.crc = crc.getValue();
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidPakException("Corrupt subfile " + fileInfo.getFullPath(), e);
+        }
+        return checksum;
+    }
+
+    /**
+     * Checks for a zlib header with the deflate method and no preset dictionary, so that the deflate data starts
+     * right after it.
+     */
+    static boolean isPlainZlib(byte[] data, int len) {
+        if (len < 2) {
+            return false;
+        }
+        int cmf = data[0] & 0xFF;
+        int flg = data[1] & 0xFF;
+        return (cmf & 0x0F) == 8 && (cmf >>> 4) <= 7 && (cmf << 8 | flg) % 31 == 0 && (flg & 0x20) == 0;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * The CRC-32 and size of a subfile's inflated data, and the length of its deflate data inside the zlib stream.
+     */
+    private static class Checksum {
+
+        long crc;
+        long size;
+        /** The length of the deflate data, or -1 if the subfile must be stored instead */
+        long rawLength = -1;
+    }
+
+    private interface Sink {
+
+        void accept(byte[] chunk, int len) throws IOException;
+    }
+
+    private interface Callable {
+
+        Void call() throws IOException;
+    }
+}
@@ -24,12 +24,24 @@
 
 package co.phoenixlab.dn.pak;
 
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a pak file, providing access to its header information and file entries.
@@ -43,11 +55,38 @@ public class PakFile implements AutoCloseable {
     private final Path path;
     /** Pak file header */
     private final PakHeader header;
-    /** A map of path (as strings) to subfile. Flat alternative to {@link PakFile#root} */
-    private final Map<String, FileEntry> entryMap;
-    /** A {@link DirEntry} representing the root directory in the PakFile */
-    private final DirEntry root;
-    private final int numFiles;
+    /**
+     * A map of path (as strings) to subfile. Flat alternative to {@link PakFile#root}. Built on demand from
+     * {@link PakFile#index} if this PakFile was loaded in compact or lazy mode
+     */
+    private volatile Map<String, FileEntry> entryMap;
+    /**
+     * A {@link DirEntry} representing the root directory in the PakFile. Built on demand from
+     * {@link PakFile#index} if this PakFile was loaded in compact mode, or expanded as it is walked in lazy mode
+     */
+    private volatile DirEntry root;
+    /**
+     * A compact index of the file table. Built on demand from the file table if not loaded in compact mode, or on
+     * first use in lazy mode
+     */
+    private volatile PakIndex index;
+    private volatile NameIndex nameIndex;
+    /** The live ordinals of {@link PakFile#index} in file table order and in disk order, built on demand */
+    private volatile int[] tableOrdinals;
+    private volatile int[] diskOrdinals;
+    /** Whether this PakFile was loaded in lazy mode, see {@link PakFileReader#setLazy(boolean)} */
+    private final boolean lazy;
+    /**
+     * The cache this PakFile was loaded through, or null. The index is loaded through it in lazy mode, and a NameIndex
+     * built on demand is stored back into it
+     */
+    private final IndexCache indexCache;
+    /** The attributes of this PakFile when its index was built or loaded through {@link PakFile#indexCache}, or null */
+    private volatile BasicFileAttributes indexAttributes;
+    /** The number of subfiles, or -1 until the index is built in lazy mode */
+    private volatile int numFiles;
+    /** Optional cache of decompressed subfile contents in front of the content API */
+    private volatile SubfileCache cache;
     /** The RandomAccessFile used to access this PakFile */
     private RandomAccessFile randomAccessFile;
 
@@ -71,6 +110,50 @@ public class PakFile implements AutoCloseable {
         this.path = path;
         this.numFiles = entryMap.size();
         this.randomAccessFile = randomAccessFile;
+        this.lazy = false;
+        this.indexCache = null;
+    }
+
+    /**
+     * Constructs a PakFile backed only by a PakIndex. The DirEntry tree and entry map are built from the index when
+     * first requested.
+     * <p>
+     * This constructor is primarily intended for use by {@link PakFileReader#load(Path)}. Please use that instead
+     * of manually instantiating this.
+     * @param index The PakIndex of the PakFile's file table
+     * @param header The PakFile header
+     * @param path The path to this PakFile (on disk)
+     * @param randomAccessFile The RandomAccessFile for accessing the PakFile
+     * @param indexCache The IndexCache the index was loaded through, or null
+     */
+    PakFile(PakIndex index, PakHeader header, Path path, RandomAccessFile randomAccessFile, IndexCache indexCache) {
+        this.index = index;
+        this.header = header;
+        this.path = path;
+        this.numFiles = index.getNumPaths();
+        this.randomAccessFile = randomAccessFile;
+        this.lazy = false;
+        this.indexCache = indexCache;
+    }
+
+    /**
+     * Constructs a PakFile in lazy mode, where nothing past the header has been read yet. The PakIndex is built the
+     * first time it is needed, and the DirEntry tree is expanded as it is walked.
+     * <p>
+     * This constructor is primarily intended for use by {@link PakFileReader#load(Path)}. Please use that instead
+     * of manually instantiating this.
+     * @param header The PakFile header
+     * @param path The path to this PakFile (on disk)
+     * @param randomAccessFile The RandomAccessFile for accessing the PakFile
+     * @param indexCache The IndexCache to load the PakIndex through, or null
+     */
+    PakFile(PakHeader header, Path path, RandomAccessFile randomAccessFile, IndexCache indexCache) {
+        this.header = header;
+        this.path = path;
+        this.numFiles = -1;
+        this.randomAccessFile = randomAccessFile;
+        this.lazy = true;
+        this.indexCache = indexCache;
     }
 
     /**
@@ -96,6 +179,13 @@ public class PakFile implements AutoCloseable {
      * @see PakFile#getRoot()
      */
     public Map<String, FileEntry> getEntryMap() {
+        if (entryMap == null) {
+            if (lazy) {
+                buildEntryMap();
+            } else {
+                buildTree();
+            }
+        }
         return entryMap;
     }
 
@@ -106,28 +196,245 @@ public class PakFile implements AutoCloseable {
      * Alternatively, you may call {@link DirEntry#get(String)} to get a specific FileEntry by resolving against
      * the current DirEntry (So passing {@code c\d\e} against DirEntry with path {@code \a\b} will resolve to
      * {@code \a\b\c\d\e}.
+     * <p>
+     * In lazy mode, the PakIndex is built the first time this is called, and each DirEntry's children are only created
+     * when it is first walked into.
      * @return The DirEntry that represents the root directory in this PakFile.
+     * @throws UncheckedIOException If this PakFile was loaded in lazy mode and there was an error building the index
      * @see DirEntry#get(String)
      */
     public DirEntry getRoot() {
+        if (root == null) {
+            if (lazy) {
+                PakIndex index = getIndexUnchecked();
+                synchronized (this) {
+                    if (root == null) {
+                        root = DirEntry.lazyRoot(index);
+                    }
+                }
+            } else {
+                buildTree();
+            }
+        }
         return root;
     }
 
+    /**
+     * Builds the entry map in lazy mode by looking every subfile up in the tree, which fully expands it, so that
+     * the map and the tree share their FileEntries. As when not in lazy mode, the map also holds subfiles whose
+     * directory was replaced by a later file and so are not in the tree.
+     */
+    private synchronized void buildEntryMap() {
+        if (entryMap != null) {
+            return;
+        }
+        DirEntry root = getRoot();
+        PakIndex index = this.index;
+        Map<String, FileEntry> entries = new HashMap<>(index.getNumPaths());
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.isLive(i)) {
+                String path = index.getPath(i);
+                Entry entry;
+                try {
+                    entry = root.get(path);
+                } catch (IllegalArgumentException e) {
+                    entry = null;
+                }
+                if (!(entry instanceof FileEntry)) {
+                    FileInfo fileInfo = index.toFileInfo(i);
+                    entry = new FileEntry(fileInfo.getFileName(), null, fileInfo);
+                }
+                entries.put(path, (FileEntry) entry);
+            }
+        }
+        this.entryMap = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Builds the DirEntry tree and the entry map from the index, in file table order so that the results are the
+     * same as with {@link PakFileReader#load(Path)} when not in compact mode.
+     */
+    private synchronized void buildTree() {
+        if (root != null) {
+            return;
+        }
+        PakIndex index = this.index;
+        DirEntry root = new DirEntry("\\", null);
+        DirEntry.BulkInserter inserter = new DirEntry.BulkInserter(root);
+        Map<String, FileEntry> entries = new HashMap<>(index.size());
+        for (int i = 0; i < index.size(); ++i) {
+            FileInfo fileInfo = index.toFileInfo(i);
+            FileEntry entry = inserter.insert(fileInfo.getFullPath(), fileInfo);
+            entries.put(fileInfo.getFullPath(), entry);
+        }
+        this.entryMap = Collections.unmodifiableMap(entries);
+        this.root = root;
+    }
+
+    /**
+     * Streams this PakFile's subfiles in file table order. See {@link PakFile#entries(boolean)}.
+     * @return A sequential Stream of this PakFile's FileEntries
+     * @throws UncheckedIOException If the index had to be built and there was an error reading the file table
+     */
+    public Stream<FileEntry> entries() {
+        return entries(false);
+    }
+
+    /**
+     * Streams this PakFile's subfiles, one FileEntry per distinct path as in {@link PakFile#getEntryMap()}.
+     * <p>
+     * The stream is backed by a Spliterator over the ordinals of the live entries in the {@link PakIndex}, so its
+     * size is known up front and it splits evenly for {@code parallel()} pipelines. If the entry map has already been
+     * built, its FileEntries are streamed; otherwise each FileEntry is created from the index as it is reached, and
+     * has no parent. The index is built first if need be, which requires the PakFile to be open.
+     * @param diskOrder True to stream the subfiles in order of disk offset, which keeps reads of their data
+     * sequential, or false for file table order
+     * @return A sequential Stream of this PakFile's FileEntries
+     * @throws UncheckedIOException If the index had to be built and there was an error reading the file table
+     */
+    public Stream<FileEntry> entries(boolean diskOrder) {
+        PakIndex index = getIndexUnchecked();
+        Map<String, FileEntry> entryMap = this.entryMap;
+        IntFunction<FileEntry> toEntry;
+        if (entryMap != null) {
+            toEntry = ordinal -> entryMap.get(index.getPath(ordinal));
+        } else {
+            toEntry = ordinal -> {
+                FileInfo fileInfo = index.toFileInfo(ordinal);
+                return new FileEntry(fileInfo.getFileName(), null, fileInfo);
+            };
+        }
+        return StreamSupport.stream(new EntrySpliterator(getLiveOrdinals(index, diskOrder), toEntry), false);
+    }
+
+    /**
+     * Gets the live ordinals of the index, computing them on first use. Racing threads may both compute them, which
+     * is harmless since the arrays are equal and never modified.
+     */
+    private int[] getLiveOrdinals(PakIndex index, boolean diskOrder) {
+        int[] ordinals = diskOrder ? diskOrdinals : tableOrdinals;
+        if (ordinals == null) {
+            ordinals = index.liveOrdinals(diskOrder);
+            if (diskOrder) {
+                diskOrdinals = ordinals;
+            } else {
+                tableOrdinals = ordinals;
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Returns a compact index of this PakFile's file table, where each subfile is identified by its ordinal in the
+     * file table.
+     * <p>
+     * If this PakFile was not loaded in compact mode, the file table is read again to build the index the first time
+     * this is called, so the PakFile must be open. See {@link PakFile#openIfNotOpen()}. In lazy mode, this is where
+     * the file table is first read, or the index loaded from the {@link IndexCache} if one was set.
+     * @return The PakIndex for this PakFile
+     * @throws IOException If there was an error reading the file table
+     * @see PakFileReader#setCompact(boolean)
+     */
+    public PakIndex getIndex() throws IOException {
+        PakIndex index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    if (indexCache != null) {
+                        IndexCache.Loaded loaded = PakFileReader.loadIndex(indexCache, path, header,
+                                randomAccessFile.getChannel());
+                        index = loaded.index;
+                        setCached(loaded);
+                    } else {
+                        index = PakIndex.build(randomAccessFile.getChannel(), header);
+                    }
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns a trigram index over the paths of this PakFile's subfiles, for fast substring and regex searches. The
+     * index is built the first time this is called, unless it was loaded along with the PakIndex from an
+     * {@link IndexCache}. If this PakFile was loaded through an IndexCache, the NameIndex built here is stored in its
+     * sidecar, so that later loads come with it even when {@link IndexCache#setIncludeNames(boolean)} is not set.
+     * @return The NameIndex for this PakFile
+     * @throws IOException If the PakIndex had to be built and there was an error reading the file table
+     * @see IndexCache#setIncludeNames(boolean)
+     */
+    public NameIndex getNameIndex() throws IOException {
+        NameIndex nameIndex = this.nameIndex;
+        if (nameIndex == null) {
+            PakIndex index = getIndex();
+            synchronized (this) {
+                nameIndex = this.nameIndex;
+                if (nameIndex == null) {
+                    nameIndex = NameIndex.build(index);
+                    this.nameIndex = nameIndex;
+                    BasicFileAttributes indexAttributes = this.indexAttributes;
+                    if (indexCache != null && indexAttributes != null) {
+                        indexCache.store(path, indexAttributes, header, index, nameIndex);
+                    }
+                }
+            }
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Takes the NameIndex, if any, and the attributes to stamp a sidecar with from the indexes loaded through
+     * {@link PakFile#indexCache}.
+     */
+    void setCached(IndexCache.Loaded loaded) {
+        if (loaded.nameIndex != null) {
+            this.nameIndex = loaded.nameIndex;
+        }
+        this.indexAttributes = loaded.attributes;
+    }
+
     /**
      * Gets the number of subfiles in this PakFile. This method is preferred to {@code getEntryMap().size()} as
-     * the value is cached.
+     * the value is cached. In lazy mode, this only builds the PakIndex.
      * @return The number of subfiles in this PakFile
+     * @throws UncheckedIOException If this PakFile was loaded in lazy mode and there was an error building the index
      */
     public int getNumFiles() {
+        int numFiles = this.numFiles;
+        if (numFiles < 0) {
+            numFiles = getIndexUnchecked().getNumPaths();
+            this.numFiles = numFiles;
+        }
         return numFiles;
     }
 
+    /**
+     * @return Whether this PakFile was loaded in lazy mode
+     * @see PakFileReader#setLazy(boolean)
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    private PakIndex getIndexUnchecked() {
+        try {
+            return getIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Transfers the raw compressed data to the specified target.
      * <p>
      * This method will attempt to transfer {@link FileInfo#diskSize} bytes, starting at byte
      * {@link FileInfo#diskOffset}, to the target. When calling this method, please ensure that there is sufficient
      * capacity in the target channel and that the PakFile is open. See {@link PakFile#openIfNotOpen()}.
+     * <p>
+     * The transfer is a positional read that does not modify the position of the underlying channel, so multiple
+     * threads may call this method concurrently on the same PakFile.
      * @param fileInfo The FileInfo specifying which entry to retrieve.
      * @param target A {@code WritableByteChannel} to transfer the data to.
      * @throws IOException If there was an error transferring the data.
@@ -137,6 +444,280 @@ public class PakFile implements AutoCloseable {
                 Math.max(fileInfo.getCompressedSize(), fileInfo.getDiskSize()), target);
     }
 
+    /**
+     * Looks up a subfile by its full path. The leading backslash is optional.
+     * @param path The full path of the subfile, such as {@code \resources\foo\bar\baz.txt}
+     * @return The FileInfo of the subfile, or null if there is no such subfile
+     * @throws IOException If the index had to be built and there was an error reading the file table
+     */
+    public FileInfo getFileInfo(String path) throws IOException {
+        if (path.startsWith("\\")) {
+            path = path.substring(1);
+        }
+        Map<String, FileEntry> entryMap = this.entryMap;
+        if (entryMap != null) {
+            FileEntry entry = entryMap.get(path);
+            return entry == null ? null : entry.getFileInfo();
+        }
+        PakIndex index = getIndex();
+        int ordinal = index.ordinalOf(path);
+        return ordinal == PakIndex.NOT_FOUND ? null : index.toFileInfo(ordinal);
+    }
+
+    /**
+     * Opens a stream over the decompressed contents of a subfile.
+     * @param path The full path of the subfile
+     * @return An InputStream of the subfile's contents, which must be closed
+     * @throws FileNotFoundException If there is no such subfile
+     * @throws IOException If there was an error looking up the subfile or the PakFile is closed
+     * @see PakFile#openInputStream(FileInfo)
+     */
+    public InputStream openInputStream(String path) throws IOException {
+        return openInputStream(requireFileInfo(path));
+    }
+
+    /**
+     * Opens a stream over the decompressed contents of a subfile. Data is inflated as it is read, straight from the
+     * PakFile, without any temporary files.
+     * <p>
+     * Multiple streams may be open at once, from any number of threads, as long as this PakFile remains open.
+     * The stream's Inflater and buffer are borrowed from {@link CodecPool#getDefault()} and returned when it is closed.
+     * @param fileInfo The FileInfo specifying which subfile to read
+     * @return An InputStream of the subfile's contents, which must be closed
+     * @throws IOException If the PakFile is closed
+     */
+    public InputStream openInputStream(FileInfo fileInfo) throws IOException {
+        SubfileCache cache = cacheFor(fileInfo);
+        if (cache != null) {
+            return new ByteBufferInputStream(cache.get(this, fileInfo));
+        }
+        return openStream(fileInfo);
+    }
+
+    /**
+     * Reads and decompresses the entire contents of a subfile.
+     * @param path The full path of the subfile
+     * @return The decompressed contents of the subfile
+     * @throws FileNotFoundException If there is no such subfile
+     * @throws IOException If there was an error reading the subfile
+     * @see PakFile#readAllBytes(FileInfo)
+     */
+    public byte[] readAllBytes(String path) throws IOException {
+        return readAllBytes(requireFileInfo(path));
+    }
+
+    /**
+     * Reads and decompresses the entire contents of a subfile. The array is sized from
+     * {@link FileInfo#getDecompressedSize()} and the data is inflated directly into it, using a pooled Inflater and
+     * read buffer from {@link CodecPool#getDefault()}.
+     * <p>
+     * This method may be called by multiple threads at once.
+     * @param fileInfo The FileInfo specifying which subfile to read
+     * @return The decompressed contents of the subfile
+     * @throws InvalidPakException If the subfile is corrupt or does not match its decompressed size
+     * @throws IOException If there was an error reading the subfile or the PakFile is closed
+     */
+    public byte[] readAllBytes(FileInfo fileInfo) throws IOException {
+        SubfileCache cache = cacheFor(fileInfo);
+        if (cache != null) {
+            ByteBuffer cached = cache.get(this, fileInfo);
+            byte[] data = new byte[cached.remaining()];
+            cached.get(data);
+            return data;
+        }
+        long size = fileInfo.getDecompressedSize();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Subfile is too large for an array: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        int len = 0;
+        try (SubfileInputStream in = openStream(fileInfo)) {
+            int read;
+            while (len < data.length && (read = in.read(data, len, data.length - len)) != -1) {
+                len += read;
+            }
+            if (len < data.length || in.read() != -1) {
+                throw new InvalidPakException(String.format("Subfile %s does not match its decompressed size %,d",
+                        fileInfo.getFullPath(), size));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Reads and decompresses the entire contents of a subfile into the given buffer.
+     * @param path The full path of the subfile
+     * @param dst The buffer to decompress into
+     * @return The number of bytes written into dst
+     * @throws FileNotFoundException If there is no such subfile
+     * @throws IOException If there was an error reading the subfile
+     * @see PakFile#read(FileInfo, ByteBuffer)
+     */
+    public int read(String path, ByteBuffer dst) throws IOException {
+        return read(requireFileInfo(path), dst);
+    }
+
+    /**
+     * Reads and decompresses the entire contents of a subfile into the given buffer, starting at its current
+     * position. On return, the buffer's position will have been advanced by the size of the subfile. Heap buffers are
+     * inflated into directly; direct buffers are filled through a pooled scratch buffer.
+     * <p>
+     * This method may be called by multiple threads at once.
+     * @param fileInfo The FileInfo specifying which subfile to read
+     * @param dst The buffer to decompress into
+     * @return The number of bytes written into dst
+     * @throws BufferOverflowException If dst does not have enough space remaining for the subfile, in which case
+     * nothing is read
+     * @throws InvalidPakException If the subfile is corrupt or does not match its decompressed size
+     * @throws IOException If there was an error reading the subfile or the PakFile is closed
+     */
+    public int read(FileInfo fileInfo, ByteBuffer dst) throws IOException {
+        SubfileCache cache = cacheFor(fileInfo);
+        if (cache == null) {
+            return readUncached(fileInfo, dst);
+        }
+        if (fileInfo.getDecompressedSize() > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        ByteBuffer cached = cache.get(this, fileInfo);
+        int len = cached.remaining();
+        dst.put(cached);
+        return len;
+    }
+
+    /**
+     * @return The cache to read the subfile through, or null if there is no cache or the subfile is too large to
+     * ever be cached, in which case it should be streamed or read straight from the PakFile
+     */
+    private SubfileCache cacheFor(FileInfo fileInfo) {
+        SubfileCache cache = this.cache;
+        return cache != null && cache.isAdmissible(fileInfo.getDecompressedSize()) ? cache : null;
+    }
+
+    /**
+     * Same as {@link PakFile#read(FileInfo, ByteBuffer)}, but always inflates from the PakFile.
+     */
+    int readUncached(FileInfo fileInfo, ByteBuffer dst) throws IOException {
+        long size = fileInfo.getDecompressedSize();
+        if (size > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int start = dst.position();
+        int len = 0;
+        try (SubfileInputStream in = openStream(fileInfo)) {
+            int read;
+            if (dst.hasArray()) {
+                byte[] out = dst.array();
+                int off = dst.arrayOffset() + start;
+                while (len < size && (read = in.read(out, off + len, (int) size - len)) != -1) {
+                    len += read;
+                }
+            } else {
+                //  Direct buffers can't be inflated into on Java 8, so go through a scratch buffer
+                try (CodecPool.Lease<byte[]> lease = CodecPool.getDefault().borrowBuffer()) {
+                    byte[] out = lease.get();
+                    while (len < size && (read = in.read(out, 0, (int) Math.min(out.length, size - len))) != -1) {
+                        dst.put(out, 0, read);
+                        len += read;
+                    }
+                }
+            }
+            if (len != size || in.read() != -1) {
+                dst.position(start);
+                throw new InvalidPakException(String.format("Subfile %s does not match its decompressed size %,d",
+                        fileInfo.getFullPath(), size));
+            }
+        }
+        dst.position(start + len);
+        return len;
+    }
+
+    /**
+     * Transfers raw bytes from the PakFile to the target channel, looping until all of them have been transferred.
+     * This is a positional transfer, so multiple threads may call this method concurrently on the same PakFile.
+     * @param position The offset in the PakFile to start transferring from
+     * @param count The number of bytes to transfer
+     * @param target The channel to transfer to
+     * @throws EOFException If the PakFile ends before all bytes were transferred
+     * @throws IOException If there was an error transferring the data
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        FileChannel channel = channel();
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0 && position >= channel.size()) {
+                throw new EOFException("Unexpected end of PakFile at " + position);
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Fills the buffer with raw bytes from the PakFile, starting at the given position. This is a positional read, so
+     * multiple threads may call this method concurrently on the same PakFile.
+     * @param position The offset in the PakFile to start reading from
+     * @param dst The buffer to fill
+     * @throws EOFException If the PakFile ends before the buffer is full
+     * @throws IOException If there was an error reading the PakFile
+     */
+    void readFully(long position, ByteBuffer dst) throws IOException {
+        FileChannel channel = channel();
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of PakFile at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Opens a SubfileInputStream with an Inflater and read buffer from the default {@link CodecPool}.
+     */
+    private SubfileInputStream openStream(FileInfo fileInfo) throws IOException {
+        FileChannel channel = channel();
+        CodecPool pool = CodecPool.getDefault();
+        return new SubfileInputStream(channel, fileInfo, pool.borrowInflater(), pool.borrowBuffer());
+    }
+
+    /**
+     * @return The cache in front of the content API, or null if there is none
+     */
+    public SubfileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets a cache of decompressed contents in front of {@link PakFile#openInputStream(FileInfo)},
+     * {@link PakFile#readAllBytes(FileInfo)} and {@link PakFile#read(FileInfo, ByteBuffer)}, so that hot subfiles are
+     * not inflated again on every read. The same cache may be shared by many PakFiles.
+     * @param cache The cache to use, or null to always read from the PakFile
+     */
+    public void setCache(SubfileCache cache) {
+        this.cache = cache;
+    }
+
+    private FileInfo requireFileInfo(String path) throws IOException {
+        FileInfo fileInfo = getFileInfo(path);
+        if (fileInfo == null) {
+            throw new FileNotFoundException("No such subfile: " + path);
+        }
+        return fileInfo;
+    }
+
+    /**
+     * @return The channel to the PakFile for positional reads
+     * @throws IOException If the PakFile is closed
+     */
+    private FileChannel channel() throws IOException {
+        RandomAccessFile randomAccessFile = this.randomAccessFile;
+        if (randomAccessFile == null) {
+            throw new IOException("PakFile is closed");
+        }
+        return randomAccessFile.getChannel();
+    }
+
     /**
      * Opens the RandomAccessFile used for reading if the current one is not open
      * @throws IOException If there was an error opening the new one
@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least recently used cache of open PakFiles, so that repeated operations on the same pak skip loading it again.
+ * <p>
+ * Each cached PakFile remembers the size and last modified time of its file when it was loaded; if either has changed
+ * by the next {@link PakFileCache#open(Path)}, the PakFile is dropped and loaded again. Code that modifies a pak
+ * should {@link PakFileCache#evict(Path)} it first, which also releases the file handle.
+ * <p>
+ * PakFiles are handed out through a {@link Handle}, which must be closed when done. A PakFile that is evicted while
+ * handles to it are still open is only closed once the last of them is. A cache with a capacity of 0 caches nothing:
+ * each handle owns a freshly loaded PakFile and closes it.
+ * <p>
+ * Instances are safe for concurrent use.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakFileCache implements AutoCloseable {
+
+    private final PakFileReader reader;
+    /** Cached PakFiles by absolute path, least recently used first. Guarded by this */
+    private final LinkedHashMap<Path, Cached> entries;
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a PakFileCache.
+     * @param reader The PakFileReader to load PakFiles with
+     * @param capacity The maximum number of PakFiles to keep open
+     * @throws IllegalArgumentException If capacity is negative
+     */
+    public PakFileCache(PakFileReader reader, int capacity) {
+        this.reader = reader;
+        entries = new LinkedHashMap<>(16, 0.75F, true);
+        setCapacity(capacity);
+    }
+
+    /**
+     * Gets the PakFile at the given path, loading it if it is not cached or has changed since it was cached.
+     * @param path The path to the PakFile
+     * @return A handle to the open PakFile, which must be closed when done
+     * @throws FileNotFoundException If the given path does not exist or is a directory
+     * @throws InvalidPakException If the given path points to a file that is not a valid PakFile
+     * @throws IOException If there was an error reading the PakFile
+     */
+    public synchronized Handle open(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(key);
+            throw new FileNotFoundException("The file does not exist: " + path.toString());
+        }
+        Cached cached = entries.get(key);
+        if (cached != null && (cached.size != attributes.size() ||
+                cached.lastModified != attributes.lastModifiedTime().toMillis())) {
+            remove(key);
+            cached = null;
+        }
+        if (cached == null) {
+            ++misses;
+            cached = new Cached(reader.load(key), attributes.size(), attributes.lastModifiedTime().toMillis());
+            if (capacity > 0) {
+                entries.put(key, cached);
+                trim();
+            } else {
+                cached.evicted = true;
+            }
+        } else {
+            ++hits;
+        }
+        ++cached.refs;
+        return new Handle(cached);
+    }
+
+    /**
+     * Removes the PakFile at the given path from the cache, closing it unless it is still in use.
+     * @param path The path to the PakFile
+     * @return True if the PakFile was cached
+     * @throws IOException If there was an error closing the PakFile
+     */
+    public synchronized boolean evict(Path path) throws IOException {
+        return remove(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Removes all PakFiles from the cache, closing those not in use.
+     * @throws IOException If there was an error closing a PakFile
+     */
+    public synchronized void clear() throws IOException {
+        for (Path path : new ArrayList<>(entries.keySet())) {
+            remove(path);
+        }
+    }
+
+    private boolean remove(Path key) throws IOException {
+        Cached cached = entries.remove(key);
+        if (cached == null) {
+            return false;
+        }
+        cached.evict();
+        return true;
+    }
+
+    private void trim() throws IOException {
+        Iterator<Map.Entry<Path, Cached>> iterator = entries.entrySet().iterator();
+        while (entries.size() > capacity) {
+            Cached eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.evict();
+        }
+    }
+
+    /**
+     * @return The maximum number of PakFiles to keep open
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of PakFiles to keep open, evicting the least recently used ones if there are more.
+     * @param capacity The maximum number of PakFiles to keep open, or 0 to disable caching
+     * @throws IllegalArgumentException If capacity is negative
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        try {
+            trim();
+        } catch (IOException e) {
+            //  Evicted regardless, and nothing else can be done about a failed close here
+        }
+    }
+
+    /**
+     * @return The cached PakFiles, least recently used first
+     */
+    public synchronized List<PakFile> getPakFiles() {
+        List<PakFile> pakFiles = new ArrayList<>(entries.size());
+        for (Cached cached : entries.values()) {
+            pakFiles.add(cached.pakFile);
+        }
+        return pakFiles;
+    }
+
+    /**
+     * @return The number of opens served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of opens that had to load the PakFile
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Same as {@link PakFileCache#clear()}.
+     */
+    @Override
+    public void close() throws IOException {
+        clear();
+    }
+
+    private static class Cached {
+
+        final PakFile pakFile;
+        final long size;
+        final long lastModified;
+        /** The number of open handles. Guarded by the cache */
+        int refs;
+        /** Whether the PakFile is no longer cached, so the last handle closes it. Guarded by the cache */
+        boolean evicted;
+
+        Cached(PakFile pakFile, long size, long lastModified) {
+            this.pakFile = pakFile;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        void evict() throws IOException {
+            evicted = true;
+            if (refs == 0) {
+                pakFile.close();
+            }
+        }
+    }
+
+    /**
+     * A reference to a PakFile from the cache. The PakFile must not be closed directly; close the handle instead.
+     */
+    public class Handle implements AutoCloseable {
+
+        private final Cached cached;
+        private boolean closed;
+
+        private Handle(Cached cached) {
+            this.cached = cached;
+        }
+
+        /**
+         * @return The PakFile
+         */
+        public PakFile get() {
+            return cached.pakFile;
+        }
+
+        /**
+         * Releases this handle, closing the PakFile if it is no longer cached and this was its last handle.
+         * @throws IOException If there was an error closing the PakFile
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (PakFileCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (--cached.refs == 0 && cached.evicted) {
+                    cached.pakFile.close();
+                }
+            }
+        }
+    }
+}
@@ -27,13 +27,14 @@ package co.phoenixlab.dn.pak;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
+import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A PakFileReader is the primary way to load and obtain a {@link PakFile}. Instances of this class may be used
@@ -43,12 +44,77 @@ import java.util.Map;
 @SuppressWarnings("WeakerAccess")
 public class PakFileReader {
 
+    /** Whether to load PakFiles with only a {@link PakIndex} rather than a full tree and map */
+    private boolean compact;
+    /** Whether to load PakFiles without reading anything past the header */
+    private boolean lazy;
+    /** The cache to load and store PakIndexes through, or null */
+    private IndexCache indexCache;
+
     /**
      * Constructs a new PakFileReader for reading PakFiles. Instances are reusable.
      */
     public PakFileReader() {
     }
 
+    /**
+     * @return Whether this PakFileReader loads PakFiles in compact mode
+     * @see PakFileReader#setCompact(boolean)
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Sets whether to load PakFiles in compact mode. In compact mode, only a {@link PakIndex} is built during
+     * {@link PakFileReader#load(Path)}; the DirEntry tree and entry map are only built if
+     * {@link PakFile#getRoot()} or {@link PakFile#getEntryMap()} are called. This greatly reduces the heap used by
+     * callers that only need lookups through {@link PakFile#getIndex()}.
+     * @param compact True to load PakFiles in compact mode
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @return Whether this PakFileReader loads PakFiles in lazy mode
+     * @see PakFileReader#setLazy(boolean)
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets whether to load PakFiles in lazy mode. In lazy mode, {@link PakFileReader#load(Path)} only reads the
+     * header. The {@link PakIndex} is built (or loaded from the {@link IndexCache}) the first time a subfile is
+     * looked up or {@link PakFile#getNumFiles()} is called, and the DirEntry tree returned by
+     * {@link PakFile#getRoot()} only creates the children of a directory when it is first walked into. This suits
+     * callers that open many PakFiles to read a few subfiles from each. Lazy mode takes precedence over compact mode.
+     * @param lazy True to load PakFiles in lazy mode
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * @return The IndexCache used by this PakFileReader, or null if there is none
+     * @see PakFileReader#setIndexCache(IndexCache)
+     */
+    public IndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    /**
+     * Sets the IndexCache to use when loading PakFiles. When set, {@link PakFileReader#load(Path)} first tries to
+     * load the PakFile's {@link PakIndex} from its sidecar, skipping the file table entirely. If there is no valid
+     * sidecar, the file table is parsed as usual and a new sidecar is written. PakFiles loaded from a sidecar in
+     * non-compact mode still have their tree and entry map built eagerly.
+     * @param indexCache The IndexCache to use, or null to disable caching
+     */
+    public void setIndexCache(IndexCache indexCache) {
+        this.indexCache = indexCache;
+    }
+
     /**
      * Loads a PakFile from the given {@code Path}.
      * <p>
@@ -69,24 +135,111 @@ public class PakFileReader {
             throw new FileNotFoundException("The file specified is a directory: " + path.toString());
         }
         RandomAccessFile randomAccessFile = new RandomAccessFile(path.toFile(), "r");
+        try {
+            return load(path, randomAccessFile);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a PakFile from the given, already open, RandomAccessFile. The caller closes it if this throws.
+     */
+    private PakFile load(Path path, RandomAccessFile randomAccessFile) throws IOException {
         PakHeader header = new PakHeader();
-        DirEntry root = new DirEntry("\\", null);
         header.read(randomAccessFile);
-        randomAccessFile.seek(header.getFileTableOffset());
-        Map<String, FileEntry> entries = new HashMap<>((int) header.numFiles);
-        long bufSize = header.getNumFiles() * FileInfo.FILE_INFO_SIZE;
-        MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY,
-                randomAccessFile.getFilePointer(),
-                bufSize);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        for (long l = 0; l < header.numFiles; ++l) {
-            FileInfo fileInfo = new FileInfo().load(buffer);
-            FileEntry entry = root.insert(fileInfo.getFullPath(), fileInfo);
-            entries.put(fileInfo.getFullPath(), entry);
+        if (lazy) {
+            return new PakFile(header, path, randomAccessFile, indexCache);
+        }
+        if (indexCache != null) {
+            IndexCache.Loaded loaded = loadIndex(indexCache, path, header, randomAccessFile.getChannel());
+            PakFile pakFile = new PakFile(loaded.index, header, path, randomAccessFile, indexCache);
+            pakFile.setCached(loaded);
+            if (!compact) {
+                pakFile.getRoot();
+            }
+            return pakFile;
+        }
+        if (compact) {
+            return new PakFile(PakIndex.build(randomAccessFile.getChannel(), header), header, path, randomAccessFile,
+                    null);
+        }
+        DirEntry root = new DirEntry("\\", null);
+        DirEntry.BulkInserter inserter = new DirEntry.BulkInserter(root);
+        Map<String, FileEntry> entries;
+        if (FileTableCursor.isWorthSplitting(header)) {
+            //  Decode the records in parallel, but insert them in table order so that later duplicates still win
+            FileInfo[] fileInfos = readFileInfos(randomAccessFile.getChannel(), header, ForkJoinPool.commonPool(),
+                    FileTableCursor.CHUNK_RECORDS);
+            entries = new HashMap<>(fileInfos.length);
+            for (FileInfo fileInfo : fileInfos) {
+                entries.put(fileInfo.getFullPath(), inserter.insert(fileInfo.getFullPath(), fileInfo));
+            }
+        } else {
+            FileTableCursor cursor = FileTableCursor.open(randomAccessFile.getChannel(), header, true);
+            entries = new HashMap<>(cursor.getNumRecords());
+            try {
+                while (cursor.next()) {
+                    FileInfo fileInfo = new FileInfo().load(cursor);
+                    FileEntry entry = inserter.insert(fileInfo.getFullPath(), fileInfo);
+                    entries.put(fileInfo.getFullPath(), entry);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
         }
-        buffer.clear();
-        buffer = null;
         return new PakFile(root, entries, header, path, randomAccessFile);
     }
-}
 
+    /**
+     * Decodes every record of the file table into a FileInfo, in chunks in parallel.
+     * @param channel The channel to the PakFile
+     * @param header The PakFile's header
+     * @param pool The pool to decode on
+     * @param chunkRecords The number of records each task decodes
+     * @return The FileInfos, by ordinal
+     * @throws InvalidPakException If the file table is invalid
+     * @throws IOException If there was an error reading the file table
+     */
+    static FileInfo[] readFileInfos(FileChannel channel, PakHeader header, ForkJoinPool pool, int chunkRecords)
+            throws IOException {
+        FileInfo[] fileInfos = new FileInfo[FileTableCursor.checkTable(channel, header)];
+        FileTableCursor.forEachChunk(channel, header, chunkRecords, pool, (chunk, first, cursor) -> {
+            while (cursor.next()) {
+                fileInfos[first + cursor.getOrdinal()] = new FileInfo().load(cursor);
+            }
+        });
+        return fileInfos;
+    }
+
+    /**
+     * Loads a PakFile's index from its sidecar, or builds it from the file table and stores a new sidecar if there is
+     * no valid one (or the sidecar lacks a NameIndex that the cache should include).
+     * @param indexCache The cache to load through
+     * @param path The path to the PakFile
+     * @param header The PakFile's header
+     * @param channel The channel to the PakFile
+     * @return The PakIndex, and the NameIndex if the sidecar has or should have one
+     * @throws IOException If there was an error reading the file table
+     */
+    static IndexCache.Loaded loadIndex(IndexCache indexCache, Path path, PakHeader header, FileChannel channel)
+            throws IOException {
+        //  Read before the table, so that a sidecar is never stamped as matching a newer version of the PakFile
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        IndexCache.Loaded loaded = indexCache.load(path, attributes, header);
+        PakIndex index = loaded == null ? null : loaded.index;
+        NameIndex nameIndex = loaded == null ? null : loaded.nameIndex;
+        if (index == null || (nameIndex == null && indexCache.isIncludeNames())) {
+            if (index == null) {
+                index = PakIndex.build(channel, header);
+            }
+            if (indexCache.isIncludeNames()) {
+                nameIndex = NameIndex.build(index);
+            }
+            indexCache.store(path, attributes, header, index, nameIndex);
+            loaded = new IndexCache.Loaded(index, nameIndex, attributes);
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * A PakFileUpdater adds, replaces and deletes subfiles of an existing PakFile in place, without rebuilding it.
+ * <p>
+ * New subfile data is written into holes in the PakFile that are big enough, or else after the last segment. On
+ * {@link PakFileUpdater#commit()}, the file table is written to a new location and the header is updated to point at
+ * it, so the cost of an update is proportional to the changed data and the size of the file table rather than the
+ * size of the PakFile. Only space that the existing file table does not refer to is ever written before the header is
+ * updated, so a PakFile interrupted mid-update still reads as it was before the update.
+ * <p>
+ * Each subfile is compressed in memory before being placed, so memory use is proportional to the largest compressed
+ * subfile being added. Changes are not visible to readers until committed; a PakFileUpdater that is closed without
+ * committing leaves the PakFile as it was, apart from unreferenced data in its holes or past its end.
+ * <p>
+ * Subfile entries keep their place in the file table when replaced; new subfiles are added at the end. Entries that
+ * were overridden by a later entry of the same path are dropped from the rewritten file table.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakFileUpdater implements AutoCloseable {
+
+    private final Path path;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    /** The live entries, in file table order. Deleted entries are set to null. */
+    private final List<FileInfo> entries;
+    /** The position in {@link #entries} of each live path */
+    private final Map<String, Integer> positions;
+    /** Free space not referenced by the file table on disk, offset to length */
+    private final TreeMap<Long, Long> holes;
+    /** The end of the last segment, file table or newly written data */
+    private long end;
+    /** Entries written since the last commit, whose space may be freed again if they are replaced */
+    private final Set<FileInfo> written;
+    private int level;
+    private long bytesWritten;
+
+    /**
+     * Opens a PakFile for updating.
+     * @param path The path to the PakFile
+     * @throws FileNotFoundException If the PakFile does not exist
+     * @throws InvalidPakException If the PakFile is invalid
+     * @throws IOException If there was an error reading the PakFile
+     */
+    public PakFileUpdater(Path path) throws IOException {
+        if (Files.notExists(path)) {
+            throw new FileNotFoundException("The file does not exist: " + path.toString());
+        }
+        this.path = path;
+        this.randomAccessFile = new RandomAccessFile(path.toFile(), "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.entries = new ArrayList<>();
+        this.positions = new HashMap<>();
+        this.holes = new TreeMap<>();
+        this.written = new HashSet<>();
+        this.level = Deflater.DEFAULT_COMPRESSION;
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the file table and finds the holes between the regions it refers to.
+     */
+    private void load() throws IOException {
+        entries.clear();
+        positions.clear();
+        holes.clear();
+        PakHeader header = new PakHeader();
+        randomAccessFile.seek(0);
+        header.read(randomAccessFile);
+        //  Read rather than map the table, as a mapping would prevent truncating the file on some platforms
+        FileTableCursor cursor = FileTableCursor.open(channel, header, false);
+        List<long[]> used = new ArrayList<>(cursor.getNumRecords() + 2);
+        used.add(new long[]{0, PakHeader.HEADER_SIZE});
+        used.add(new long[]{header.getFileTableOffset(),
+                header.getFileTableOffset() + header.getNumFiles() * FileInfo.FILE_INFO_SIZE});
+        try {
+            while (cursor.next()) {
+                FileInfo fileInfo = new FileInfo().load(cursor);
+                //  Overridden entries still occupy space until the new table is committed
+                used.add(new long[]{fileInfo.getDiskOffset(), fileInfo.getDiskOffset() + extent(fileInfo)});
+                Integer previous = positions.put(fileInfo.getFullPath(), entries.size());
+                if (previous != null) {
+                    entries.set(previous, null);
+                }
+                entries.add(fileInfo);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        used.sort((a, b) -> Long.compare(a[0], b[0]));
+        long pos = 0;
+        for (long[] region : used) {
+            if (region[0] > pos) {
+                holes.put(pos, region[0] - pos);
+            }
+            pos = Math.max(pos, region[1]);
+        }
+        end = pos;
+    }
+
+    /**
+     * @return The compression level new subfiles are deflated with
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the compression level new subfiles are deflated with.
+     * @param level A compression level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IllegalArgumentException If the level is invalid
+     */
+    public void setLevel(int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) &&
+                level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * @return The number of compressed subfile bytes written so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Checks whether the PakFile, with the changes made so far, contains a subfile.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @return True if there is such a subfile
+     */
+    public boolean contains(String path) {
+        return positions.containsKey(normalize(path));
+    }
+
+    /**
+     * Adds a subfile from the contents of a file, replacing any existing subfile with the same path.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @param source The file to read
+     * @throws IOException If there was an error reading the file or writing the PakFile
+     */
+    public void put(String path, Path source) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long size;
+        CodecPool pool = CodecPool.getDefault();
+        try (CodecPool.Lease<Deflater> deflaterLease = pool.borrowDeflater();
+             CodecPool.Lease<byte[]> inLease = pool.borrowBuffer();
+             CodecPool.Lease<byte[]> outLease = pool.borrowBuffer()) {
+            Deflater deflater = deflaterLease.get();
+            deflater.setLevel(level);
+            size = PakFileWriter.deflate(source, deflater, inLease.get(), outLease.get(), (chunk, len) -> {
+                compressed.write(chunk, 0, len);
+                return chunk;
+            });
+        }
+        put(path, compressed.toByteArray(), size);
+    }
+
+    /**
+     * Adds a subfile with the given contents, replacing any existing subfile with the same path.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @param data The decompressed contents of the subfile
+     * @throws IOException If there was an error writing the PakFile
+     */
+    public void put(String path, byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CodecPool pool = CodecPool.getDefault();
+        try (CodecPool.Lease<Deflater> deflaterLease = pool.borrowDeflater();
+             CodecPool.Lease<byte[]> outLease = pool.borrowBuffer()) {
+            Deflater deflater = deflaterLease.get();
+            deflater.setLevel(level);
+            byte[] out = outLease.get();
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressed.write(out, 0, deflater.deflate(out));
+            }
+        }
+        put(path, compressed.toByteArray(), data.length);
+    }
+
+    private void put(String path, byte[] compressed, long size) throws IOException {
+        String fullPath = normalize(path);
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setFullPath(fullPath);
+        fileInfo.setFileName(FileInfo.fileNameOf(fullPath));
+        //  Fail before writing anything
+        fileInfo.write(ByteBuffer.allocate(FileInfo.FILE_INFO_SIZE));
+        long offset = allocate(compressed.length);
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        long pos = offset;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+        bytesWritten += compressed.length;
+        fileInfo.setDiskOffset(offset);
+        fileInfo.setDiskSize(compressed.length);
+        fileInfo.setCompressedSize(compressed.length);
+        fileInfo.setDecompressedSize(size);
+        fileInfo.setUnknown(0);
+        Integer position = positions.get(fullPath);
+        if (position == null) {
+            positions.put(fullPath, entries.size());
+            entries.add(fileInfo);
+        } else {
+            release(entries.set(position, fileInfo));
+        }
+        written.add(fileInfo);
+    }
+
+    /**
+     * Deletes a subfile.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @return True if there was such a subfile
+     */
+    public boolean delete(String path) {
+        Integer position = positions.remove(normalize(path));
+        if (position == null) {
+            return false;
+        }
+        release(entries.set(position, null));
+        return true;
+    }
+
+    /**
+     * Writes the new file table and points the header at it. The PakFileUpdater may continue to be used afterwards.
+     * @throws IOException If there was an error writing the PakFile, or if it would exceed the 4 GB limit of the
+     * format
+     */
+    public void commit() throws IOException {
+        List<FileInfo> live = new ArrayList<>(positions.size());
+        for (FileInfo fileInfo : entries) {
+            if (fileInfo != null) {
+                live.add(fileInfo);
+            }
+        }
+        long tableSize = (long) live.size() * FileInfo.FILE_INFO_SIZE;
+        long tableOffset = allocate(tableSize);
+        PakFileWriter.writeTable(channel, live, tableOffset);
+        //  Everything the new header refers to must be on disk before the header is
+        channel.force(false);
+        PakFileWriter.writeHeader(channel, live.size(), tableOffset);
+        channel.force(true);
+        //  Start over from what is now on disk, which reclaims the old file table and replaced data, and drop any
+        //  unreferenced space at the end
+        written.clear();
+        load();
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Finds space for the given number of bytes, preferring the smallest hole that fits.
+     * @return The offset of the space
+     */
+    private long allocate(long size) throws IOException {
+        Map.Entry<Long, Long> best = null;
+        for (Map.Entry<Long, Long> hole : holes.entrySet()) {
+            if (hole.getValue() >= size && (best == null || hole.getValue() < best.getValue())) {
+                best = hole;
+            }
+        }
+        long offset;
+        if (best != null) {
+            offset = best.getKey();
+            holes.remove(offset);
+            if (best.getValue() > size) {
+                holes.put(offset + size, best.getValue() - size);
+            }
+        } else {
+            offset = end;
+            end += size;
+        }
+        if (offset + size > PakFileWriter.MAX_PAK_SIZE) {
+            throw new IOException("PakFile would exceed the 4 GB limit of the format");
+        }
+        return offset;
+    }
+
+    /**
+     * Frees the space of a replaced or deleted entry, if it was written by this update and so is not referenced by
+     * the file table on disk. Space of committed entries is only reclaimed after the next commit.
+     */
+    private void release(FileInfo fileInfo) {
+        if (fileInfo == null || !written.remove(fileInfo)) {
+            return;
+        }
+        long offset = fileInfo.getDiskOffset();
+        long length = extent(fileInfo);
+        if (offset + length == end) {
+            end = offset;
+            //  Merge with a hole that now touches the end
+            Map.Entry<Long, Long> last = holes.lastEntry();
+            if (last != null && last.getKey() + last.getValue() == end) {
+                holes.remove(last.getKey());
+                end = last.getKey();
+            }
+            return;
+        }
+        Map.Entry<Long, Long> before = holes.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            holes.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Long after = holes.get(offset + length);
+        if (after != null) {
+            holes.remove(offset + length);
+            length += after;
+        }
+        holes.put(offset, length);
+    }
+
+    /**
+     * @return The space the entry's data occupies
+     */
+    private static long extent(FileInfo fileInfo) {
+        return Math.max(fileInfo.getDiskSize(), fileInfo.getCompressedSize());
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("\\") ? path.substring(1) : path;
+    }
+
+    /**
+     * @return The path to the PakFile being updated
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Closes the PakFile without committing any further changes.
+     * @throws IOException If there was an error closing the PakFile
+     */
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+}
@@ -25,86 +25,513 @@
 package co.phoenixlab.dn.pak;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
+/**
+ * A PakFileWriter builds a PakFile out of every regular file under a resource directory. Subfile paths are relative to
+ * the resource directory, so {@code root/resource/map/a.dds} is stored as {@code \resource\map\a.dds}.
+ * <p>
+ * Files are added in sorted path order and streamed through the deflater in {@link CodecPool#BUFFER_SIZE} chunks, so
+ * memory use does not depend on the size of the files. Only the file table entries are kept in memory until the end,
+ * when the file table and then the header are written.
+ * <p>
+ * With {@link PakFileWriter#setThreads(int)}, files are compressed in parallel by worker threads, each with its own
+ * Deflater, while the calling thread appends the compressed chunks to the PakFile in file order. Compressed chunks
+ * waiting to be appended are limited by {@link PakFileWriter#setMaxInFlightBytes(long)}. Every file is compressed
+ * the same way regardless of which thread compresses it, so the output is byte for byte identical for any number of
+ * threads.
+ */
+@SuppressWarnings("WeakerAccess")
 public class PakFileWriter {
 
+    /** The largest offset or size the 32 bit fields of the format can hold */
+    static final long MAX_PAK_SIZE = 0xFFFFFFFFL;
+    /** {@value} bytes, the default limit on compressed data waiting to be appended in parallel mode */
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 32L * 1024L * 1024L;
+
     private final Path resourceRoot;
     private final Path outputPak;
-    private final Deflater deflater;
-    private final Map<Path, FileInfo> files;
-    private RandomAccessFile raf;
+    private int level;
+    private int threads;
+    private long maxInFlightBytes;
 
+    /**
+     * Constructs a PakFileWriter.
+     * @param resourceRoot The directory whose files to pack
+     * @param outputPak Where to write the PakFile. Any existing file is replaced.
+     */
     public PakFileWriter(Path resourceRoot, Path outputPak) {
         this.resourceRoot = resourceRoot;
         this.outputPak = outputPak;
-        this.deflater = new Deflater();
-        this.files = new HashMap<>();
-    }
-
-    public void write() throws IOException {
-        raf = new RandomAccessFile(outputPak.toFile(), "rwd");
-        //  Autoclosing the channel will also close the RAF
-        try (FileChannel channel = raf.getChannel()) {
-            //  Skip header
-            channel.position(PakHeader.HEADER_SIZE);
-            //  Write files
-            try (Stream<Path> stream = Files.walk(resourceRoot)) {
-                stream.forEach(this::writeFile);
+        this.level = Deflater.DEFAULT_COMPRESSION;
+        this.threads = 1;
+        this.maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    }
+
+    /**
+     * @return The compression level subfiles are deflated with
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the compression level subfiles are deflated with.
+     * @param level A compression level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IllegalArgumentException If the level is invalid
+     */
+    public void setLevel(int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) &&
+                level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * @return The number of threads used to compress files
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of worker threads used to compress files. With 1, the default, files are compressed and written
+     * on the calling thread.
+     * @param threads The number of worker threads
+     * @throws IllegalArgumentException If threads is not positive
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return The limit on compressed data waiting to be appended in parallel mode, in bytes
+     */
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * Sets the limit on compressed data waiting to be appended in parallel mode. Workers that get this far ahead of
+     * the file being appended wait for it to catch up. The file being appended is never held back, so any limit,
+     * however small, still makes progress.
+     * @param maxInFlightBytes The limit, in bytes
+     * @throws IllegalArgumentException If maxInFlightBytes is negative
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Writes the PakFile.
+     * @return The number of subfiles written
+     * @throws IOException If there was an error reading a file or writing the PakFile, or if the PakFile would
+     * exceed the 4 GB the format can address
+     */
+    public int write() throws IOException {
+        List<Path> sources = listSources(resourceRoot);
+        try (RandomAccessFile raf = new RandomAccessFile(outputPak.toFile(), "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            //  The header is written last once the table's location is known
+            List<FileInfo> files = threads > 1 && sources.size() > 1 ?
+                    writeParallel(channel, sources) : writeSequential(channel, sources);
+            long position = PakHeader.HEADER_SIZE;
+            for (FileInfo fileInfo : files) {
+                position += fileInfo.getDiskSize();
             }
-            //  Write header
+            writeTable(channel, files, position);
+            writeHeader(channel, files.size(), position);
+            return files.size();
+        }
+    }
 
-            //  Write index
+    /**
+     * Compresses and writes the files one after the other on the calling thread.
+     */
+    private List<FileInfo> writeSequential(FileChannel channel, List<Path> sources) throws IOException {
+        CodecPool pool = CodecPool.getDefault();
+        List<FileInfo> files = new ArrayList<>(sources.size());
+        try (CodecPool.Lease<Deflater> deflaterLease = pool.borrowDeflater();
+             CodecPool.Lease<byte[]> inLease = pool.borrowBuffer();
+             CodecPool.Lease<byte[]> outLease = pool.borrowBuffer()) {
+            Deflater deflater = deflaterLease.get();
+            deflater.setLevel(level);
+            long[] position = {PakHeader.HEADER_SIZE};
+            for (Path source : sources) {
+                FileInfo fileInfo = newFileInfo(resourceRoot, source);
+                long start = position[0];
+                deflater.reset();
+                long size = deflate(source, deflater, inLease.get(), outLease.get(), (chunk, len) -> {
+                    position[0] = writeFully(channel, chunk, len, position[0]);
+                    return chunk;
+                });
+                complete(fileInfo, start, position[0] - start, size);
+                files.add(fileInfo);
+            }
+        }
+        return files;
+    }
 
+    /**
+     * Compresses the files on worker threads while the calling thread appends them in order.
+     */
+    private List<FileInfo> writeParallel(FileChannel channel, List<Path> sources) throws IOException {
+        Pipeline pipeline = new Pipeline(maxInFlightBytes);
+        Pending[] pending = new Pending[sources.size()];
+        for (int i = 0; i < pending.length; ++i) {
+            pending[i] = new Pending(i, sources.get(i), newFileInfo(resourceRoot, sources.get(i)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pending.length));
+        try {
+            //  Tasks start in submission order, so the file being appended has always been started
+            for (Pending p : pending) {
+                executor.execute(() -> compress(pipeline, p));
+            }
+            List<FileInfo> files = new ArrayList<>(pending.length);
+            long position = PakHeader.HEADER_SIZE;
+            for (Pending p : pending) {
+                position = pipeline.append(channel, p, position);
+                files.add(p.fileInfo);
+            }
+            return files;
         } finally {
-            files.clear();
+            pipeline.abort(pending);
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    private void writeFile(Path file) {
-        try {
-            //  DO NOT AUTOCLOSE - THIS WILL CLOSE THE RANDOM ACCESS FILE
-            FileChannel channel = raf.getChannel();
-            String fn = file.getFileName().toString();
-            String path = relativize(resourceRoot, file);
-            long size = Files.size(file);
-            long startPos = channel.position();
-            deflater.reset();
-            byte[] in = Files.readAllBytes(file);
-            //  DO NOT CLOSE
-            OutputStream out = Channels.newOutputStream(channel);
-            //  DO NOT CLOSE
-            DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
-            dos.write(in);
-            dos.flush();
-            long endPos = channel.position();
-            FileInfo fileInfo = new FileInfo();
-            long compressedSize = endPos - startPos;
-            fileInfo.setCompressedSize(compressedSize);
-            fileInfo.setDecompressedSize(size);
-            fileInfo.setDiskOffset(startPos);
-            fileInfo.setDiskSize(compressedSize);
-            fileInfo.setFileName(fn);
-            fileInfo.setFullPath(path);
-            fileInfo.setUnknown(0);
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private String relativize(Path base, Path path) {
-        return "\\" + base.relativize(path).toString().replace('/', '\\');
+    /**
+     * Compresses one file on a worker thread, handing each chunk to the pipeline.
+     */
+    private void compress(Pipeline pipeline, Pending p) {
+        CodecPool pool = CodecPool.getDefault();
+        try (CodecPool.Lease<Deflater> deflaterLease = pool.borrowDeflater();
+             CodecPool.Lease<byte[]> inLease = pool.borrowBuffer()) {
+            Deflater deflater = deflaterLease.get();
+            deflater.setLevel(level);
+            List<CodecPool.Lease<byte[]>> out = new ArrayList<>(1);
+            out.add(pool.borrowBuffer());
+            try {
+                long size = deflate(p.source, deflater, inLease.get(), out.get(0).get(), (chunk, len) -> {
+                    //  The pipeline takes ownership of the chunk's lease
+                    CodecPool.Lease<byte[]> lease = out.set(0, null);
+                    pipeline.emit(p, lease, len);
+                    out.set(0, pool.borrowBuffer());
+                    return out.get(0).get();
+                });
+                pipeline.complete(p, size);
+            } finally {
+                if (out.get(0) != null) {
+                    out.get(0).close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            pipeline.fail(new IOException("Error compressing " + p.source, e));
+        }
+    }
+
+    /**
+     * Receives chunks of compressed data.
+     */
+    interface ChunkSink {
+        /**
+         * Accepts a chunk of compressed data.
+         * @param chunk The buffer holding the chunk
+         * @param len The length of the chunk
+         * @return The buffer to deflate the next chunk into, which may be the same one
+         */
+        byte[] accept(byte[] chunk, int len) throws IOException;
     }
 
+    /**
+     * Streams a file through the deflater, which must be freshly reset. Input is always fed in full buffers, so the
+     * compressed output only depends on the file, the buffer size and the compression level.
+     * @return The size of the file, as read
+     */
+    static long deflate(Path file, Deflater deflater, byte[] inBuf, byte[] outBuf, ChunkSink sink)
+            throws IOException {
+        long size = 0;
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.wrap(inBuf);
+            int len;
+            do {
+                in.clear();
+                //noinspection StatementWithEmptyBody
+                while (in.hasRemaining() && source.read(in) != -1) ;
+                len = in.position();
+                if (len > 0) {
+                    size += len;
+                    deflater.setInput(inBuf, 0, len);
+                    while (!deflater.needsInput()) {
+                        outBuf = drain(deflater, outBuf, sink);
+                    }
+                }
+            } while (len == inBuf.length);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            outBuf = drain(deflater, outBuf, sink);
+        }
+        return size;
+    }
+
+    private static byte[] drain(Deflater deflater, byte[] outBuf, ChunkSink sink) throws IOException {
+        int len = deflater.deflate(outBuf);
+        return len == 0 ? outBuf : sink.accept(outBuf, len);
+    }
+
+    private static long writeFully(FileChannel channel, byte[] chunk, int len, long position) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(chunk, 0, len);
+        while (out.hasRemaining()) {
+            position += channel.write(out, position);
+        }
+        return position;
+    }
+
+    /**
+     * Fills in the location and sizes of a written file.
+     */
+    private static void complete(FileInfo fileInfo, long offset, long compressedSize, long size) throws IOException {
+        checkSize(size);
+        checkSize(offset + compressedSize);
+        fileInfo.setCompressedSize(compressedSize);
+        fileInfo.setDecompressedSize(size);
+        fileInfo.setDiskOffset(offset);
+        fileInfo.setDiskSize(compressedSize);
+        fileInfo.setUnknown(0);
+    }
+
+    /**
+     * Lists the regular files under the resource directory, in sorted order.
+     */
+    static List<Path> listSources(Path resourceRoot) throws IOException {
+        try (Stream<Path> stream = Files.walk(resourceRoot)) {
+            return stream.filter(Files::isRegularFile).
+                    sorted().
+                    collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Creates an entry with the path and name of the given file, relative to the resource directory.
+     */
+    static FileInfo newFileInfo(Path resourceRoot, Path file) {
+        FileInfo fileInfo = new FileInfo();
+        String path = relativize(resourceRoot, file);
+        fileInfo.setFullPath(path);
+        fileInfo.setFileName(FileInfo.fileNameOf(path));
+        return fileInfo;
+    }
+
+    /**
+     * Writes the file table at the given position.
+     */
+    static void writeTable(FileChannel channel, List<FileInfo> entries, long position) throws IOException {
+        checkSize(position + (long) entries.size() * FileInfo.FILE_INFO_SIZE);
+        int perChunk = Math.max(1, CodecPool.BUFFER_SIZE / FileInfo.FILE_INFO_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(perChunk * FileInfo.FILE_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < entries.size(); i += perChunk) {
+            buffer.clear();
+            int end = Math.min(entries.size(), i + perChunk);
+            for (int j = i; j < end; ++j) {
+                try {
+                    entries.get(j).write(buffer);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Cannot write " + entries.get(j).getFullPath(), e);
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Writes the header for a PakFile with the given number of files and file table location.
+     */
+    static void writeHeader(FileChannel channel, int numFiles, long fileTableOffset) throws IOException {
+        PakHeader header = new PakHeader();
+        header.magic = PakHeader.MAGIC_WORD;
+        header.unknown = PakHeader.UNKNOWN_CONST;
+        header.numFiles = numFiles;
+        header.fileTableOffset = fileTableOffset;
+        header.write(channel);
+    }
+
+    private static void checkSize(long size) throws IOException {
+        if (size > MAX_PAK_SIZE) {
+            throw new IOException("PakFile would exceed the 4 GB limit of the format");
+        }
+    }
+
+    private static String relativize(Path base, Path path) {
+        return base.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "\\");
+    }
+
+    /**
+     * A file being compressed in parallel mode and its compressed chunks that have not been appended yet.
+     */
+    private static final class Pending {
+        final int index;
+        final Path source;
+        final FileInfo fileInfo;
+        final ArrayDeque<CodecPool.Lease<byte[]>> chunks = new ArrayDeque<>();
+        final ArrayDeque<Integer> lengths = new ArrayDeque<>();
+        boolean done;
+        long size;
+
+        Pending(int index, Path source, FileInfo fileInfo) {
+            this.index = index;
+            this.source = source;
+            this.fileInfo = fileInfo;
+        }
+    }
+
+    /**
+     * Hands compressed chunks from the workers to the appending thread, in file order. All state is guarded by the
+     * Pipeline's monitor.
+     */
+    private static final class Pipeline {
+        private final long maxInFlightBytes;
+        /** The memory held by chunks waiting to be appended, counted by buffer capacity */
+        private long inFlightBytes;
+        /** The index of the file being appended */
+        private int head;
+        private boolean aborted;
+        private IOException error;
+
+        Pipeline(long maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+        }
+
+        /**
+         * Queues a chunk, waiting while too much is in flight unless the chunk belongs to the file being appended.
+         */
+        synchronized void emit(Pending p, CodecPool.Lease<byte[]> chunk, int len) throws IOException {
+            int weight = chunk.get().length;
+            try {
+                while (!aborted && p.index != head && inFlightBytes + weight > maxInFlightBytes) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                chunk.close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing");
+            }
+            if (aborted) {
+                chunk.close();
+                throw new InterruptedIOException("Aborted");
+            }
+            inFlightBytes += weight;
+            p.chunks.add(chunk);
+            p.lengths.add(len);
+            notifyAll();
+        }
+
+        synchronized void complete(Pending p, long size) {
+            p.size = size;
+            p.done = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            if (error == null && !aborted) {
+                error = e;
+            }
+            aborted = true;
+            notifyAll();
+        }
+
+        /**
+         * Writes all of a file's chunks at the given position as the workers produce them.
+         * @return The position after the file
+         */
+        long append(FileChannel channel, Pending p, long position) throws IOException {
+            synchronized (this) {
+                head = p.index;
+                notifyAll();
+            }
+            long start = position;
+            while (true) {
+                CodecPool.Lease<byte[]> chunk;
+                int len;
+                synchronized (this) {
+                    try {
+                        while (error == null && p.chunks.isEmpty() && !p.done) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing");
+                    }
+                    if (error != null) {
+                        throw error;
+                    }
+                    chunk = p.chunks.poll();
+                    if (chunk == null) {
+                        break;
+                    }
+                    len = p.lengths.poll();
+                }
+                int weight;
+                try {
+                    weight = chunk.get().length;
+                    position = writeFully(channel, chunk.get(), len, position);
+                } finally {
+                    chunk.close();
+                }
+                synchronized (this) {
+                    inFlightBytes -= weight;
+                    notifyAll();
+                }
+            }
+            PakFileWriter.complete(p.fileInfo, start, position - start, p.size);
+            return position;
+        }
+
+        /**
+         * Stops the workers and releases any chunks that were not appended.
+         */
+        synchronized void abort(Pending[] pending) {
+            aborted = true;
+            for (Pending p : pending) {
+                CodecPool.Lease<byte[]> chunk;
+                while ((chunk = p.chunks.poll()) != null) {
+                    chunk.close();
+                }
+                p.lengths.clear();
+            }
+            notifyAll();
+        }
+    }
 }
@@ -0,0 +1,466 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Searches the decompressed contents of a PakFile's subfiles for any of a set of byte patterns, without extracting
+ * them first.
+ * <p>
+ * Subfiles are read in disk order, with adjacent subfiles fetched in one read (see {@link ReadRun}), and inflated in
+ * small chunks that are fed straight into a {@link MultiPatternMatcher}, so no subfile is ever held in memory in
+ * full. With more than one thread, each worker takes the next run of subfiles off a shared list.
+ * <p>
+ * Matches are passed to the listener as soon as their trailing context has been read. The listener is never called
+ * concurrently, but with more than one thread, matches from different subfiles may arrive interleaved. Once the
+ * limit is reached, no more matches are delivered and the search stops.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakGrep {
+
+    /** The default number of bytes of context before and after each match, {@value} */
+    public static final int DEFAULT_CONTEXT = 32;
+    /** The largest read used to fetch a run of adjacent subfiles */
+    static final int MAX_READ_RUN = 1024 * 1024;
+
+    private final byte[][] patterns;
+    private boolean ignoreCase;
+    private int threads;
+    private int limit;
+    private int context;
+    private Predicate<String> filter;
+
+    /**
+     * Constructs a PakGrep for the given byte patterns.
+     * @param patterns The patterns to search for
+     * @throws IllegalArgumentException If there are no patterns or a pattern is empty
+     */
+    public PakGrep(byte[]... patterns) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("No patterns given");
+        }
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+        }
+        this.patterns = patterns.clone();
+        threads = 1;
+        limit = Integer.MAX_VALUE;
+        context = DEFAULT_CONTEXT;
+        filter = path -> true;
+    }
+
+    /**
+     * Constructs a PakGrep for the given strings, encoded as UTF-8.
+     * @param patterns The strings to search for
+     * @return A new PakGrep
+     * @throws IllegalArgumentException If there are no patterns or a pattern is empty
+     */
+    public static PakGrep of(String... patterns) {
+        byte[][] bytes = new byte[patterns.length][];
+        for (int i = 0; i < patterns.length; ++i) {
+            bytes[i] = patterns[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new PakGrep(bytes);
+    }
+
+    /**
+     * Sets whether ASCII letters in the patterns match regardless of case. Off by default.
+     */
+    public void setIgnoreCase(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Sets the number of threads to inflate and search subfiles with. Defaults to 1, which searches on the calling
+     * thread.
+     * @throws IllegalArgumentException If threads is less than 1
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the maximum number of matches to deliver before stopping the search. Unlimited by default.
+     * @throws IllegalArgumentException If limit is less than 1
+     */
+    public void setLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Sets the number of bytes of context to include before and after each match. Defaults to {@value
+     * DEFAULT_CONTEXT}.
+     * @throws IllegalArgumentException If context is negative
+     */
+    public void setContext(int context) {
+        if (context < 0) {
+            throw new IllegalArgumentException("Invalid context: " + context);
+        }
+        this.context = context;
+    }
+
+    /**
+     * Sets which subfiles to search, by full path (without the leading backslash). All subfiles are searched by
+     * default.
+     */
+    public void setFilter(Predicate<String> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Searches the live subfiles of the PakFile. The PakFile must be open.
+     * @param pakFile The PakFile to search
+     * @param listener Receives each match
+     * @return The number of matches delivered
+     * @throws InvalidPakException If a subfile could not be inflated
+     * @throws IOException If there was an error reading the PakFile
+     */
+    public int search(PakFile pakFile, Consumer<Match> listener) throws IOException {
+        PakIndex index = pakFile.getIndex();
+        List<FileInfo> fileInfos = new ArrayList<>();
+        List<Integer> ordinals = new ArrayList<>();
+        for (int i = 0; i < index.size(); ++i) {
+            if (index.isLive(i) && index.getDiskSize(i) != 0 && index.getDecompressedSize(i) != 0 &&
+                    filter.test(index.getPath(i))) {
+                fileInfos.add(index.toFileInfo(i));
+                ordinals.add(i);
+            }
+        }
+        Search search = new Search(pakFile, new MultiPatternMatcher(patterns, ignoreCase), fileInfos, ordinals,
+                ReadRun.plan(fileInfos, MAX_READ_RUN), listener);
+        if (threads == 1) {
+            search.run();
+            return search.delivered;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; ++i) {
+                futures.add(executor.submit(() -> {
+                    search.run();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return search.delivered;
+    }
+
+    /**
+     * A single search, shared by all worker threads.
+     */
+    private class Search {
+
+        private final PakFile pakFile;
+        private final MultiPatternMatcher matcher;
+        private final List<FileInfo> fileInfos;
+        private final List<Integer> ordinals;
+        private final List<ReadRun> runs;
+        private final Consumer<Match> listener;
+        private final AtomicInteger next;
+        /** Guarded by this */
+        private int delivered;
+        private volatile boolean stopped;
+
+        Search(PakFile pakFile, MultiPatternMatcher matcher, List<FileInfo> fileInfos, List<Integer> ordinals,
+               List<ReadRun> runs, Consumer<Match> listener) {
+            this.pakFile = pakFile;
+            this.matcher = matcher;
+            this.fileInfos = fileInfos;
+            this.ordinals = ordinals;
+            this.runs = runs;
+            this.listener = listener;
+            next = new AtomicInteger();
+        }
+
+        void run() throws IOException {
+            try (CodecPool.Lease<Inflater> inflater = CodecPool.getDefault().borrowInflater();
+                 CodecPool.Lease<byte[]> out = CodecPool.getDefault().borrowBuffer()) {
+                ByteBuffer buffer = ByteBuffer.allocate(MAX_READ_RUN);
+                Scanner scanner = new Scanner(this);
+                int index;
+                while (!stopped && (index = next.getAndIncrement()) < runs.size()) {
+                    ReadRun run = runs.get(index);
+                    boolean buffered = run.segment.length <= buffer.capacity();
+                    if (buffered) {
+                        buffer.clear();
+                        buffer.limit((int) run.segment.length);
+                        pakFile.readFully(run.segment.start, buffer);
+                    }
+                    for (int i = 0; i < run.indices.length && !stopped; ++i) {
+                        FileInfo fileInfo = fileInfos.get(run.indices[i]);
+                        scanner.reset(fileInfo, ordinals.get(run.indices[i]));
+                        if (buffered) {
+                            scan(buffer.array(), run.offsetOf(fileInfo), (int) ReadRun.rawSize(fileInfo),
+                                    inflater.get(), out.get(), scanner);
+                        } else {
+                            scan(fileInfo, out.get(), scanner);
+                        }
+                        scanner.finish();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                stopped = true;
+                throw e;
+            }
+        }
+
+        private void scan(byte[] data, int offset, int length, Inflater inflater, byte[] out, Scanner scanner)
+                throws IOException {
+            inflater.reset();
+            inflater.setInput(data, offset, length);
+            try {
+                while (!inflater.finished() && !stopped) {
+                    int len = inflater.inflate(out);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new InvalidPakException("Truncated subfile " + scanner.fileInfo.getFullPath());
+                    }
+                    scanner.feed(out, len);
+                }
+            } catch (DataFormatException e) {
+                throw new InvalidPakException("Corrupt subfile " + scanner.fileInfo.getFullPath(), e);
+            }
+        }
+
+        private void scan(FileInfo fileInfo, byte[] out, Scanner scanner) throws IOException {
+            try (InputStream in = pakFile.openInputStream(fileInfo)) {
+                int len;
+                while (!stopped && (len = in.read(out)) != -1) {
+                    scanner.feed(out, len);
+                }
+            }
+        }
+
+        synchronized void deliver(Match match) {
+            if (stopped) {
+                return;
+            }
+            listener.accept(match);
+            if (++delivered >= limit) {
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * Runs the matcher over one subfile at a time, keeping just enough of the recent bytes to cut out the context of
+     * each match. Matches are held back until their trailing context has been read or the subfile ends.
+     */
+    private class Scanner {
+
+        private final Search search;
+        private final MultiPatternMatcher matcher;
+        /** The most recent bytes of the subfile, indexed by position & mask */
+        private final byte[] history;
+        private final int mask;
+        private FileInfo fileInfo;
+        private int ordinal;
+        private int state;
+        /** The number of bytes of the subfile read so far */
+        private long position;
+        /** Matches waiting for their trailing context, as {end position, pattern} pairs, oldest first */
+        private long[] pending;
+        private int pendingHead;
+        private int pendingTail;
+
+        Scanner(Search search) {
+            this.search = search;
+            this.matcher = search.matcher;
+            history = new byte[Integer.highestOneBit(matcher.maxLength() + 2 * context) << 1];
+            mask = history.length - 1;
+            pending = new long[16];
+        }
+
+        void reset(FileInfo fileInfo, int ordinal) {
+            this.fileInfo = fileInfo;
+            this.ordinal = ordinal;
+            state = MultiPatternMatcher.START;
+            position = 0;
+            pendingHead = 0;
+            pendingTail = 0;
+        }
+
+        void feed(byte[] data, int len) {
+            for (int i = 0; i < len; ++i) {
+                byte b = data[i];
+                history[(int) position & mask] = b;
+                ++position;
+                state = matcher.step(state, b);
+                int[] matches = matcher.matches(state);
+                if (matches != null) {
+                    for (int pattern : matches) {
+                        addPending(pattern);
+                    }
+                }
+                //  The oldest match is always the first one due
+                while (pendingHead < pendingTail && pending[pendingHead] + context <= position) {
+                    emit();
+                }
+            }
+        }
+
+        void finish() {
+            while (pendingHead < pendingTail && !search.stopped) {
+                emit();
+            }
+        }
+
+        private void addPending(int pattern) {
+            if (pendingTail + 2 > pending.length) {
+                if (pendingHead > 0) {
+                    System.arraycopy(pending, pendingHead, pending, 0, pendingTail - pendingHead);
+                    pendingTail -= pendingHead;
+                    pendingHead = 0;
+                } else {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                }
+            }
+            pending[pendingTail++] = position;
+            pending[pendingTail++] = pattern;
+        }
+
+        private void emit() {
+            long end = pending[pendingHead++];
+            int pattern = (int) pending[pendingHead++];
+            long start = end - matcher.length(pattern);
+            long contextStart = Math.max(0, start - context);
+            long contextEnd = Math.min(position, end + context);
+            byte[] bytes = new byte[(int) (contextEnd - contextStart)];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[i] = history[(int) (contextStart + i) & mask];
+            }
+            search.deliver(new Match(fileInfo.getFullPath(), ordinal, pattern, start, bytes, contextStart));
+        }
+    }
+
+    /**
+     * A match of one of the patterns in a subfile.
+     */
+    public static class Match {
+
+        private final String path;
+        private final int ordinal;
+        private final int pattern;
+        private final long offset;
+        private final byte[] context;
+        private final long contextOffset;
+
+        Match(String path, int ordinal, int pattern, long offset, byte[] context, long contextOffset) {
+            this.path = path;
+            this.ordinal = ordinal;
+            this.pattern = pattern;
+            this.offset = offset;
+            this.context = context;
+            this.contextOffset = contextOffset;
+        }
+
+        /**
+         * @return The full path of the subfile, without the leading backslash
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The ordinal of the subfile in the PakFile's {@link PakIndex}
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * @return The index of the pattern that matched, in the order the patterns were given
+         */
+        public int getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return The offset of the match in the decompressed subfile
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return The bytes around the match, including the match itself
+         */
+        public byte[] getContext() {
+            return context.clone();
+        }
+
+        /**
+         * @return The offset of the first byte of the context in the decompressed subfile
+         */
+        public long getContextOffset() {
+            return contextOffset;
+        }
+
+        @Override
+        public String toString() {
+            return path + "@" + offset;
+        }
+    }
+}
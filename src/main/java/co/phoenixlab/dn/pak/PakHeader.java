@@ -29,6 +29,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 import static co.phoenixlab.dn.pak.Util.readNulTerminatedStr;
 import static java.lang.Integer.*;
@@ -101,6 +102,27 @@ public class PakHeader {
         }
     }
 
+    /**
+     * Writes this header at the start of a PakFile through the given FileChannel, the inverse of
+     * {@link PakHeader#read(RandomAccessFile)}. The channel's position is not changed.
+     * @param fileChannel The FileChannel to write to
+     * @throws IOException If there was an error writing the header
+     */
+    public void write(FileChannel fileChannel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(magic.getBytes(StandardCharsets.UTF_8));
+        buffer.position(MAGIC_WORD_SIZE);
+        buffer.putInt(unknown);
+        buffer.putInt((int) numFiles);
+        buffer.putInt((int) fileTableOffset);
+        buffer.clear();
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += fileChannel.write(buffer, position);
+        }
+    }
+
     /**
      * Gets the magic word. A valid PakFile will always return {@link #MAGIC_WORD}, since an invalid one
      * will fail at {@link PakHeader#read(RandomAccessFile)} with an {@link InvalidPakException}.
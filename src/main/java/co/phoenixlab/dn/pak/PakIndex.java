@@ -0,0 +1,730 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.Integer.toUnsignedLong;
+
+/**
+ * A compact, struct-of-arrays index of a PakFile's file table.
+ * <p>
+ * Rather than one {@link FileInfo}, {@link FileEntry} and map node per subfile, each field is stored in its own
+ * primitive array indexed by the entry's ordinal (its position in the file table), and all paths are stored
+ * back to back as UTF-8 in a single byte array. Paths are resolved to ordinals through an open addressing hash table.
+ * This brings the overhead per subfile down to a few dozen bytes and allows fast linear scans over a single field.
+ * <p>
+ * As with {@link PakFile#getEntryMap()}, paths do not include the leading backslash, and if the same path appears
+ * more than once in the file table, the last one wins. The entries that lost are still present by ordinal but are not
+ * reachable by path; see {@link PakIndex#isLive(int)}.
+ * <p>
+ * A PakIndex is immutable once built and is safe to share between threads.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakIndex {
+
+    /** Value returned by {@link PakIndex#ordinalOf(CharSequence)} if there is no such path */
+    public static final int NOT_FOUND = -1;
+    /** The largest array size that can be reliably allocated */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    /** The largest hash table, the largest power of two that can be allocated as an array */
+    private static final int MAX_SLOTS = 1 << 30;
+    /** {@value}, the most entries an index can hold, so that its hash table fits in {@link #MAX_SLOTS} */
+    static final int MAX_SIZE = MAX_SLOTS / 2 - 1;
+
+    /** The number of entries (file table records) */
+    private final int size;
+    /** The number of distinct paths */
+    private final int numPaths;
+    /** Unsigned 32 bit disk offsets, by ordinal */
+    private final int[] diskOffsets;
+    /** Unsigned 32 bit disk sizes, by ordinal */
+    private final int[] diskSizes;
+    /** Unsigned 32 bit compressed sizes, by ordinal */
+    private final int[] compressedSizes;
+    /** Unsigned 32 bit decompressed sizes, by ordinal */
+    private final int[] decompressedSizes;
+    /** Unknown fields, by ordinal */
+    private final int[] unknowns;
+    /** All paths, encoded as UTF-8, without leading backslashes, back to back */
+    private final byte[] pathData;
+    /** Start of each path in {@link PakIndex#pathData}, by ordinal, with one extra trailing element */
+    private final int[] pathOffsets;
+    /** Hash table of (ordinal + 1), 0 being an empty slot. The length is a power of two */
+    private final int[] slots;
+
+    /**
+     * Constructs a PakIndex, building the hash table by inserting every entry in ordinal order so that later
+     * duplicates win.
+     * @param hashes The {@link PakIndex#pathHash(int)} of each entry, or null to hash the paths here
+     */
+    private PakIndex(int size, int[] diskOffsets, int[] diskSizes, int[] compressedSizes,
+                     int[] decompressedSizes, int[] unknowns, byte[] pathData, int[] pathOffsets, int[] hashes) {
+        this.size = size;
+        this.diskOffsets = diskOffsets;
+        this.diskSizes = diskSizes;
+        this.compressedSizes = compressedSizes;
+        this.decompressedSizes = decompressedSizes;
+        this.unknowns = unknowns;
+        this.pathData = pathData;
+        this.pathOffsets = pathOffsets;
+        this.slots = new int[slotCount(size)];
+        int unique = 0;
+        for (int i = 0; i < size; ++i) {
+            if (insert(i, hashes == null ? pathHash(i) : hashes[i])) {
+                ++unique;
+            }
+        }
+        this.numPaths = unique;
+    }
+
+    /**
+     * Constructs a PakIndex with an already built hash table.
+     */
+    private PakIndex(int size, int numPaths, int[] diskOffsets, int[] diskSizes, int[] compressedSizes,
+                     int[] decompressedSizes, int[] unknowns, byte[] pathData, int[] pathOffsets, int[] slots) {
+        this.size = size;
+        this.numPaths = numPaths;
+        this.diskOffsets = diskOffsets;
+        this.diskSizes = diskSizes;
+        this.compressedSizes = compressedSizes;
+        this.decompressedSizes = decompressedSizes;
+        this.unknowns = unknowns;
+        this.pathData = pathData;
+        this.pathOffsets = pathOffsets;
+        this.slots = slots;
+    }
+
+    /**
+     * Builds a PakIndex from every record of the given FileTableCursor. The cursor must be positioned before the first
+     * record, and will be exhausted afterwards.
+     * @param cursor The FileTableCursor over the file table
+     * @return A new PakIndex
+     * @throws IllegalArgumentException If the table has more than {@link #MAX_SIZE} records
+     * @throws UncheckedIOException If the cursor is windowed and there was an error reading a window
+     */
+    public static PakIndex build(FileTableCursor cursor) {
+        int size = cursor.getNumRecords();
+        slotCount(size);
+        int[] diskOffsets = new int[size];
+        int[] diskSizes = new int[size];
+        int[] compressedSizes = new int[size];
+        int[] decompressedSizes = new int[size];
+        int[] unknowns = new int[size];
+        int[] pathOffsets = new int[size + 1];
+        //  Most paths are well under 64 bytes, grow as needed
+        byte[] pathData = new byte[(int) Math.min(MAX_ARRAY_SIZE, Math.max(64L, size * 64L))];
+        int pathLen = 0;
+        while (cursor.next()) {
+            int i = cursor.getOrdinal();
+            diskOffsets[i] = (int) cursor.getDiskOffset();
+            diskSizes[i] = (int) cursor.getDiskSize();
+            compressedSizes[i] = (int) cursor.getCompressedSize();
+            decompressedSizes[i] = (int) cursor.getDecompressedSize();
+            unknowns[i] = cursor.getUnknown();
+            if (pathData.length - pathLen < FileInfo.NAME_BYTES_SIZE) {
+                pathData = Arrays.copyOf(pathData, (int) Math.min(MAX_ARRAY_SIZE, pathData.length * 2L));
+            }
+            pathOffsets[i] = pathLen;
+            pathLen += cursor.getPathBytes(pathData, pathLen);
+        }
+        pathOffsets[size] = pathLen;
+        return new PakIndex(size, diskOffsets, diskSizes, compressedSizes, decompressedSizes, unknowns,
+                Arrays.copyOf(pathData, pathLen), pathOffsets, null);
+    }
+
+    /**
+     * Builds a PakIndex from the file table described by the header. Large tables are parsed in parallel on the
+     * common ForkJoinPool (see {@link FileTableCursor#isWorthSplitting(PakHeader)} and
+     * {@link PakIndex#build(FileChannel, PakHeader, ForkJoinPool, int)}), others are walked with a single windowed
+     * cursor.
+     * @param channel The channel to the PakFile, which is not closed
+     * @param header The PakFile's header
+     * @return A new PakIndex
+     * @throws InvalidPakException If the file table is invalid
+     * @throws IOException If there was an error reading the file table
+     */
+    static PakIndex build(FileChannel channel, PakHeader header) throws IOException {
+        if (FileTableCursor.isWorthSplitting(header)) {
+            return build(channel, header, ForkJoinPool.commonPool(), FileTableCursor.CHUNK_RECORDS);
+        }
+        try {
+            return build(FileTableCursor.open(channel, header, true));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Builds a PakIndex by parsing the file table in chunks in parallel. Each chunk fills in its own range of the
+     * field arrays and collects its paths and their hashes into a buffer of its own; the buffers are then joined in
+     * table order and the hash table is built by inserting every entry in ordinal order, exactly as
+     * {@link PakIndex#build(FileTableCursor)} does, so the result is identical, including which duplicate wins.
+     * @param channel The channel to the PakFile, which is not closed
+     * @param header The PakFile's header
+     * @param pool The pool to parse on
+     * @param chunkRecords The number of records each task parses
+     * @return A new PakIndex
+     * @throws InvalidPakException If the file table is invalid
+     * @throws IOException If there was an error reading the file table
+     */
+    static PakIndex build(FileChannel channel, PakHeader header, ForkJoinPool pool, int chunkRecords)
+            throws IOException {
+        int size = FileTableCursor.checkTable(channel, header);
+        int[] diskOffsets = new int[size];
+        int[] diskSizes = new int[size];
+        int[] compressedSizes = new int[size];
+        int[] decompressedSizes = new int[size];
+        int[] unknowns = new int[size];
+        int[] hashes = new int[size];
+        //  Offsets are relative to the chunk's own path buffer until the chunks are joined
+        int[] pathOffsets = new int[size + 1];
+        int numChunks = (int) ((size + (long) chunkRecords - 1) / chunkRecords);
+        byte[][] chunkPaths = new byte[numChunks][];
+        int[] chunkPathLens = new int[numChunks];
+        FileTableCursor.forEachChunk(channel, header, chunkRecords, pool, (chunk, first, cursor) -> {
+            byte[] paths = new byte[(int) Math.min(MAX_ARRAY_SIZE, Math.max(64L, cursor.getNumRecords() * 64L))];
+            int pathLen = 0;
+            while (cursor.next()) {
+                int i = first + cursor.getOrdinal();
+                diskOffsets[i] = (int) cursor.getDiskOffset();
+                diskSizes[i] = (int) cursor.getDiskSize();
+                compressedSizes[i] = (int) cursor.getCompressedSize();
+                decompressedSizes[i] = (int) cursor.getDecompressedSize();
+                unknowns[i] = cursor.getUnknown();
+                if (paths.length - pathLen < FileInfo.NAME_BYTES_SIZE) {
+                    paths = Arrays.copyOf(paths, (int) Math.min(MAX_ARRAY_SIZE, paths.length * 2L));
+                }
+                int len = cursor.getPathBytes(paths, pathLen);
+                pathOffsets[i] = pathLen;
+                hashes[i] = hash(paths, pathLen, len);
+                pathLen += len;
+            }
+            chunkPaths[chunk] = paths;
+            chunkPathLens[chunk] = pathLen;
+        });
+        long totalLen = 0;
+        for (int len : chunkPathLens) {
+            totalLen += len;
+        }
+        if (totalLen > MAX_ARRAY_SIZE) {
+            throw new InvalidPakException("File table paths are too large: " + totalLen + " bytes");
+        }
+        byte[] pathData = new byte[(int) totalLen];
+        int pathLen = 0;
+        for (int chunk = 0; chunk < numChunks; ++chunk) {
+            System.arraycopy(chunkPaths[chunk], 0, pathData, pathLen, chunkPathLens[chunk]);
+            chunkPaths[chunk] = null;
+            for (int i = chunk * chunkRecords, end = Math.min(size, i + chunkRecords); i < end; ++i) {
+                pathOffsets[i] += pathLen;
+            }
+            pathLen += chunkPathLens[chunk];
+        }
+        pathOffsets[size] = pathLen;
+        return new PakIndex(size, diskOffsets, diskSizes, compressedSizes, decompressedSizes, unknowns, pathData,
+                pathOffsets, hashes);
+    }
+
+    /**
+     * Gets the number of bytes {@link PakIndex#writeTo(WritableByteChannel)} will write.
+     * @return The size of the serialized form of this index, in bytes
+     */
+    long serializedSize() {
+        return 16L + 4L * (5L * size + pathOffsets.length + slots.length) + pathData.length;
+    }
+
+    /**
+     * Writes this index, including its hash table, so that it can be read back by
+     * {@link PakIndex#readFrom(ByteBuffer)} without rebuilding anything. All values are little endian and every
+     * array is 4 byte aligned, with the path data last.
+     * @param out The channel to write to
+     * @throws IOException If there was an error writing
+     */
+    void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CodecPool.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(size).putInt(numPaths).putInt(slots.length).putInt(pathData.length);
+        for (int[] array : new int[][]{diskOffsets, diskSizes, compressedSizes, decompressedSizes, unknowns,
+                pathOffsets, slots}) {
+            writeInts(array, buffer, out);
+        }
+        int written = 0;
+        while (written < pathData.length) {
+            int len = Math.min(buffer.remaining(), pathData.length - written);
+            buffer.put(pathData, written, len);
+            written += len;
+            if (!buffer.hasRemaining()) {
+                flush(buffer, out);
+            }
+        }
+        flush(buffer, out);
+    }
+
+    /**
+     * Puts the array into the buffer, flushing the buffer to the channel whenever it fills up.
+     */
+    static void writeInts(int[] array, ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        IntBuffer ints = buffer.asIntBuffer();
+        int written = 0;
+        while (written < array.length) {
+            int len = Math.min(ints.remaining(), array.length - written);
+            ints.put(array, written, len);
+            written += len;
+            buffer.position(buffer.position() + len * 4);
+            if (!buffer.hasRemaining()) {
+                flush(buffer, out);
+                ints = buffer.asIntBuffer();
+            }
+        }
+    }
+
+    static void flush(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads an index written by {@link PakIndex#writeTo(WritableByteChannel)}, such as from a mapped file. The
+     * arrays are bulk copied out of the buffer; nothing is parsed or hashed.
+     * @param in The buffer to read from, positioned at the start of the index. Its byte order is changed to little
+     * endian.
+     * @return The PakIndex
+     * @throws InvalidPakException If the data is truncated or inconsistent
+     */
+    static PakIndex readFrom(ByteBuffer in) throws InvalidPakException {
+        try {
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            int size = in.getInt();
+            int numPaths = in.getInt();
+            int numSlots = in.getInt();
+            int pathDataLen = in.getInt();
+            if (size < 0 || size > MAX_SIZE || numPaths < 0 || numPaths > size || numSlots <= size ||
+                    numSlots > MAX_SLOTS || Integer.bitCount(numSlots) != 1 ||
+                    pathDataLen < 0 || 4L * (5L * size + size + 1 + numSlots) + pathDataLen > in.remaining()) {
+                throw new InvalidPakException("Invalid index header");
+            }
+            int[] diskOffsets = readInts(in, size);
+            int[] diskSizes = readInts(in, size);
+            int[] compressedSizes = readInts(in, size);
+            int[] decompressedSizes = readInts(in, size);
+            int[] unknowns = readInts(in, size);
+            int[] pathOffsets = readInts(in, size + 1);
+            int[] slots = readInts(in, numSlots);
+            byte[] pathData = new byte[pathDataLen];
+            in.get(pathData);
+            if (pathOffsets[0] != 0 || pathOffsets[size] != pathDataLen) {
+                throw new InvalidPakException("Invalid index path offsets");
+            }
+            for (int i = 0; i < size; ++i) {
+                if (pathOffsets[i + 1] < pathOffsets[i]) {
+                    throw new InvalidPakException("Invalid index path offsets");
+                }
+            }
+            for (int slot : slots) {
+                if (slot < 0 || slot > size) {
+                    throw new InvalidPakException("Invalid index hash table");
+                }
+            }
+            return new PakIndex(size, numPaths, diskOffsets, diskSizes, compressedSizes, decompressedSizes, unknowns,
+                    pathData, pathOffsets, slots);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidPakException("Truncated index", e);
+        }
+    }
+
+    static int[] readInts(ByteBuffer in, int len) {
+        int[] array = new int[len];
+        in.asIntBuffer().get(array);
+        in.position(in.position() + len * 4);
+        return array;
+    }
+
+    /**
+     * Sizes the hash table for the given number of entries, for a load factor of at most 0.5. The size is computed as
+     * a long so that it can't overflow into a tiny table that insert() would never find a free slot in.
+     * @throws IllegalArgumentException If the table would be larger than {@link #MAX_SLOTS}
+     */
+    static int slotCount(int size) {
+        long slots = Math.max(2L, (long) Integer.highestOneBit(Math.max(1, size)) << 2);
+        if (slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Too many entries for an index: " + size);
+        }
+        return (int) slots;
+    }
+
+    /**
+     * Inserts the ordinal into the hash table, replacing any previous ordinal with the same path.
+     * @param hash The hash of the ordinal's path
+     * @return True if the path was not already present
+     */
+    private boolean insert(int ordinal, int hash) {
+        int start = pathOffsets[ordinal];
+        int len = pathOffsets[ordinal + 1] - start;
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int other = slots[slot] - 1;
+            if (pathEquals(other, pathData, start, len)) {
+                slots[slot] = ordinal + 1;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = ordinal + 1;
+        return true;
+    }
+
+    /**
+     * Resolves a path to an ordinal. The leading backslash is optional.
+     * @param path The full path of the subfile
+     * @return The ordinal of the subfile, or {@link PakIndex#NOT_FOUND} if there is no such subfile
+     */
+    public int ordinalOf(CharSequence path) {
+        int mask = slots.length - 1;
+        int slot = mix(hashPath(path)) & mask;
+        while (slots[slot] != 0) {
+            int ordinal = slots[slot] - 1;
+            if (pathEquals(ordinal, path)) {
+                return ordinal;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    private int ordinalOf(byte[] bytes, int start, int len) {
+        int mask = slots.length - 1;
+        int slot = mix(hash(bytes, start, len)) & mask;
+        while (slots[slot] != 0) {
+            int ordinal = slots[slot] - 1;
+            if (pathEquals(ordinal, bytes, start, len)) {
+                return ordinal;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Hashes a path the same way as {@link PakIndex#pathHash(int)}, without allocating for ASCII paths. The leading
+     * backslash is optional.
+     */
+    static int hashPath(CharSequence path) {
+        int start = path.length() > 0 && path.charAt(0) == '\\' ? 1 : 0;
+        int hash = 0;
+        for (int i = start; i < path.length(); ++i) {
+            char c = path.charAt(i);
+            if (c >= 0x80) {
+                //  Not ASCII, take the slow path
+                byte[] bytes = encode(path, start);
+                return hash(bytes, 0, bytes.length);
+            }
+            hash = 31 * hash + c;
+        }
+        return hash;
+    }
+
+    /**
+     * @return The hash of the given entry's path
+     */
+    int pathHash(int ordinal) {
+        int off = pathOffsets[ordinal];
+        return hash(pathData, off, pathOffsets[ordinal + 1] - off);
+    }
+
+    /**
+     * Checks whether the given entry's path equals a path, without allocating for ASCII paths. The leading backslash
+     * is optional.
+     */
+    boolean pathEquals(int ordinal, CharSequence path) {
+        int start = path.length() > 0 && path.charAt(0) == '\\' ? 1 : 0;
+        int len = path.length() - start;
+        int off = pathOffsets[ordinal];
+        int pathLen = pathOffsets[ordinal + 1] - off;
+        for (int i = 0; i < len; ++i) {
+            char c = path.charAt(start + i);
+            if (c >= 0x80) {
+                //  Everything up to here is ASCII and matched, so the UTF-8 encoding does too
+                byte[] bytes = encode(path, start);
+                return pathEquals(ordinal, bytes, 0, bytes.length);
+            }
+            if (i >= pathLen || pathData[off + i] != c) {
+                return false;
+            }
+        }
+        return pathLen == len;
+    }
+
+    /**
+     * Checks whether an entry in this index has the same path as an entry in another index.
+     */
+    boolean pathEquals(int ordinal, PakIndex other, int otherOrdinal) {
+        int otherOff = other.pathOffsets[otherOrdinal];
+        return pathEquals(ordinal, other.pathData, otherOff, other.pathOffsets[otherOrdinal + 1] - otherOff);
+    }
+
+    private static byte[] encode(CharSequence path, int start) {
+        return path.subSequence(start, path.length()).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean pathEquals(int ordinal, byte[] bytes, int start, int len) {
+        int off = pathOffsets[ordinal];
+        if (pathOffsets[ordinal + 1] - off != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (pathData[off + i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link String#hashCode()} over the bytes, so that it matches for ASCII CharSequences.
+     */
+    private static int hash(byte[] bytes, int start, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; ++i) {
+            hash = 31 * hash + bytes[start + i];
+        }
+        return hash;
+    }
+
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return The number of entries in the index, including those whose paths are overridden by later entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of distinct paths in the index. This is the same as {@link PakFile#getNumFiles()}
+     */
+    public int getNumPaths() {
+        return numPaths;
+    }
+
+    /**
+     * Checks whether the given entry is the one its path resolves to, i.e. it has not been overridden by a later
+     * entry with the same path.
+     * @param ordinal The ordinal of the entry
+     * @return True if {@code ordinalOf(getPath(ordinal)) == ordinal}
+     */
+    public boolean isLive(int ordinal) {
+        return ordinalOf(pathData, pathOffsets[ordinal], pathOffsets[ordinal + 1] - pathOffsets[ordinal]) == ordinal;
+    }
+
+    /**
+     * Lists the ordinals of the live entries, one per distinct path.
+     * @param diskOrder True to sort the ordinals by disk offset, ties broken by ordinal, rather than leaving them in
+     * file table order
+     * @return A new array of {@link PakIndex#getNumPaths()} ordinals
+     * @see PakIndex#isLive(int)
+     */
+    public int[] liveOrdinals(boolean diskOrder) {
+        int[] ordinals = new int[numPaths];
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            if (isLive(i)) {
+                ordinals[count++] = i;
+            }
+        }
+        if (diskOrder) {
+            //  Offsets are 32 bits and ordinals 31, so both fit in one sort key
+            long[] keys = new long[count];
+            for (int i = 0; i < count; ++i) {
+                keys[i] = toUnsignedLong(diskOffsets[ordinals[i]]) << 31 | ordinals[i];
+            }
+            Arrays.parallelSort(keys);
+            for (int i = 0; i < count; ++i) {
+                ordinals[i] = (int) (keys[i] & Integer.MAX_VALUE);
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Decodes the path of the given entry, without the leading backslash.
+     * @param ordinal The ordinal of the entry
+     * @return The full path of the entry
+     * @see FileInfo#getFullPath()
+     */
+    public String getPath(int ordinal) {
+        int off = pathOffsets[ordinal];
+        return new String(pathData, off, pathOffsets[ordinal + 1] - off, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The UTF-8 encoded paths of all entries, back to back. Must not be modified
+     * @see PakIndex#getPathStart(int)
+     */
+    byte[] getPathData() {
+        return pathData;
+    }
+
+    /**
+     * @return The start of the given entry's path in {@link PakIndex#getPathData()}
+     */
+    int getPathStart(int ordinal) {
+        return pathOffsets[ordinal];
+    }
+
+    /**
+     * @return The end (exclusive) of the given entry's path in {@link PakIndex#getPathData()}
+     */
+    int getPathEnd(int ordinal) {
+        return pathOffsets[ordinal + 1];
+    }
+
+    /**
+     * Checks whether the given entry's path, or only its file name, contains the UTF-8 encoded string.
+     * @param ordinal The ordinal of the entry
+     * @param needle The UTF-8 encoded string to look for
+     * @param nameOnly Whether to only search the file name, the part after the last backslash
+     * @return True if the string was found
+     */
+    boolean pathContains(int ordinal, byte[] needle, boolean nameOnly) {
+        int start = pathOffsets[ordinal];
+        int end = pathOffsets[ordinal + 1];
+        if (nameOnly) {
+            //  A backslash never occurs inside a multibyte UTF-8 sequence
+            for (int i = end - 1; i >= start; --i) {
+                if (pathData[i] == '\\') {
+                    start = i + 1;
+                    break;
+                }
+            }
+        }
+        outer:
+        for (int i = start, last = end - needle.length; i <= last; ++i) {
+            for (int j = 0; j < needle.length; ++j) {
+                if (pathData[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @see FileInfo#getDiskOffset()
+     */
+    public long getDiskOffset(int ordinal) {
+        return toUnsignedLong(diskOffsets[ordinal]);
+    }
+
+    /**
+     * @see FileInfo#getDiskSize()
+     */
+    public long getDiskSize(int ordinal) {
+        return toUnsignedLong(diskSizes[ordinal]);
+    }
+
+    /**
+     * @see FileInfo#getCompressedSize()
+     */
+    public long getCompressedSize(int ordinal) {
+        return toUnsignedLong(compressedSizes[ordinal]);
+    }
+
+    /**
+     * @see FileInfo#getDecompressedSize()
+     */
+    public long getDecompressedSize(int ordinal) {
+        return toUnsignedLong(decompressedSizes[ordinal]);
+    }
+
+    /**
+     * @see FileInfo#getUnknown()
+     */
+    public int getUnknown(int ordinal) {
+        return unknowns[ordinal];
+    }
+
+    /**
+     * Sums the disk size of all live entries.
+     * @return The total size of all live subfiles' data inside the PakFile, in bytes
+     */
+    public long getTotalDiskSize() {
+        long total = 0;
+        for (int i = 0; i < size; ++i) {
+            if (isLive(i)) {
+                total += toUnsignedLong(diskSizes[i]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Sums the decompressed size of all live entries.
+     * @return The total size of all live subfiles when decompressed, in bytes
+     */
+    public long getTotalDecompressedSize() {
+        long total = 0;
+        for (int i = 0; i < size; ++i) {
+            if (isLive(i)) {
+                total += toUnsignedLong(decompressedSizes[i]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Creates a standalone FileInfo for the given entry.
+     * @param ordinal The ordinal of the entry
+     * @return A new FileInfo with the same values as the entry
+     */
+    public FileInfo toFileInfo(int ordinal) {
+        FileInfo fileInfo = new FileInfo();
+        String path = getPath(ordinal);
+        fileInfo.setFullPath(path);
+        fileInfo.setFileName(FileInfo.fileNameOf(path));
+        fileInfo.setDiskOffset(getDiskOffset(ordinal));
+        fileInfo.setDiskSize(getDiskSize(ordinal));
+        fileInfo.setCompressedSize(getCompressedSize(ordinal));
+        fileInfo.setDecompressedSize(getDecompressedSize(ordinal));
+        fileInfo.setUnknown(getUnknown(ordinal));
+        return fileInfo;
+    }
+}
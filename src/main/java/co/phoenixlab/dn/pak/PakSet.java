@@ -0,0 +1,352 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A set of PakFiles presented as a single virtual filesystem.
+ * <p>
+ * The Dragon Nest client ships many {@code Resource*.pak} files, where a subfile in a later pak overrides the subfile
+ * with the same path in an earlier one. A PakSet loads all of them (in compact mode) and merges their
+ * {@link PakIndex}es into one resolved hash table, so that looking up a path costs the same no matter how many paks
+ * are in the set. As within a single PakFile, the last entry with a given path wins.
+ * <p>
+ * Lookups and reads may be performed by multiple threads at once.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PakSet implements AutoCloseable {
+
+    /** Value of an empty slot in {@link PakSet#slots} */
+    private static final long EMPTY = -1L;
+
+    /** The PakFiles in this set, in override order */
+    private final List<PakFile> pakFiles;
+    /** The index of each PakFile, in the same order */
+    private final PakIndex[] indexes;
+    /** Hash table of (pak number << 32 | ordinal), or {@link PakSet#EMPTY}. The length is a power of two */
+    private final long[] slots;
+    /** The path hash of each slot, to avoid comparing paths on most collisions */
+    private final int[] slotHashes;
+    /** The number of distinct paths */
+    private final int numFiles;
+
+    private PakSet(List<PakFile> pakFiles, PakIndex[] indexes) {
+        this.pakFiles = Collections.unmodifiableList(pakFiles);
+        this.indexes = indexes;
+        long total = 0;
+        for (PakIndex index : indexes) {
+            total += index.size();
+        }
+        if (total > (1 << 29)) {
+            throw new IllegalArgumentException("Too many subfiles in set: " + total);
+        }
+        //  Load factor of at most 0.5
+        int capacity = Math.max(2, Integer.highestOneBit((int) Math.max(1, total)) << 2);
+        slots = new long[capacity];
+        slotHashes = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        int unique = 0;
+        for (int pak = 0; pak < indexes.length; ++pak) {
+            PakIndex index = indexes[pak];
+            for (int ordinal = 0; ordinal < index.size(); ++ordinal) {
+                if (insert(pak, ordinal)) {
+                    ++unique;
+                }
+            }
+        }
+        numFiles = unique;
+    }
+
+    /**
+     * Loads every file ending in {@code .pak} in the given directory. Paks are ordered by file name,
+     * case insensitively, so that {@code Resource10.pak} overrides {@code Resource09.pak}.
+     * @param directory The directory containing the paks
+     * @param threads The number of threads to load paks with
+     * @return A new PakSet, which must be closed
+     * @throws IOException If there was an error listing the directory or loading a pak
+     */
+    public static PakSet load(Path directory, int threads) throws IOException {
+        List<Path> paks;
+        try (Stream<Path> stream = Files.list(directory)) {
+            paks = stream.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".pak")).
+                    filter(Files::isRegularFile).
+                    sorted((a, b) -> a.getFileName().toString().compareToIgnoreCase(b.getFileName().toString())).
+                    collect(Collectors.toList());
+        }
+        return load(paks, threads);
+    }
+
+    /**
+     * Loads the given paks. Subfiles in later paks override subfiles with the same path in earlier paks.
+     * @param paks The paths to the paks, in override order
+     * @param threads The number of threads to load paks with
+     * @return A new PakSet, which must be closed
+     * @throws IOException If there was an error loading a pak, in which case any paks already loaded are closed
+     */
+    public static PakSet load(List<Path> paks, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        List<PakFile> pakFiles = new ArrayList<>(paks.size());
+        IOException error = null;
+        if (threads == 1) {
+            for (Path pak : paks) {
+                try {
+                    pakFiles.add(loadCompact(pak));
+                } catch (IOException e) {
+                    error = e;
+                    break;
+                }
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, paks.size())));
+            try {
+                List<Future<PakFile>> futures = new ArrayList<>(paks.size());
+                for (Path pak : paks) {
+                    futures.add(executor.submit(() -> loadCompact(pak)));
+                }
+                //  Wait for all of them, so none are left open on error
+                for (Future<PakFile> future : futures) {
+                    try {
+                        pakFiles.add(future.get());
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause() instanceof IOException ?
+                                    (IOException) e.getCause() : new IOException(e.getCause());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        if (error == null) {
+                            error = new IOException("Interrupted while loading paks", e);
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        PakIndex[] indexes = new PakIndex[pakFiles.size()];
+        try {
+            if (error != null) {
+                throw error;
+            }
+            for (int i = 0; i < indexes.length; ++i) {
+                indexes[i] = pakFiles.get(i).getIndex();
+            }
+        } catch (IOException e) {
+            for (PakFile pakFile : pakFiles) {
+                try {
+                    pakFile.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new PakSet(pakFiles, indexes);
+    }
+
+    private static PakFile loadCompact(Path pak) throws IOException {
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        return reader.load(pak);
+    }
+
+    /**
+     * Inserts an entry into the hash table, replacing any earlier entry with the same path.
+     * @return True if the path was not already present
+     */
+    private boolean insert(int pak, int ordinal) {
+        PakIndex index = indexes[pak];
+        int hash = index.pathHash(ordinal);
+        int mask = slots.length - 1;
+        int slot = PakIndex.mix(hash) & mask;
+        long value = ((long) pak << 32) | ordinal;
+        while (slots[slot] != EMPTY) {
+            if (slotHashes[slot] == hash) {
+                long other = slots[slot];
+                if (indexes[(int) (other >>> 32)].pathEquals((int) other, index, ordinal)) {
+                    slots[slot] = value;
+                    return false;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        slotHashes[slot] = hash;
+        return true;
+    }
+
+    /**
+     * Resolves a path to the entry that wins across the whole set.
+     * @return (pak number << 32 | ordinal), or {@link PakSet#EMPTY} if there is no such path
+     */
+    private long locate(CharSequence path) {
+        int hash = PakIndex.hashPath(path);
+        int mask = slots.length - 1;
+        int slot = PakIndex.mix(hash) & mask;
+        long value;
+        while ((value = slots[slot]) != EMPTY) {
+            if (slotHashes[slot] == hash && indexes[(int) (value >>> 32)].pathEquals((int) value, path)) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return The PakFiles in this set, in override order
+     */
+    public List<PakFile> getPakFiles() {
+        return pakFiles;
+    }
+
+    /**
+     * @return The number of distinct subfile paths across all paks in the set
+     */
+    public int getNumFiles() {
+        return numFiles;
+    }
+
+    /**
+     * Checks whether any pak in the set contains the given path. The leading backslash is optional.
+     * @param path The full path of the subfile
+     * @return True if the path resolves to a subfile
+     */
+    public boolean contains(CharSequence path) {
+        return locate(path) != EMPTY;
+    }
+
+    /**
+     * Gets the pak that the given path resolves to, i.e. the last pak in the set containing it.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @return The PakFile the subfile will be read from, or null if there is no such subfile
+     */
+    public PakFile getPakFile(CharSequence path) {
+        long value = locate(path);
+        return value == EMPTY ? null : pakFile(value);
+    }
+
+    /**
+     * Gets the FileInfo that the given path resolves to.
+     * @param path The full path of the subfile. The leading backslash is optional.
+     * @return The FileInfo of the subfile, or null if there is no such subfile
+     */
+    public FileInfo getFileInfo(CharSequence path) {
+        long value = locate(path);
+        return value == EMPTY ? null : fileInfo(value);
+    }
+
+    /**
+     * @see PakFile#openInputStream(FileInfo)
+     */
+    public InputStream openInputStream(CharSequence path) throws IOException {
+        long value = require(path);
+        return pakFile(value).openInputStream(fileInfo(value));
+    }
+
+    /**
+     * @see PakFile#readAllBytes(FileInfo)
+     */
+    public byte[] readAllBytes(CharSequence path) throws IOException {
+        long value = require(path);
+        return pakFile(value).readAllBytes(fileInfo(value));
+    }
+
+    /**
+     * @see PakFile#read(FileInfo, ByteBuffer)
+     */
+    public int read(CharSequence path, ByteBuffer dst) throws IOException {
+        long value = require(path);
+        return pakFile(value).read(fileInfo(value), dst);
+    }
+
+    /**
+     * Sets the cache of decompressed contents on every pak in the set.
+     * @param cache The cache to use, or null for none
+     * @see PakFile#setCache(SubfileCache)
+     */
+    public void setCache(SubfileCache cache) {
+        for (PakFile pakFile : pakFiles) {
+            pakFile.setCache(cache);
+        }
+    }
+
+    private long require(CharSequence path) throws FileNotFoundException {
+        long value = locate(path);
+        if (value == EMPTY) {
+            throw new FileNotFoundException("No such subfile: " + path);
+        }
+        return value;
+    }
+
+    private PakFile pakFile(long value) {
+        return pakFiles.get((int) (value >>> 32));
+    }
+
+    private FileInfo fileInfo(long value) {
+        return indexes[(int) (value >>> 32)].toFileInfo((int) value);
+    }
+
+    /**
+     * Closes every pak in the set.
+     * @throws IOException If there was an error closing any of the paks
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (PakFile pakFile : pakFiles) {
+            try {
+                pakFile.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
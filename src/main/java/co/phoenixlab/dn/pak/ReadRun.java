@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A run of subfiles whose data lies back to back in the PakFile, so that it can be fetched with one sequential read
+ * and then split up per subfile.
+ * <p>
+ * Runs are planned with the same rules as {@link Segment#merge(Segment)}: subfiles that touch end to start or share
+ * data are read together, and a gap between two subfiles always starts a new run.
+ */
+class ReadRun {
+
+    /**
+     * The region of the PakFile covered by this run
+     */
+    final Segment segment;
+    /**
+     * Indices into the list of FileInfos the run was planned from, in disk order
+     */
+    final int[] indices;
+
+    private ReadRun(Segment segment, int[] indices) {
+        this.segment = segment;
+        this.indices = indices;
+    }
+
+    /**
+     * @return The number of bytes to read for a subfile, same as {@link PakFile#transferTo}
+     */
+    static long rawSize(FileInfo fileInfo) {
+        return Math.max(fileInfo.getCompressedSize(), fileInfo.getDiskSize());
+    }
+
+    /**
+     * Sorts the subfiles by disk offset and coalesces adjacent ones into runs of at most {@code maxRunBytes}. A subfile
+     * that is larger than {@code maxRunBytes} on its own gets a run to itself.
+     * @param fileInfos The subfiles to read
+     * @param maxRunBytes The largest read to plan for more than one subfile
+     * @return The runs, in disk order
+     */
+    static List<ReadRun> plan(List<FileInfo> fileInfos, long maxRunBytes) {
+        Integer[] order = new Integer[fileInfos.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        //  Stable, so subfiles at the same offset keep their relative order
+        Arrays.sort(order, (a, b) -> Long.compare(fileInfos.get(a).getDiskOffset(), fileInfos.get(b).getDiskOffset()));
+        List<ReadRun> runs = new ArrayList<>();
+        Segment current = null;
+        int[] indices = new int[order.length];
+        int runStart = 0;
+        for (int i = 0; i < order.length; ++i) {
+            FileInfo fileInfo = fileInfos.get(order[i]);
+            Segment segment = new Segment(fileInfo.getDiskOffset(), rawSize(fileInfo), -1);
+            Segment merged = current == null ? null : current.merge(segment);
+            if (merged == null || merged.length > maxRunBytes) {
+                if (current != null) {
+                    runs.add(new ReadRun(current, Arrays.copyOfRange(indices, runStart, i)));
+                }
+                current = segment;
+                runStart = i;
+            } else {
+                current = merged;
+            }
+            indices[i] = order[i];
+        }
+        if (current != null) {
+            runs.add(new ReadRun(current, Arrays.copyOfRange(indices, runStart, order.length)));
+        }
+        return runs;
+    }
+
+    /**
+     * Plans one run per subfile, in the order given, for reading the subfiles one at a time.
+     * @param fileInfos The subfiles to read
+     * @return The runs, in the same order as the subfiles
+     */
+    static List<ReadRun> inOrder(List<FileInfo> fileInfos) {
+        List<ReadRun> runs = new ArrayList<>(fileInfos.size());
+        for (int i = 0; i < fileInfos.size(); ++i) {
+            FileInfo fileInfo = fileInfos.get(i);
+            runs.add(new ReadRun(new Segment(fileInfo.getDiskOffset(), rawSize(fileInfo), -1), new int[]{i}));
+        }
+        return runs;
+    }
+
+    /**
+     * @return The offset of the given subfile's data from the start of this run
+     */
+    int offsetOf(FileInfo fileInfo) {
+        return (int) (fileInfo.getDiskOffset() - segment.start);
+    }
+
+    @Override
+    public String toString() {
+        return segment + "\t" + indices.length;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of decompressed subfile contents, bounded by the total number of bytes cached.
+ * <p>
+ * Entries are keyed by the path of the PakFile on disk and the {@link FileInfo#getDiskOffset() disk offset} of the
+ * subfile. Eviction uses a segmented LRU policy: new entries enter a small probationary segment, and are only promoted
+ * to the protected segment when they are hit again. A one off scan over many subfiles (such as a dump) therefore only
+ * churns the probationary segment and leaves the hot entries alone.
+ * <p>
+ * Cached data is handed out as read only ByteBuffers, which are never modified once cached, so they remain valid
+ * even after being evicted. Data may be kept on the heap or in direct buffers off of the heap.
+ * <p>
+ * A SubfileCache is safe for use by multiple threads. Subfiles are inflated outside of the lock, so two threads
+ * missing on the same subfile at once may both inflate it.
+ * @see PakFile#setCache(SubfileCache)
+ */
+@SuppressWarnings("WeakerAccess")
+public class SubfileCache {
+
+    /** The fraction of the capacity given to the probationary segment */
+    private static final double PROBATION_FRACTION = 0.2;
+
+    /** The maximum number of bytes to cache */
+    private final long capacity;
+    /** The maximum number of bytes in the protected segment */
+    private final long protectedCapacity;
+    /** Whether to store data in direct buffers */
+    private final boolean offHeap;
+    /** Entries that have been seen once, in LRU order */
+    private final LinkedHashMap<Key, ByteBuffer> probation = new LinkedHashMap<>(16, 0.75F, true);
+    /** Entries that have been seen more than once, in LRU order */
+    private final LinkedHashMap<Key, ByteBuffer> protectedSegment = new LinkedHashMap<>(16, 0.75F, true);
+    private long probationSize;
+    private long protectedSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a SubfileCache that stores data on the heap.
+     * @param capacity The maximum number of decompressed bytes to cache
+     */
+    public SubfileCache(long capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * Constructs a SubfileCache.
+     * @param capacity The maximum number of decompressed bytes to cache
+     * @param offHeap True to store cached data in direct buffers
+     */
+    public SubfileCache(long capacity, boolean offHeap) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.protectedCapacity = capacity - (long) (capacity * PROBATION_FRACTION);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Checks whether a subfile of the given size could ever be cached. Subfiles larger than the probationary segment
+     * are never admitted, so callers should read them straight from the PakFile rather than through
+     * {@link SubfileCache#get(PakFile, FileInfo)}.
+     * @param decompressedSize The decompressed size of the subfile
+     * @return True if a subfile of this size may be cached
+     */
+    public boolean isAdmissible(long decompressedSize) {
+        return Math.max(1, decompressedSize) <= capacity - protectedCapacity;
+    }
+
+    /**
+     * Gets the decompressed contents of a subfile, inflating and caching them if they are not already cached.
+     * Subfiles that are not {@link SubfileCache#isAdmissible(long) admissible} are inflated into a new buffer every
+     * time without being looked up or cached.
+     * @param pakFile The PakFile containing the subfile
+     * @param fileInfo The subfile
+     * @return A read only buffer of the decompressed contents, positioned at 0
+     * @throws IOException If there was an error reading the subfile
+     */
+    public ByteBuffer get(PakFile pakFile, FileInfo fileInfo) throws IOException {
+        long size = fileInfo.getDecompressedSize();
+        boolean admissible = isAdmissible(size);
+        Key key = new Key(pakFile.getPath(), fileInfo.getDiskOffset());
+        if (admissible) {
+            ByteBuffer data = getIfPresent(key);
+            if (data != null) {
+                return data;
+            }
+            misses.increment();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Subfile is too large for a buffer: " + size);
+        }
+        ByteBuffer data = offHeap ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        pakFile.readUncached(fileInfo, data);
+        data.flip();
+        data = data.asReadOnlyBuffer();
+        if (admissible) {
+            put(key, data);
+        }
+        return data.duplicate();
+    }
+
+    /**
+     * Gets the decompressed contents of a subfile if they are cached.
+     * @param pakPath The path to the PakFile containing the subfile
+     * @param diskOffset The disk offset of the subfile
+     * @return A read only buffer of the decompressed contents, positioned at 0, or null if not cached
+     */
+    public ByteBuffer getIfPresent(Path pakPath, long diskOffset) {
+        ByteBuffer data = getIfPresent(new Key(pakPath, diskOffset));
+        if (data == null) {
+            misses.increment();
+        }
+        return data;
+    }
+
+    private synchronized ByteBuffer getIfPresent(Key key) {
+        ByteBuffer data = protectedSegment.get(key);
+        if (data == null) {
+            data = probation.remove(key);
+            if (data == null) {
+                return null;
+            }
+            //  Second hit, promote
+            probationSize -= weight(data);
+            protectedSegment.put(key, data);
+            protectedSize += weight(data);
+            demote();
+        }
+        hits.increment();
+        return data.duplicate();
+    }
+
+    private synchronized void put(Key key, ByteBuffer data) {
+        long weight = weight(data);
+        if (weight > capacity - protectedCapacity || protectedSegment.containsKey(key)) {
+            return;
+        }
+        ByteBuffer old = probation.put(key, data);
+        if (old != null) {
+            probationSize -= weight(old);
+        }
+        probationSize += weight;
+        evict();
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation until the protected segment fits.
+     */
+    private void demote() {
+        Iterator<Map.Entry<Key, ByteBuffer>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedSize > protectedCapacity && iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            iterator.remove();
+            protectedSize -= weight(entry.getValue());
+            probation.put(entry.getKey(), entry.getValue());
+            probationSize += weight(entry.getValue());
+        }
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used probationary entries until the cache fits.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, ByteBuffer>> iterator = probation.entrySet().iterator();
+        while (probationSize + protectedSize > capacity && iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            iterator.remove();
+            probationSize -= weight(entry.getValue());
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes all cached subfiles of the given PakFile, such as after it has been modified.
+     * @param pakPath The path to the PakFile
+     */
+    public synchronized void invalidate(Path pakPath) {
+        Path normalized = normalize(pakPath);
+        Iterator<Map.Entry<Key, ByteBuffer>> iterator = probation.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().pakPath.equals(normalized)) {
+                probationSize -= weight(entry.getValue());
+                iterator.remove();
+            }
+        }
+        iterator = protectedSegment.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().pakPath.equals(normalized)) {
+                protectedSize -= weight(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    public synchronized void invalidateAll() {
+        probation.clear();
+        protectedSegment.clear();
+        probationSize = 0;
+        protectedSize = 0;
+    }
+
+    /**
+     * @return The maximum number of bytes this cache holds
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of bytes currently cached
+     */
+    public synchronized long getSize() {
+        return probationSize + protectedSize;
+    }
+
+    /**
+     * @return The number of subfiles currently cached
+     */
+    public synchronized int getCount() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    /**
+     * @return The number of lookups that were served from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that were not cached
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of subfiles evicted to make room for others
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SubfileCache{" +
+                "size=" + getSize() +
+                ", capacity=" + capacity +
+                ", count=" + getCount() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", offHeap=" + offHeap +
+                '}';
+    }
+
+    /**
+     * Empty subfiles still count for a byte, so that the number of entries stays bounded.
+     */
+    private static long weight(ByteBuffer data) {
+        return Math.max(1, data.capacity());
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static final class Key {
+
+        final Path pakPath;
+        final long diskOffset;
+
+        Key(Path pakPath, long diskOffset) {
+            this.pakPath = normalize(pakPath);
+            this.diskOffset = diskOffset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return diskOffset == key.diskOffset && pakPath.equals(key.pakPath);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = pakPath.hashCode();
+            result = 31 * result + (int) (diskOffset ^ (diskOffset >>> 32));
+            return result;
+        }
+    }
+}
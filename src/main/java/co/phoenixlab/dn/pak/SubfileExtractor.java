@@ -0,0 +1,311 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates subfiles straight to files on disk. Compressed data is read with positional reads into a reused buffer and
+ * inflated into a second reused buffer, which is written out with a plain {@link FileChannel#write} loop, so no
+ * streams or per subfile buffers are involved. The number of bytes written is counted along the way.
+ * <p>
+ * Subfiles at least as large as the map threshold (see {@link SubfileExtractor#setMapThreshold(long)}) are instead
+ * inflated into a mapping of their output file, which is first sized to the subfile's decompressed size. This saves
+ * the write calls and the copies they make, which adds up for very large subfiles. Since the size is known up front,
+ * a subfile that inflates to any other size is reported as corrupt.
+ * <p>
+ * A SubfileExtractor holds a borrowed Inflater and buffers and is not thread safe; each thread should use its own,
+ * and close it when done.
+ */
+class SubfileExtractor implements AutoCloseable {
+
+    /** Releases a mapping right away rather than when its buffer is collected, or null if that isn't possible */
+    private static final Consumer<ByteBuffer> UNMAPPER = findUnmapper();
+
+    private final CodecPool.Lease<Inflater> inflaterLease;
+    private final CodecPool.Lease<byte[]> inLease;
+    private final CodecPool.Lease<byte[]> outLease;
+    private final Inflater inflater;
+    private final byte[] in;
+    private final byte[] out;
+    private final ByteBuffer outBuffer;
+    /** The directory of the last file written, which is known to exist */
+    private Path lastParent;
+    /** The decompressed size from which subfiles are inflated into a mapping */
+    private long mapThreshold = Long.MAX_VALUE;
+
+    SubfileExtractor() {
+        CodecPool pool = CodecPool.getDefault();
+        inflaterLease = pool.borrowInflater();
+        inLease = pool.borrowBuffer();
+        outLease = pool.borrowBuffer();
+        inflater = inflaterLease.get();
+        in = inLease.get();
+        out = outLease.get();
+        outBuffer = ByteBuffer.wrap(out);
+    }
+
+    /**
+     * @return The decompressed size from which subfiles are inflated into a mapping of their output file
+     */
+    long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    /**
+     * Sets the decompressed size from which subfiles are inflated into a mapping of their output file rather than
+     * written to it. Mapping is off by default. Subfiles larger than 2 GB are always written.
+     * @param mapThreshold The size in bytes, or {@link Long#MAX_VALUE} to never map
+     */
+    void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Inflates a subfile whose compressed data is already in memory into the file at the given path, replacing it if
+     * it exists and creating its parent directories as needed.
+     * @param data The array holding the compressed data
+     * @param offset The index in data of the compressed data, which is {@link ReadRun#rawSize(FileInfo)} bytes long
+     * @param fileInfo The subfile
+     * @param path The file to write
+     * @return The number of bytes written
+     * @throws InvalidPakException If the data is not a valid zlib stream, or the subfile was mapped and did not
+     * inflate to its decompressed size
+     * @throws IOException If there was an error writing the file
+     */
+    long extract(byte[] data, int offset, FileInfo fileInfo, Path path) throws IOException {
+        inflater.reset();
+        inflater.setInput(data, offset, (int) ReadRun.rawSize(fileInfo));
+        if (isMapped(fileInfo)) {
+            try (FileChannel channel = create(path, true)) {
+                MappedByteBuffer mapping = map(channel, fileInfo);
+                try {
+                    inflate(mapping, path);
+                    return checkSize(mapping, fileInfo, path);
+                } finally {
+                    unmap(mapping);
+                }
+            }
+        }
+        try (FileChannel channel = create(path, false)) {
+            return inflate(channel, path);
+        }
+    }
+
+    /**
+     * Inflates a subfile into the file at the given path, reading its compressed data from the PakFile in chunks.
+     * The file is replaced if it exists, and its parent directories are created as needed.
+     * @param pakFile The PakFile to read from, which must be open
+     * @param fileInfo The subfile
+     * @param path The file to write
+     * @return The number of bytes written
+     * @throws InvalidPakException If the data is not a valid zlib stream, or the subfile was mapped and did not
+     * inflate to its decompressed size
+     * @throws IOException If there was an error reading the PakFile or writing the file
+     */
+    long extract(PakFile pakFile, FileInfo fileInfo, Path path) throws IOException {
+        inflater.reset();
+        long position = fileInfo.getDiskOffset();
+        long end = position + ReadRun.rawSize(fileInfo);
+        boolean mapped = isMapped(fileInfo);
+        long written = 0;
+        try (FileChannel channel = create(path, mapped)) {
+            MappedByteBuffer mapping = mapped ? map(channel, fileInfo) : null;
+            try {
+                while (!inflater.finished() && position < end) {
+                    ByteBuffer buffer = ByteBuffer.wrap(in, 0, (int) Math.min(in.length, end - position));
+                    pakFile.readFully(position, buffer);
+                    position += buffer.position();
+                    inflater.setInput(in, 0, buffer.position());
+                    if (mapped) {
+                        inflate(mapping, path);
+                    } else {
+                        written += inflate(channel, path);
+                    }
+                }
+                if (mapped) {
+                    written = checkSize(mapping, fileInfo, path);
+                }
+            } finally {
+                if (mapping != null) {
+                    unmap(mapping);
+                }
+            }
+        }
+        return written;
+    }
+
+    private boolean isMapped(FileInfo fileInfo) {
+        long size = fileInfo.getDecompressedSize();
+        return size >= mapThreshold && size <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Maps the output file at the subfile's decompressed size, which also sets the file to that size.
+     */
+    private static MappedByteBuffer map(FileChannel channel, FileInfo fileInfo) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, fileInfo.getDecompressedSize());
+    }
+
+    private static long checkSize(MappedByteBuffer mapping, FileInfo fileInfo, Path path) throws IOException {
+        if (mapping.hasRemaining()) {
+            throw new InvalidPakException(String.format("Subfile inflated to %,d bytes instead of %,d: %s",
+                    mapping.position(), fileInfo.getDecompressedSize(), path));
+        }
+        return mapping.position();
+    }
+
+    /**
+     * Inflates all of the Inflater's current input into the channel.
+     * @return The number of bytes written
+     */
+    private long inflate(FileChannel channel, Path path) throws IOException {
+        long written = 0;
+        int len;
+        while ((len = inflateChunk(path)) > 0) {
+            outBuffer.clear();
+            outBuffer.limit(len);
+            while (outBuffer.hasRemaining()) {
+                channel.write(outBuffer);
+            }
+            written += len;
+        }
+        return written;
+    }
+
+    /**
+     * Inflates all of the Inflater's current input into the mapping, advancing its position.
+     * @throws InvalidPakException If the subfile inflates to more than the mapping holds
+     */
+    private void inflate(MappedByteBuffer mapping, Path path) throws IOException {
+        int len;
+        while ((len = inflateChunk(path)) > 0) {
+            if (len > mapping.remaining()) {
+                throw new InvalidPakException("Subfile inflated to more than its decompressed size: " + path);
+            }
+            mapping.put(out, 0, len);
+        }
+    }
+
+    /**
+     * Inflates the next chunk into {@link #out}.
+     * @return The number of bytes inflated, or 0 if the stream is finished or needs more input
+     */
+    private int inflateChunk(Path path) throws IOException {
+        try {
+            int len = 0;
+            while (len == 0 && !inflater.finished()) {
+                len = inflater.inflate(out);
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new InvalidPakException("Subfile needs a preset dictionary: " + path);
+                    }
+                    if (inflater.needsInput()) {
+                        break;
+                    }
+                }
+            }
+            return len;
+        } catch (DataFormatException e) {
+            throw new InvalidPakException("Corrupt subfile: " + path, e);
+        }
+    }
+
+    private FileChannel create(Path path, boolean mapped) throws IOException {
+        Path parent = path.getParent();
+        if (parent != null && !parent.equals(lastParent)) {
+            Files.createDirectories(parent);
+            lastParent = parent;
+        }
+        if (mapped) {
+            //  A read-write mapping needs a channel that is open for reading as well
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Unmaps the buffer if possible. Otherwise, dumping many large subfiles could pile up mappings until the next
+     * garbage collection. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        if (UNMAPPER != null) {
+            UNMAPPER.accept(mapping);
+        }
+    }
+
+    private static Consumer<ByteBuffer> findUnmapper() {
+        try {
+            //  Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException ignored) {
+                    //  Left to the garbage collector
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            //  Try the Java 8 way
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    clean.invoke(cleaner.invoke(buffer));
+                } catch (ReflectiveOperationException ignored) {
+                    //  Left to the garbage collector
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        outLease.close();
+        inLease.close();
+        inflaterLease.close();
+    }
+}
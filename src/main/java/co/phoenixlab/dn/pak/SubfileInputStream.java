@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An InputStream that inflates a subfile straight out of a PakFile. Compressed data is read in chunks with positional
+ * reads, so any number of SubfileInputStreams may be open on the same channel at once.
+ */
+class SubfileInputStream extends InputStream {
+
+    /** The channel to the PakFile */
+    private final FileChannel channel;
+    /** The Inflater used to decompress the subfile, returned to its pool on close */
+    private final CodecPool.Lease<Inflater> inflaterLease;
+    /** The buffer compressed data is read into, returned to its pool on close */
+    private final CodecPool.Lease<byte[]> bufferLease;
+    private final Inflater inflater;
+    private final byte[] buffer;
+    /** The position in the PakFile of the next compressed byte to read */
+    private long position;
+    /** The number of compressed bytes left to read */
+    private long remaining;
+    /** Scratch space for {@link SubfileInputStream#read()} */
+    private final byte[] singleByte = new byte[1];
+    private boolean closed;
+
+    /**
+     * Constructs a SubfileInputStream.
+     * @param channel The channel to the PakFile
+     * @param fileInfo The subfile to read
+     * @param inflaterLease The Inflater to use, in a reset state. The stream takes ownership of the lease
+     * @param bufferLease The buffer to read compressed data into. The stream takes ownership of the lease
+     */
+    SubfileInputStream(FileChannel channel, FileInfo fileInfo, CodecPool.Lease<Inflater> inflaterLease,
+                       CodecPool.Lease<byte[]> bufferLease) {
+        this.channel = channel;
+        this.inflaterLease = inflaterLease;
+        this.bufferLease = bufferLease;
+        this.inflater = inflaterLease.get();
+        this.buffer = bufferLease.get();
+        this.position = fileInfo.getDiskOffset();
+        this.remaining = Math.max(fileInfo.getCompressedSize(), fileInfo.getDiskSize());
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            int n;
+            while ((n = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished()) {
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new InvalidPakException("Subfile requires a preset dictionary");
+                }
+                if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+            return n;
+        } catch (DataFormatException e) {
+            throw new InvalidPakException("Corrupt subfile data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the next chunk of compressed data and hands it to the Inflater.
+     */
+    private void fill() throws IOException {
+        if (remaining <= 0) {
+            throw new EOFException("Unexpected end of subfile data");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining));
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of PakFile");
+            }
+        }
+        int len = buf.position();
+        position += len;
+        remaining -= len;
+        inflater.setInput(buffer, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflaterLease.close();
+            bufferLease.close();
+        }
+    }
+}
@@ -1,65 +0,0 @@
-/*
- * The MIT License (MIT)
- *
- * Copyright (c) 2016 Vincent Zhang/PhoenixLAB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-
-package co.phoenixlab.dn.pak;
-
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Scanner;
-import java.util.concurrent.TimeUnit;
-
-public class TestMain {
-
-    public static void main(String[] args) throws IOException {
-        Scanner scanner = new Scanner(System.in);
-        Path path = Paths.get(scanner.nextLine());
-        Path output = Paths.get(scanner.nextLine());
-        BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        for (int i = 0; i < 10000; i++) {
-            System.out.printf("\r%,8d", i);
-            long nanos = System.nanoTime();
-            execute(path);
-            long delta = System.nanoTime() - nanos;
-            writer.write(String.format("%,d\t%,d\n", delta, TimeUnit.NANOSECONDS.toMillis(delta)));
-            if (i % 100 == 0) {
-                writer.flush();
-            }
-        }
-        System.out.println();
-        writer.flush();
-        writer.close();
-    }
-
-    private static void execute(Path path) throws IOException {
-        PakFileReader reader = new PakFileReader();
-        PakFile file = reader.load(path);
-    }
-
-}
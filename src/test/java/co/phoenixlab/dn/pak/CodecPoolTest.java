@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class CodecPoolTest {
+
+    private CodecPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new CodecPool(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.clear();
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        Inflater first;
+        try (CodecPool.Lease<Inflater> lease = pool.borrowInflater()) {
+            first = lease.get();
+            assertEquals(1, pool.getOutstanding(CodecPool.Kind.INFLATER));
+        }
+        assertEquals(0, pool.getOutstanding(CodecPool.Kind.INFLATER));
+        assertEquals(1, pool.getIdle(CodecPool.Kind.INFLATER));
+        try (CodecPool.Lease<Inflater> lease = pool.borrowInflater()) {
+            assertSame(first, lease.get());
+        }
+        assertEquals(1, pool.getHits(CodecPool.Kind.INFLATER));
+        assertEquals(1, pool.getMisses(CodecPool.Kind.INFLATER));
+        assertEquals(0, pool.getHits(CodecPool.Kind.DEFLATER));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        CodecPool.Lease<byte[]> a = pool.borrowBuffer();
+        CodecPool.Lease<byte[]> b = pool.borrowBuffer();
+        assertNotSame(a.get(), b.get());
+        assertEquals(CodecPool.BUFFER_SIZE, a.get().length);
+        a.close();
+        b.close();
+        assertEquals(1, pool.getIdle(CodecPool.Kind.BUFFER));
+        assertEquals(0, pool.getOutstanding(CodecPool.Kind.BUFFER));
+    }
+
+    @Test
+    public void testResetOnReturn() throws Exception {
+        try (CodecPool.Lease<Deflater> lease = pool.borrowDeflater()) {
+            Deflater deflater = lease.get();
+            deflater.setInput(new byte[100]);
+            deflater.finish();
+            deflater.deflate(new byte[200]);
+            assertTrue(deflater.finished());
+        }
+        try (CodecPool.Lease<Deflater> lease = pool.borrowDeflater()) {
+            assertFalse(lease.get().finished());
+            assertEquals(0, lease.get().getBytesRead());
+        }
+    }
+
+    @Test
+    public void testDoubleClose() throws Exception {
+        CodecPool.Lease<Inflater> lease = pool.borrowInflater();
+        lease.close();
+        lease.close();
+        assertEquals(1, pool.getIdle(CodecPool.Kind.INFLATER));
+        assertEquals(0, pool.getOutstanding(CodecPool.Kind.INFLATER));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetAfterClose() throws Exception {
+        CodecPool.Lease<Inflater> lease = pool.borrowInflater();
+        lease.close();
+        lease.get();
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        //  Deliberately leak a lease
+        pool.borrowInflater();
+        for (int i = 0; i < 50 && pool.getLeaks() == 0; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeaks());
+        assertEquals(0, pool.getOutstanding(CodecPool.Kind.INFLATER));
+    }
+}
@@ -83,6 +83,72 @@ public class DirEntryTest {
         assertNull(dirEntry.get("\\potato\\tuber"));
     }
 
+    @Test
+    public void testGetCharSequence() throws Exception {
+        StringBuilder builder = new StringBuilder("test\\foo\\bar");
+        assertTrue(dirEntry.get(builder) instanceof DirEntry);
+        builder.append("\\bay.baz\\qq.dds");
+        assertSame(fileInfo, ((FileEntry) dirEntry.get(builder)).getFileInfo());
+        builder.setLength(builder.length() - 1);
+        assertNull(dirEntry.get(builder));
+        assertNull(dirEntry.get(""));
+    }
+
+    @Test
+    public void testManyChildren() throws Exception {
+        DirEntry root = new DirEntry("\\", null);
+        for (int i = 0; i < 1000; ++i) {
+            FileInfo info = new FileInfo();
+            info.setFileName("file" + i);
+            root.insert("dir" + (i % 7) + "\\file" + i, info);
+        }
+        assertEquals(7, root.getChildren().size());
+        int count = 0;
+        for (Map.Entry<String, Entry> child : root.getChildren().entrySet()) {
+            assertSame(child.getValue(), root.get(child.getKey()));
+            count += ((DirEntry) child.getValue()).getChildren().size();
+        }
+        assertEquals(1000, count);
+        assertEquals("file999", ((FileEntry) root.get("\\dir5\\file999")).getFileInfo().getFileName());
+    }
+
+    @Test
+    public void testBulkInsert() throws Exception {
+        String[] paths = {"\\a\\b\\c.txt", "\\a\\b\\d.txt", "a\\e.txt", "\\a\\b\\c.txt", "\\f.txt",
+                "\\a\\\\b\\g.txt", "\\a\\b", "\\a\\c\\h.txt"};
+        DirEntry expected = new DirEntry("\\", null);
+        DirEntry actual = new DirEntry("\\", null);
+        DirEntry.BulkInserter inserter = new DirEntry.BulkInserter(actual);
+        for (String p : paths) {
+            FileInfo info = new FileInfo();
+            info.setFullPath(p);
+            info.setFileName(p);
+            expected.insert(p, info);
+            assertSame(info, inserter.insert(p, info).getFileInfo());
+        }
+        assertTreeEquals(expected, actual);
+        //  "\a\b" replaced the directory, so "\a\b\c.txt" is now the child of a file
+        try {
+            inserter.insert("\\a\\b\\c.txt", new FileInfo());
+            fail();
+        } catch (IllegalArgumentException expectedException) {
+            //  Expected
+        }
+    }
+
+    private static void assertTreeEquals(DirEntry expected, DirEntry actual) {
+        assertEquals(expected.getChildren().keySet(), actual.getChildren().keySet());
+        for (Map.Entry<String, Entry> child : expected.getChildren().entrySet()) {
+            Entry other = actual.getChildren().get(child.getKey());
+            if (child.getValue() instanceof DirEntry) {
+                assertTreeEquals((DirEntry) child.getValue(), (DirEntry) other);
+            } else {
+                assertEquals(((FileEntry) child.getValue()).getFileInfo().getFullPath(),
+                        ((FileEntry) other).getFileInfo().getFullPath());
+            }
+        }
+    }
+
     @Test
     public void testCompareTo() throws Exception {
         DirEntry a = new DirEntry("a", null);
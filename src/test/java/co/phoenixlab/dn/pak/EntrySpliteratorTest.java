@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+
+public class EntrySpliteratorTest {
+
+    private final int[] ordinals = {4, 0, 9, 2, 7};
+
+    private static FileEntry entry(int ordinal) {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setFullPath("dir\\" + ordinal);
+        fileInfo.setFileName(String.valueOf(ordinal));
+        return new FileEntry(fileInfo.getFileName(), null, fileInfo);
+    }
+
+    @Test
+    public void testTryAdvance() throws Exception {
+        Spliterator<FileEntry> spliterator = new EntrySpliterator(ordinals, EntrySpliteratorTest::entry);
+        List<String> names = new ArrayList<>();
+        while (spliterator.tryAdvance(e -> names.add(e.name))) {
+            assertEquals(ordinals.length - names.size(), spliterator.estimateSize());
+        }
+        assertEquals(5, names.size());
+        assertEquals("4", names.get(0));
+        assertEquals("7", names.get(4));
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        Spliterator<FileEntry> suffix = new EntrySpliterator(ordinals, EntrySpliteratorTest::entry);
+        assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+        Spliterator<FileEntry> prefix = suffix.trySplit();
+        assertEquals(2, prefix.getExactSizeIfKnown());
+        assertEquals(3, suffix.getExactSizeIfKnown());
+        Spliterator<FileEntry> middle = suffix.trySplit();
+        assertEquals(1, middle.getExactSizeIfKnown());
+        assertEquals(2, suffix.getExactSizeIfKnown());
+        Spliterator<FileEntry> last = suffix.trySplit();
+        assertEquals(1, last.getExactSizeIfKnown());
+        assertEquals(1, suffix.getExactSizeIfKnown());
+        assertNull(suffix.trySplit());
+        List<String> names = new ArrayList<>();
+        prefix.forEachRemaining(e -> names.add(e.name));
+        middle.forEachRemaining(e -> names.add(e.name));
+        last.forEachRemaining(e -> names.add(e.name));
+        suffix.forEachRemaining(e -> names.add(e.name));
+        assertEquals("[4, 0, 9, 2, 7]", names.toString());
+        assertEquals(0, prefix.estimateSize());
+        assertFalse(prefix.tryAdvance(e -> fail()));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        int[] many = new int[10_000];
+        for (int i = 0; i < many.length; ++i) {
+            many[i] = many.length - i;
+        }
+        List<String> names = StreamSupport.stream(new EntrySpliterator(many, EntrySpliteratorTest::entry), true)
+                .map(e -> e.name)
+                .collect(Collectors.toList());
+        assertEquals(many.length, names.size());
+        assertEquals("10000", names.get(0));
+        assertEquals("1", names.get(many.length - 1));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FileTableCursorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ByteBuffer table;
+    private final String[] paths = {"\\resource\\a.dds", "\\b.lua", ""};
+
+    @Before
+    public void setUp() throws Exception {
+        table = ByteBuffer.allocate(paths.length * FileInfo.FILE_INFO_SIZE);
+        table.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < paths.length; ++i) {
+            byte[] nameBytes = new byte[256];
+            byte[] str = paths[i].getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(str, 0, nameBytes, 0, str.length);
+            table.put(nameBytes);
+            table.putInt(10 + i);
+            table.putInt(20 + i);
+            table.putInt(30 + i);
+            table.putInt(0xFFFFFFF0 + i);
+            table.putInt(i);
+            table.put(new byte[40]);
+        }
+        table.flip();
+    }
+
+    @Test
+    public void testNext() throws Exception {
+        FileTableCursor cursor = new FileTableCursor(table, paths.length);
+        for (int i = 0; i < paths.length; ++i) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getOrdinal());
+            assertEquals(10 + i, cursor.getDiskSize());
+            assertEquals(20 + i, cursor.getDecompressedSize());
+            assertEquals(30 + i, cursor.getCompressedSize());
+            assertEquals(0xFFFFFFF0L + i, cursor.getDiskOffset());
+            assertEquals(i, cursor.getUnknown());
+        }
+        assertFalse(cursor.next());
+        //  The cursor must not have touched the buffer
+        assertEquals(0, table.position());
+    }
+
+    @Test
+    public void testGetFullPath() throws Exception {
+        FileTableCursor cursor = new FileTableCursor(table, paths.length);
+        assertEquals("b.lua", cursor.moveTo(1).getFullPath());
+        assertEquals("resource\\a.dds", cursor.moveTo(0).getFullPath());
+        assertEquals("", cursor.moveTo(2).getFullPath());
+        assertEquals(0, cursor.getPathLength());
+    }
+
+    @Test
+    public void testMatchesFileInfoLoad() throws Exception {
+        FileTableCursor cursor = new FileTableCursor(table, paths.length);
+        ByteBuffer buffer = table.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        while (cursor.next()) {
+            FileInfo expected = new FileInfo().load(buffer);
+            FileInfo actual = new FileInfo().load(cursor);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.getFileName(), actual.getFileName());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testMoveToOutOfBounds() throws Exception {
+        new FileTableCursor(table, paths.length).moveTo(paths.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableTooSmall() throws Exception {
+        new FileTableCursor(table, paths.length + 1);
+    }
+
+    @Test
+    public void testReadWindows() throws Exception {
+        testWindowed(false);
+    }
+
+    @Test
+    public void testMappedWindows() throws Exception {
+        testWindowed(true);
+    }
+
+    private void testWindowed(boolean map) throws Exception {
+        try (FileChannel channel = writeTable(100)) {
+            //  Windows of 2 records, so the last window is partial
+            FileTableCursor cursor = new FileTableCursor(channel, 100, paths.length, 2, map);
+            FileTableCursor expected = new FileTableCursor(table, paths.length);
+            while (expected.next()) {
+                assertTrue(cursor.next());
+                assertEquals(expected.getOrdinal(), cursor.getOrdinal());
+                assertEquals(expected.getDiskOffset(), cursor.getDiskOffset());
+                assertEquals(expected.getUnknown(), cursor.getUnknown());
+                assertEquals(expected.getFullPath(), cursor.getFullPath());
+            }
+            assertFalse(cursor.next());
+            assertEquals("b.lua", cursor.moveTo(1).getFullPath());
+            assertEquals(31, cursor.getCompressedSize());
+            assertEquals("", cursor.moveTo(2).getFullPath());
+            assertEquals("resource\\a.dds", cursor.moveTo(0).getFullPath());
+            assertEquals(10, cursor.getDiskSize());
+        }
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            FileTableCursor cursor = FileTableCursor.open(channel, header(paths.length), true);
+            assertEquals(paths.length, cursor.getNumRecords());
+            assertTrue(cursor.next());
+            assertEquals("resource\\a.dds", cursor.getFullPath());
+        }
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testOpenTruncated() throws Exception {
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            FileTableCursor.open(channel, header(paths.length + 1), false);
+        }
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testOpenTooManyRecords() throws Exception {
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            FileTableCursor.open(channel, header(0xFFFFFFFFL), true);
+        }
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testOpenTooManyRecordsToIndex() throws Exception {
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            FileTableCursor.open(channel, header(PakIndex.MAX_SIZE + 1L), true);
+        }
+    }
+
+    @Test
+    public void testForEachChunk() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            String[] seen = new String[paths.length];
+            int[] chunks = new int[paths.length];
+            //  Chunks of 2 records, so the last chunk is partial
+            int numChunks = FileTableCursor.forEachChunk(channel, header(paths.length), 2, pool,
+                    (chunk, first, cursor) -> {
+                        assertEquals(chunk * 2, first);
+                        while (cursor.next()) {
+                            seen[first + cursor.getOrdinal()] = cursor.getFullPath();
+                            chunks[first + cursor.getOrdinal()] = chunk;
+                        }
+                    });
+            assertEquals(2, numChunks);
+            assertArrayEquals(new String[]{"resource\\a.dds", "b.lua", ""}, seen);
+            assertArrayEquals(new int[]{0, 0, 1}, chunks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testForEachChunkTruncated() throws Exception {
+        try (FileChannel channel = writeTable(PakHeader.HEADER_SIZE)) {
+            FileTableCursor.forEachChunk(channel, header(paths.length + 1), 2, ForkJoinPool.commonPool(),
+                    (chunk, first, cursor) -> fail());
+        }
+    }
+
+    private static PakHeader header(long numFiles) {
+        PakHeader header = new PakHeader();
+        header.numFiles = numFiles;
+        header.fileTableOffset = PakHeader.HEADER_SIZE;
+        return header;
+    }
+
+    private FileChannel writeTable(long offset) throws Exception {
+        Path path = folder.newFile().toPath();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.write(table.duplicate(), offset);
+        return channel;
+    }
+}
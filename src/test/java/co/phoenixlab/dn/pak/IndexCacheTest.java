@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class IndexCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] paths = {"\\resource\\ui\\a.dds", "\\resource\\table.dnt", "\\resource\\ui\\a.dds"};
+    private byte[][] contents;
+    private Path pak;
+
+    @Before
+    public void setUp() throws Exception {
+        contents = new byte[][]{TestPaks.content(100, 0), TestPaks.content(3000, 1), TestPaks.content(500, 2)};
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setIndexCache(cache);
+        reader.load(pak).close();
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(Files.exists(cache.getSidecarPath(pak)));
+        try (PakFile pakFile = reader.load(pak)) {
+            assertEquals(1, cache.getHits());
+            assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+            assertArrayEquals(contents[2], pakFile.readAllBytes("resource\\ui\\a.dds"));
+            assertEquals(2, pakFile.getEntryMap().size());
+            assertEquals(3, pakFile.getIndex().size());
+        }
+    }
+
+    @Test
+    public void testInvalidatedOnChange() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        reader.setIndexCache(cache);
+        reader.load(pak).close();
+        Files.setLastModifiedTime(pak, FileTime.fromMillis(Files.getLastModifiedTime(pak).toMillis() - 10000));
+        reader.load(pak).close();
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        TestPaks.write(pak, new String[]{"\\other.txt"}, new byte[][]{contents[0]});
+        try (PakFile pakFile = reader.load(pak)) {
+            assertEquals(3, cache.getMisses());
+            assertArrayEquals(contents[0], pakFile.readAllBytes("other.txt"));
+            assertNull(pakFile.getFileInfo("resource\\table.dnt"));
+        }
+    }
+
+    @Test
+    public void testStampedWithParsedVersion() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        reader.setIndexCache(cache);
+        try (PakFile pakFile = reader.load(pak)) {
+            //  The pak changes after its index was built but before the sidecar is rewritten with names
+            Files.setLastModifiedTime(pak, FileTime.fromMillis(Files.getLastModifiedTime(pak).toMillis() - 10000));
+            pakFile.getNameIndex();
+        }
+        reader.load(pak).close();
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testDamagedSidecar() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setIndexCache(cache);
+        reader.load(pak).close();
+        Path sidecar = cache.getSidecarPath(pak);
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        try (PakFile pakFile = reader.load(pak)) {
+            assertEquals(2, cache.getMisses());
+            assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+        }
+        reader.load(pak).close();
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testCacheDirectory() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        IndexCache cache = new IndexCache(directory);
+        PakFileReader reader = new PakFileReader();
+        reader.setIndexCache(cache);
+        reader.load(pak).close();
+        assertTrue(cache.getSidecarPath(pak).startsWith(directory));
+        assertTrue(Files.exists(cache.getSidecarPath(pak)));
+        assertFalse(Files.exists(new IndexCache().getSidecarPath(pak)));
+        reader.load(pak).close();
+        assertEquals(1, cache.getHits());
+        cache.invalidate(pak);
+        assertFalse(Files.exists(cache.getSidecarPath(pak)));
+    }
+}
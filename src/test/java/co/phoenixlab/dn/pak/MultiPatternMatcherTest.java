@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultiPatternMatcherTest {
+
+    private static byte[][] bytes(String... strings) {
+        byte[][] result = new byte[strings.length][];
+        for (int i = 0; i < strings.length; ++i) {
+            result[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    /**
+     * @return "end:pattern" for every match, in the order reported
+     */
+    private static List<String> scan(MultiPatternMatcher matcher, byte[] text) {
+        List<String> found = new ArrayList<>();
+        int state = MultiPatternMatcher.START;
+        for (int i = 0; i < text.length; ++i) {
+            state = matcher.step(state, text[i]);
+            int[] matches = matcher.matches(state);
+            if (matches != null) {
+                for (int pattern : matches) {
+                    found.add((i + 1) + ":" + pattern);
+                }
+            }
+        }
+        found.sort(null);
+        return found;
+    }
+
+    private static List<String> bruteForce(byte[][] patterns, byte[] text, boolean ignoreCase) {
+        List<String> found = new ArrayList<>();
+        for (int end = 1; end <= text.length; ++end) {
+            outer:
+            for (int p = 0; p < patterns.length; ++p) {
+                int start = end - patterns[p].length;
+                if (start < 0) {
+                    continue;
+                }
+                for (int i = 0; i < patterns[p].length; ++i) {
+                    int a = text[start + i];
+                    int b = patterns[p][i];
+                    if (ignoreCase) {
+                        a = Character.toLowerCase(a);
+                        b = Character.toLowerCase(b);
+                    }
+                    if (a != b) {
+                        continue outer;
+                    }
+                }
+                found.add(end + ":" + p);
+            }
+        }
+        found.sort(null);
+        return found;
+    }
+
+    @Test
+    public void testOverlapping() {
+        byte[][] patterns = bytes("he", "she", "his", "hers");
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns, false);
+        byte[] text = "ushers and his hershe".getBytes(StandardCharsets.UTF_8);
+        assertEquals(bruteForce(patterns, text, false), scan(matcher, text));
+        assertEquals(4, matcher.maxLength());
+        assertEquals(3, matcher.length(1));
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        byte[][] patterns = bytes("SkillTable", "uistring", "x");
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns, true);
+        byte[] text = "skilltable UIString SKILLTABLE X skillTablE".getBytes(StandardCharsets.UTF_8);
+        assertEquals(bruteForce(patterns, text, true), scan(matcher, text));
+        assertEquals(5, scan(matcher, text).size());
+        assertTrue(scan(new MultiPatternMatcher(patterns, false), text).isEmpty());
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(0);
+        for (int round = 0; round < 50; ++round) {
+            byte[][] patterns = new byte[1 + random.nextInt(6)][];
+            for (int i = 0; i < patterns.length; ++i) {
+                patterns[i] = new byte[1 + random.nextInt(5)];
+                for (int j = 0; j < patterns[i].length; ++j) {
+                    patterns[i][j] = (byte) (random.nextInt(3) - 1);
+                }
+            }
+            byte[] text = new byte[500];
+            for (int i = 0; i < text.length; ++i) {
+                text[i] = (byte) (random.nextInt(3) - 1);
+            }
+            assertEquals(bruteForce(patterns, text, false), scan(new MultiPatternMatcher(patterns, false), text));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPattern() {
+        new MultiPatternMatcher(bytes("a", ""), false);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class NameIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path pak;
+
+    @Before
+    public void setUp() throws Exception {
+        List<String> paths = new ArrayList<>();
+        String[] dirs = {"\\resource\\ui\\skill", "\\resource\\char\\monster", "\\mapdata\\grid", "\\資料\\界面"};
+        String[] exts = {".dds", ".act", ".skn", ".dnt"};
+        for (int i = 0; i < 400; ++i) {
+            paths.add(dirs[i % dirs.length] + "\\file_" + i + "_skill" + exts[(i / 7) % exts.length]);
+        }
+        paths.add("\\resource\\ui\\skill\\file_3_skill.act");
+        paths.add("\\ab");
+        paths.add("\\mapdata\\sound\\a\uD834\uDD1Eb.ogg");
+        paths.add("\\resource\\skillskillskill.dds");
+        byte[][] contents = new byte[paths.size()][];
+        for (int i = 0; i < contents.length; ++i) {
+            contents[i] = TestPaks.content(10, i);
+        }
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths.toArray(new String[0]), contents);
+    }
+
+    private static int[] bruteForce(PakIndex index, Predicate<String> predicate, boolean nameOnly) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < index.size(); ++i) {
+            String path = index.getPath(i);
+            if (index.isLive(i) && predicate.test(nameOnly ? FileInfo.fileNameOf(path) : path)) {
+                result.add(i);
+            }
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void assertQueries(NameIndex nameIndex) {
+        PakIndex index = nameIndex.getIndex();
+        String[] strings = {"skill", "file_3", "file_3_", "_1", "s", "", "\\file", "ui\\skill\\file_12", "界面",
+                "料\\界", "skillskill", "nothing", ".dds", "ab"};
+        for (String string : strings) {
+            for (boolean nameOnly : new boolean[]{false, true}) {
+                assertArrayEquals(string, bruteForce(index, s -> s.contains(string), nameOnly),
+                        nameIndex.findContaining(string, nameOnly));
+            }
+        }
+        String[] regexes = {"skill.*\\.dds", "file_1\\d+_", "^resource\\\\ui", ".*monster", "skil?l", "(?i)SKILL",
+                "file_3|界", "\\.dnt$", "file_[0-9]+_skill\\.act", "sound\\\\a\uD834\uDD1E?b", "a\uD834\uDD1E+b"};
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        patterns.add(Pattern.compile("SKILL.DDS", Pattern.LITERAL | Pattern.CASE_INSENSITIVE));
+        patterns.add(Pattern.compile("_SKILL.", Pattern.LITERAL));
+        for (Pattern pattern : patterns) {
+            for (boolean nameOnly : new boolean[]{false, true}) {
+                assertArrayEquals(pattern.pattern(), bruteForce(index, pattern.asPredicate(), nameOnly),
+                        nameIndex.findMatching(pattern, nameOnly));
+            }
+        }
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            NameIndex nameIndex = pakFile.getNameIndex();
+            assertSame(nameIndex, pakFile.getNameIndex());
+            assertQueries(nameIndex);
+            //  The overridden entry is not returned
+            int[] found = nameIndex.findContaining("file_3_skill.act", true);
+            assertEquals(1, found.length);
+            assertEquals(pakFile.getIndex().ordinalOf("resource\\ui\\skill\\file_3_skill.act"), found[0]);
+            assertTrue(nameIndex.candidates("file_12_".getBytes("UTF-8")).length < 10);
+        }
+    }
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("skill", NameIndex.literalPrefix(Pattern.compile("skill.*\\.dds")));
+        assertEquals("resource\\ui", NameIndex.literalPrefix(Pattern.compile("^resource\\\\ui")));
+        assertEquals("a.b", NameIndex.literalPrefix(Pattern.compile("a\\.b\\d")));
+        assertEquals("ski", NameIndex.literalPrefix(Pattern.compile("skil?l")));
+        assertEquals("skil", NameIndex.literalPrefix(Pattern.compile("skil+")));
+        assertEquals("ab", NameIndex.literalPrefix(Pattern.compile("abc{0,2}")));
+        assertEquals("sound\\a", NameIndex.literalPrefix(Pattern.compile("sound\\\\a\uD834\uDD1E?b")));
+        assertEquals("", NameIndex.literalPrefix(Pattern.compile("(?i)skill")));
+        assertEquals("", NameIndex.literalPrefix(Pattern.compile("skill", Pattern.CASE_INSENSITIVE)));
+        assertEquals("", NameIndex.literalPrefix(Pattern.compile("skill|act")));
+        assertEquals("a.*b", NameIndex.literalPrefix(Pattern.compile("a.*b", Pattern.LITERAL)));
+        assertEquals("", NameIndex.literalPrefix(Pattern.compile("SKILL", Pattern.LITERAL | Pattern.CASE_INSENSITIVE)));
+        assertEquals("a b", NameIndex.literalPrefix(Pattern.compile("a b", Pattern.LITERAL | Pattern.COMMENTS)));
+    }
+
+    @Test
+    public void testPersisted() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        reader.setIndexCache(cache);
+        reader.load(pak).close();
+        //  A sidecar without names is rewritten once names are wanted
+        cache.setIncludeNames(true);
+        reader.load(pak).close();
+        assertEquals(1, cache.getHits());
+        try (PakFile pakFile = reader.load(pak)) {
+            assertEquals(2, cache.getHits());
+            assertQueries(pakFile.getNameIndex());
+        }
+        //  Readers that don't want names can still use the sidecar
+        cache.setIncludeNames(false);
+        reader.load(pak).close();
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void testPersistedOnDemand() throws Exception {
+        IndexCache cache = new IndexCache();
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        reader.setIndexCache(cache);
+        try (PakFile pakFile = reader.load(pak)) {
+            BasicFileAttributes attributes = Files.readAttributes(pak, BasicFileAttributes.class);
+            //  Names are not built just by loading
+            assertNull(cache.load(pak, attributes, pakFile.getHeader()).nameIndex);
+            pakFile.getNameIndex();
+            assertNotNull(cache.load(pak, attributes, pakFile.getHeader()).nameIndex);
+        }
+        try (PakFile pakFile = reader.load(pak)) {
+            assertQueries(pakFile.getNameIndex());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PakCompactorTest {
+
+    private static final int NUM_FILES = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path pak;
+    private Map<String, byte[]> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        String[] paths = new String[NUM_FILES + 3];
+        byte[][] contents = new byte[paths.length][];
+        for (int i = 0; i < NUM_FILES; ++i) {
+            paths[i] = "\\resource\\dir" + (i % 3) + "\\file" + i + ".bin";
+            contents[i] = TestPaks.content(100 + (i * 4099) % 20000, i);
+        }
+        //  Overridden entries leave dead data behind
+        for (int i = 0; i < 3; ++i) {
+            paths[NUM_FILES + i] = paths[i * 5];
+            contents[NUM_FILES + i] = TestPaks.content(3000, 100 + i);
+        }
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents);
+        //  Deleted and replaced subfiles leave holes
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.delete("resource\\dir1\\file1.bin");
+            updater.delete("resource\\dir2\\file17.bin");
+            updater.put("resource\\dir0\\file3.bin", TestPaks.content(50, 7));
+            updater.put("resource\\dir0\\new.bin", TestPaks.content(30000, 8));
+            updater.commit();
+        }
+        expected = readAll(pak);
+    }
+
+    private static Map<String, byte[]> readAll(Path pak) throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            for (Map.Entry<String, FileEntry> entry : pakFile.getEntryMap().entrySet()) {
+                contents.put(entry.getKey(), pakFile.readAllBytes(entry.getValue().getFileInfo()));
+            }
+        }
+        return contents;
+    }
+
+    private void assertCompacted(Path path) throws IOException {
+        Map<String, byte[]> actual = readAll(path);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+        try (PakFile pakFile = new PakFileReader().load(path)) {
+            PakIndex index = pakFile.getIndex();
+            assertEquals(index.size(), index.getNumPaths());
+            List<long[]> segments = new ArrayList<>();
+            for (int i = 0; i < index.size(); ++i) {
+                segments.add(new long[]{index.getDiskOffset(i), index.getDiskSize(i)});
+            }
+            segments.sort((a, b) -> Long.compare(a[0], b[0]));
+            long end = PakHeader.HEADER_SIZE;
+            for (long[] segment : segments) {
+                assertEquals(end, segment[0]);
+                end += segment[1];
+            }
+            assertTrue(pakFile.getHeader().getFileTableOffset() - end < 4);
+            assertEquals(pakFile.getHeader().getFileTableOffset() + index.size() * FileInfo.FILE_INFO_SIZE,
+                    Files.size(path));
+        }
+    }
+
+    @Test
+    public void testCompactTo() throws Exception {
+        Path dest = folder.getRoot().toPath().resolve("compacted.pak");
+        long size = new PakCompactor(pak).compactTo(dest);
+        assertEquals(Files.size(dest), size);
+        assertTrue(size < Files.size(pak));
+        assertCompacted(dest);
+    }
+
+    @Test
+    public void testCompactInPlace() throws Exception {
+        long before = Files.size(pak);
+        Path copy = folder.getRoot().toPath().resolve("compacted.pak");
+        new PakCompactor(pak).compactTo(copy);
+        long saved = new PakCompactor(pak).compactInPlace();
+        assertEquals(before - Files.size(pak), saved);
+        assertTrue(saved > 0);
+        assertCompacted(pak);
+        //  Compacting again changes nothing
+        assertEquals(0, new PakCompactor(pak).compactInPlace());
+        assertCompacted(pak);
+    }
+
+    @Test
+    public void testCompactInPlaceStaging() throws Exception {
+        PakCompactor compactor = new PakCompactor(pak);
+        compactor.setMaxStagingBytes(1);
+        compactor.compactInPlace();
+        assertCompacted(pak);
+    }
+
+    @Test
+    public void testSharedData() throws Exception {
+        //  Point file5 at file4's data
+        long tableOffset;
+        int from;
+        int to;
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            tableOffset = pakFile.getHeader().getFileTableOffset();
+            from = pakFile.getIndex().ordinalOf("resource\\dir1\\file4.bin");
+            to = pakFile.getIndex().ordinalOf("resource\\dir2\\file5.bin");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(pak.toFile(), "rw")) {
+            byte[] record = new byte[FileInfo.FILE_INFO_SIZE - FileInfo.DISK_SIZE_OFFSET];
+            raf.seek(tableOffset + from * FileInfo.FILE_INFO_SIZE + FileInfo.DISK_SIZE_OFFSET);
+            raf.readFully(record);
+            raf.seek(tableOffset + to * FileInfo.FILE_INFO_SIZE + FileInfo.DISK_SIZE_OFFSET);
+            raf.write(record);
+        }
+        expected = readAll(pak);
+        assertArrayEquals(expected.get("resource\\dir1\\file4.bin"), expected.get("resource\\dir2\\file5.bin"));
+        new PakCompactor(pak).compactInPlace();
+        Map<String, byte[]> actual = readAll(pak);
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(pakFile.getFileInfo("resource\\dir1\\file4.bin").getDiskOffset(),
+                    pakFile.getFileInfo("resource\\dir2\\file5.bin").getDiskOffset());
+        }
+    }
+
+    @Test
+    public void testCrashSafety() throws Exception {
+        Path original = folder.getRoot().toPath().resolve("original.pak");
+        Files.copy(pak, original);
+        for (long maxStaging : new long[]{PakCompactor.DEFAULT_MAX_STAGING_BYTES, 1}) {
+            for (int crashAfter = 0; ; ++crashAfter) {
+                Files.copy(original, pak, StandardCopyOption.REPLACE_EXISTING);
+                PakCompactor compactor = new PakCompactor(pak);
+                compactor.setMaxStagingBytes(maxStaging);
+                compactor.crashAfterSyncs = crashAfter;
+                try {
+                    compactor.compactInPlace();
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().startsWith("Simulated crash"));
+                    Map<String, byte[]> actual = readAll(pak);
+                    assertEquals(expected.keySet(), actual.keySet());
+                    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                        assertArrayEquals("crashAfter=" + crashAfter + " " + entry.getKey(), entry.getValue(),
+                                actual.get(entry.getKey()));
+                    }
+                    //  Resuming finishes the job
+                    new PakCompactor(pak).compactInPlace();
+                    assertCompacted(pak);
+                    continue;
+                }
+                assertCompacted(pak);
+                assertTrue(crashAfter > 2);
+                break;
+            }
+        }
+    }
+}
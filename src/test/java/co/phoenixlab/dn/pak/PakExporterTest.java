@@ -0,0 +1,248 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class PakExporterTest {
+
+    private static final int NUM_FILES = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path pak;
+    private Map<String, byte[]> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        List<String> paths = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < NUM_FILES; ++i) {
+            paths.add("\\resource\\dir" + (i % 4) + "\\file" + i + ".bin");
+            contents.add(TestPaks.content(1 + (i * 7919) % 150000, i));
+        }
+        //  Overridden, empty, non-ASCII and long paths
+        paths.add("\\resource\\dir0\\file0.bin");
+        contents.add(TestPaks.content(500, 99));
+        paths.add("\\resource\\empty.bin");
+        contents.add(new byte[0]);
+        paths.add("\\resource\\übersicht\\テ\\file.txt");
+        contents.add("text".getBytes(StandardCharsets.UTF_8));
+        StringBuilder longPath = new StringBuilder("\\resource");
+        while (longPath.length() < 200) {
+            longPath.append("\\directory");
+        }
+        paths.add(longPath.append("\\file.bin").toString());
+        contents.add(TestPaks.content(2000, 98));
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths.toArray(new String[paths.size()]),
+                contents.toArray(new byte[contents.size()][]));
+        expected = new HashMap<>();
+        for (int i = 0; i < paths.size(); ++i) {
+            expected.put(paths.get(i).substring(1).replace('\\', '/'), contents.get(i));
+        }
+    }
+
+    @Test
+    public void testExportZip() throws Exception {
+        assertContents(readZip(export(1, "test.zip")));
+    }
+
+    @Test
+    public void testExportZipParallel() throws Exception {
+        assertContents(readZip(export(3, "test.zip")));
+    }
+
+    @Test
+    public void testExportZipFilter() throws Exception {
+        Path dest = folder.getRoot().toPath().resolve("filtered.zip");
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            PakExporter exporter = new PakExporter(pakFile);
+            exporter.setFilter(path -> path.startsWith("resource\\dir1\\"));
+            assertEquals(NUM_FILES / 4, exporter.exportZip(dest));
+        }
+        Map<String, byte[]> actual = readZip(dest);
+        assertEquals(NUM_FILES / 4, actual.size());
+        for (Map.Entry<String, byte[]> entry : actual.entrySet()) {
+            assertTrue(entry.getKey().startsWith("resource/dir1/"));
+            assertArrayEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testExportZipDeflated() throws Exception {
+        try (ZipFile zipFile = new ZipFile(export(1, "test.zip").toFile())) {
+            ZipEntry entry = zipFile.getEntry("resource/dir1/file1.bin");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            try (PakFile pakFile = new PakFileReader().load(pak)) {
+                FileInfo fileInfo = pakFile.getEntryMap().get("resource\\dir1\\file1.bin").getFileInfo();
+                //  The deflate data is the zlib stream without its 2 byte header and 4 byte trailer
+                assertTrue(entry.getCompressedSize() <= fileInfo.getCompressedSize() - 6);
+            }
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("resource/empty.bin").getMethod());
+        }
+    }
+
+    @Test
+    public void testExportZip64() throws Exception {
+        int count = 0x10000 + 10;
+        String[] paths = new String[count];
+        byte[][] contents = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            paths[i] = "\\f" + i;
+            contents[i] = new byte[]{(byte) i};
+        }
+        Path bigPak = TestPaks.write(folder.newFile("big.pak").toPath(), paths, contents);
+        Path dest = folder.getRoot().toPath().resolve("big.zip");
+        try (PakFile pakFile = new PakFileReader().load(bigPak)) {
+            assertEquals(count, new PakExporter(pakFile).exportZip(dest));
+        }
+        try (ZipFile zipFile = new ZipFile(dest.toFile())) {
+            assertEquals(count, zipFile.size());
+            byte[] last = readAll(zipFile.getInputStream(zipFile.getEntry("f" + (count - 1))));
+            assertArrayEquals(new byte[]{(byte) (count - 1)}, last);
+        }
+    }
+
+    @Test
+    public void testExportTar() throws Exception {
+        assertContents(readTar(export(1, "test.tar")));
+    }
+
+    @Test
+    public void testTarHeaderChecksum() {
+        byte[] header = PakExporter.tarHeader("a/b".getBytes(StandardCharsets.US_ASCII), 1234, 0, '0');
+        assertEquals(PakExporter.TAR_BLOCK, header.length);
+        int sum = 0;
+        for (int i = 0; i < header.length; ++i) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        assertEquals(sum, octal(header, 148, 8));
+        assertEquals(1234, octal(header, 124, 12));
+    }
+
+    @Test
+    public void testIsPlainZlib() {
+        assertTrue(PakExporter.isPlainZlib(new byte[]{0x78, (byte) 0x9C}, 2));
+        assertTrue(PakExporter.isPlainZlib(new byte[]{0x78, 0x01}, 2));
+        //  Preset dictionary
+        assertFalse(PakExporter.isPlainZlib(new byte[]{0x78, (byte) 0xBB}, 2));
+        //  Bad check bits
+        assertFalse(PakExporter.isPlainZlib(new byte[]{0x78, (byte) 0x9D}, 2));
+        assertFalse(PakExporter.isPlainZlib(new byte[]{0x78}, 1));
+    }
+
+    private void assertContents(Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private Path export(int threads, String name) throws IOException {
+        Path dest = folder.getRoot().toPath().resolve(name);
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            PakExporter exporter = new PakExporter(pakFile);
+            exporter.setThreads(threads);
+            int exported = name.endsWith(".tar") ? exporter.exportTar(dest) : exporter.exportZip(dest);
+            assertEquals(expected.size(), exported);
+        }
+        return dest;
+    }
+
+    private static Map<String, byte[]> readZip(Path path) throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
+        try (ZipFile zipFile = new ZipFile(path.toFile(), StandardCharsets.UTF_8)) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                assertNull(entry.getName(), contents.put(entry.getName(),
+                        readAll(zipFile.getInputStream(entry))));
+            }
+        }
+        return contents;
+    }
+
+    private static Map<String, byte[]> readTar(Path path) throws IOException {
+        byte[] tar = Files.readAllBytes(path);
+        assertEquals(0, tar.length % PakExporter.TAR_BLOCK);
+        Map<String, byte[]> contents = new HashMap<>();
+        int pos = 0;
+        String longName = null;
+        while (tar[pos] != 0) {
+            int size = (int) octal(tar, pos + 124, 12);
+            byte type = tar[pos + 156];
+            int dataStart = pos + PakExporter.TAR_BLOCK;
+            if (type == 'L') {
+                longName = new String(tar, dataStart, size - 1, StandardCharsets.UTF_8);
+            } else {
+                assertEquals('0', type);
+                String name = longName;
+                if (name == null) {
+                    int len = 0;
+                    while (len < 100 && tar[pos + len] != 0) {
+                        ++len;
+                    }
+                    name = new String(tar, pos, len, StandardCharsets.UTF_8);
+                }
+                longName = null;
+                contents.put(name, Arrays.copyOfRange(tar, dataStart, dataStart + size));
+            }
+            pos = dataStart + (size + PakExporter.TAR_BLOCK - 1) / PakExporter.TAR_BLOCK * PakExporter.TAR_BLOCK;
+        }
+        //  Two zero blocks end the archive
+        assertEquals(tar.length, pos + 2 * PakExporter.TAR_BLOCK);
+        return contents;
+    }
+
+    private static long octal(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length && data[i] >= '0' && data[i] <= '7'; ++i) {
+            value = value * 8 + data[i] - '0';
+        }
+        return value;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class PakFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path[] paks;
+    private PakFileCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        paks = new Path[3];
+        for (int i = 0; i < paks.length; ++i) {
+            paks[i] = TestPaks.write(folder.newFile("test" + i + ".pak").toPath(),
+                    new String[]{"\\file.txt"}, new byte[][]{TestPaks.content(100, i)});
+        }
+        cache = new PakFileCache(new PakFileReader(), 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    private static boolean isOpen(PakFile pakFile) {
+        try {
+            pakFile.readAllBytes("file.txt");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        PakFile pakFile;
+        try (PakFileCache.Handle handle = cache.open(paks[0])) {
+            pakFile = handle.get();
+        }
+        try (PakFileCache.Handle handle = cache.open(paks[0].getParent().resolve(".").resolve("test0.pak"))) {
+            assertSame(pakFile, handle.get());
+            assertArrayEquals(TestPaks.content(100, 0), handle.get().readAllBytes("file.txt"));
+        }
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testChanged() throws Exception {
+        PakFile pakFile;
+        try (PakFileCache.Handle handle = cache.open(paks[0])) {
+            pakFile = handle.get();
+        }
+        FileTime modified = Files.getLastModifiedTime(paks[0]);
+        TestPaks.write(paks[0], new String[]{"\\file.txt"}, new byte[][]{TestPaks.content(100, 5)});
+        Files.setLastModifiedTime(paks[0], FileTime.fromMillis(modified.toMillis() + 2000));
+        try (PakFileCache.Handle handle = cache.open(paks[0])) {
+            assertNotSame(pakFile, handle.get());
+            assertArrayEquals(TestPaks.content(100, 5), handle.get().readAllBytes("file.txt"));
+        }
+        assertFalse(isOpen(pakFile));
+        assertEquals(2, cache.getMisses());
+        Files.delete(paks[0]);
+        try {
+            cache.open(paks[0]);
+            fail();
+        } catch (FileNotFoundException expected) {
+        }
+        assertTrue(cache.getPakFiles().isEmpty());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        PakFileCache.Handle first = cache.open(paks[0]);
+        cache.open(paks[1]).close();
+        cache.open(paks[2]).close();
+        //  Evicted as least recently used, but still in use
+        assertEquals(2, cache.getPakFiles().size());
+        assertTrue(isOpen(first.get()));
+        first.close();
+        assertFalse(isOpen(first.get()));
+        try (PakFileCache.Handle handle = cache.open(paks[2])) {
+            assertTrue(cache.evict(paks[2]));
+            assertTrue(isOpen(handle.get()));
+        }
+        assertFalse(cache.evict(paks[2]));
+        PakFile remaining = cache.getPakFiles().get(0);
+        cache.setCapacity(0);
+        assertFalse(isOpen(remaining));
+        assertTrue(cache.getPakFiles().isEmpty());
+    }
+
+    @Test
+    public void testNoCapacity() throws Exception {
+        cache.setCapacity(0);
+        PakFile pakFile;
+        try (PakFileCache.Handle handle = cache.open(paks[0])) {
+            pakFile = handle.get();
+            assertTrue(isOpen(pakFile));
+            assertTrue(cache.getPakFiles().isEmpty());
+        }
+        assertFalse(isOpen(pakFile));
+        try (PakFileCache.Handle handle = cache.open(paks[0])) {
+            assertNotSame(pakFile, handle.get());
+        }
+    }
+}
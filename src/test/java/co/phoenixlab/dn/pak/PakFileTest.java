@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class PakFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] paths = {"\\resource\\ui\\a.dds", "\\resource\\table.dnt", "\\empty.txt",
+            "\\resource\\ui\\a.dds"};
+    private byte[][] contents;
+    private Path pak;
+
+    @Before
+    public void setUp() throws Exception {
+        contents = new byte[][]{TestPaks.content(100, 0), TestPaks.content(300000, 1), new byte[0],
+                TestPaks.content(5000, 3)};
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents);
+    }
+
+    @Test
+    public void testReadAllBytes() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertArrayEquals(contents[1], pakFile.readAllBytes("\\resource\\table.dnt"));
+            assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+            assertArrayEquals(contents[2], pakFile.readAllBytes("empty.txt"));
+            //  Later entries override earlier ones
+            assertArrayEquals(contents[3], pakFile.readAllBytes("resource\\ui\\a.dds"));
+        }
+    }
+
+    @Test
+    public void testReadAllBytesCompact() throws Exception {
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        try (PakFile pakFile = reader.load(pak)) {
+            assertArrayEquals(contents[1], pakFile.readAllBytes("\\resource\\table.dnt"));
+            assertArrayEquals(contents[3], pakFile.readAllBytes("resource\\ui\\a.dds"));
+            assertEquals(3, pakFile.getNumFiles());
+            assertEquals(3, pakFile.getEntryMap().size());
+        }
+    }
+
+    @Test
+    public void testOpenInputStream() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak);
+             InputStream in = pakFile.openInputStream("resource\\table.dnt")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[777];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            assertArrayEquals(contents[1], out.toByteArray());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testOpenInputStreamPresetDictionary() throws Exception {
+        byte[] dictionary = TestPaks.content(64, 7);
+        Deflater deflater = new Deflater();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(TestPaks.content(500, 7));
+        deflater.finish();
+        byte[] compressed = new byte[1024];
+        int len = deflater.deflate(compressed);
+        deflater.end();
+        Path data = Files.write(folder.newFile().toPath(), Arrays.copyOf(compressed, len));
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setCompressedSize(len);
+        fileInfo.setDiskSize(len);
+        CodecPool pool = CodecPool.getDefault();
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ);
+             InputStream in = new SubfileInputStream(channel, fileInfo, pool.borrowInflater(), pool.borrowBuffer())) {
+            //  Must not look like an empty subfile
+            in.read(new byte[100]);
+        }
+    }
+
+    @Test
+    public void testReadHeapBuffer() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            ByteBuffer buffer = ByteBuffer.allocate(contents[1].length + 10);
+            buffer.position(5);
+            assertEquals(contents[1].length, pakFile.read("resource\\table.dnt", buffer));
+            assertEquals(5 + contents[1].length, buffer.position());
+            byte[] actual = new byte[contents[1].length];
+            buffer.position(5);
+            buffer.get(actual);
+            assertArrayEquals(contents[1], actual);
+        }
+    }
+
+    @Test
+    public void testReadDirectBuffer() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(contents[1].length);
+            assertEquals(contents[1].length, pakFile.read("resource\\table.dnt", buffer));
+            assertFalse(buffer.hasRemaining());
+            buffer.flip();
+            byte[] actual = new byte[contents[1].length];
+            buffer.get(actual);
+            assertArrayEquals(contents[1], actual);
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testReadOverflow() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            pakFile.read("resource\\table.dnt", ByteBuffer.allocate(10));
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testReadMissing() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            pakFile.readAllBytes("resource\\potato.dds");
+        }
+    }
+
+    @Test
+    public void testGetFileInfo() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertNull(pakFile.getFileInfo("resource\\potato.dds"));
+            assertEquals(contents[1].length, pakFile.getFileInfo("\\resource\\table.dnt").getDecompressedSize());
+        }
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            //  Streams the same FileEntries as the entry map
+            List<FileEntry> entries = pakFile.entries().collect(Collectors.toList());
+            assertEquals(3, entries.size());
+            for (FileEntry entry : entries) {
+                assertSame(pakFile.getEntryMap().get(entry.getFileInfo().getFullPath()), entry);
+            }
+            assertEquals(contents[3].length, entries.get(2).getFileInfo().getDecompressedSize());
+        }
+    }
+
+    @Test
+    public void testEntriesCompact() throws Exception {
+        PakFileReader reader = new PakFileReader();
+        reader.setCompact(true);
+        try (PakFile pakFile = reader.load(pak)) {
+            assertEquals(Arrays.asList("resource\\table.dnt", "empty.txt", "resource\\ui\\a.dds"),
+                    pakFile.entries(true).map(e -> e.getFileInfo().getFullPath()).collect(Collectors.toList()));
+            assertEquals(3, pakFile.entries().spliterator().getExactSizeIfKnown());
+            long total = contents[1].length + contents[2].length + contents[3].length;
+            assertEquals(total, pakFile.entries().parallel().mapToLong(e -> e.getFileInfo().getDecompressedSize())
+                    .sum());
+        }
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        PakFileReader reader = new PakFileReader();
+        reader.setLazy(true);
+        try (PakFile pakFile = reader.load(pak)) {
+            assertTrue(pakFile.isLazy());
+            assertArrayEquals(contents[3], pakFile.readAllBytes("resource\\ui\\a.dds"));
+            assertEquals(3, pakFile.getNumFiles());
+            FileEntry entry = (FileEntry) pakFile.getRoot().get("resource\\table.dnt");
+            assertEquals(contents[1].length, entry.getFileInfo().getDecompressedSize());
+            //  The map and the tree share their entries
+            assertSame(entry, pakFile.getEntryMap().get("resource\\table.dnt"));
+            assertEquals(3, pakFile.getEntryMap().size());
+        }
+    }
+
+    @Test
+    public void testLazyTree() throws Exception {
+        String[] treePaths = {"\\a\\b\\c.txt", "\\a\\d.txt", "\\a\\b\\e.txt", "\\f.txt", "\\a\\d.txt",
+                "\\g\\h\\i\\j.txt", "\\g\\k", "\\g\\h", "\\m\\\\n.txt"};
+        byte[][] treeContents = new byte[treePaths.length][];
+        for (int i = 0; i < treePaths.length; ++i) {
+            treeContents[i] = TestPaks.content(10 + i, i);
+        }
+        Path treePak = TestPaks.write(folder.newFile("tree.pak").toPath(), treePaths, treeContents);
+        PakFileReader lazyReader = new PakFileReader();
+        lazyReader.setLazy(true);
+        try (PakFile eager = new PakFileReader().load(treePak);
+             PakFile lazy = lazyReader.load(treePak)) {
+            assertSameTree(eager.getRoot(), lazy.getRoot());
+            assertEquals(eager.getEntryMap().keySet(), lazy.getEntryMap().keySet());
+            assertEquals(eager.getNumFiles(), lazy.getNumFiles());
+        }
+        //  Lookups straight into an unexpanded tree
+        try (PakFile lazy = lazyReader.load(treePak)) {
+            FileEntry entry = (FileEntry) lazy.getRoot().get("a\\b\\e.txt");
+            assertArrayEquals(treeContents[2], lazy.readAllBytes(entry.getFileInfo()));
+            //  The later file replaced the directory
+            assertTrue(lazy.getRoot().get("g\\h") instanceof FileEntry);
+            assertNull(lazy.getRoot().get("a\\b\\x.txt"));
+        }
+    }
+
+    @Test
+    public void testLazyTreeFileAsDirectory() throws Exception {
+        String[] treePaths = {"\\x\\y.txt", "\\a", "\\a\\b.txt", "\\z.txt"};
+        byte[][] treeContents = new byte[treePaths.length][];
+        for (int i = 0; i < treePaths.length; ++i) {
+            treeContents[i] = TestPaks.content(10 + i, i);
+        }
+        Path treePak = TestPaks.write(folder.newFile("tree.pak").toPath(), treePaths, treeContents);
+        PakFileReader reader = new PakFileReader();
+        reader.setLazy(true);
+        try (PakFile pakFile = reader.load(treePak)) {
+            try {
+                pakFile.getRoot().getChildren();
+                fail();
+            } catch (IllegalArgumentException expectedException) {
+                //  Expected
+            }
+            //  The subfiles before the failure are kept, and only once
+            assertEquals(2, pakFile.getRoot().getChildren().size());
+            DirEntry x = (DirEntry) pakFile.getRoot().get("x");
+            assertEquals(1, x.getChildren().size());
+            assertTrue(x.get("y.txt") instanceof FileEntry);
+        }
+    }
+
+    @Test
+    public void testLazyWithIndexCache() throws Exception {
+        PakFileReader reader = new PakFileReader();
+        reader.setLazy(true);
+        reader.setIndexCache(new IndexCache(folder.newFolder("cache").toPath()));
+        for (int i = 0; i < 2; ++i) {
+            try (PakFile pakFile = reader.load(pak)) {
+                assertEquals(3, pakFile.getNumFiles());
+                assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+            }
+        }
+    }
+
+    private static void assertSameTree(DirEntry expected, DirEntry actual) {
+        Map<String, Entry> expectedChildren = expected.getChildren();
+        Map<String, Entry> actualChildren = actual.getChildren();
+        assertEquals(expectedChildren.keySet(), actualChildren.keySet());
+        for (Map.Entry<String, Entry> child : expectedChildren.entrySet()) {
+            Entry actualChild = actualChildren.get(child.getKey());
+            assertEquals(child.getKey(), child.getValue().getClass(), actualChild.getClass());
+            if (child.getValue() instanceof DirEntry) {
+                assertSameTree((DirEntry) child.getValue(), (DirEntry) actualChild);
+            } else {
+                assertEquals(((FileEntry) child.getValue()).getFileInfo().toString(),
+                        ((FileEntry) actualChild).getFileInfo().toString());
+            }
+        }
+    }
+}
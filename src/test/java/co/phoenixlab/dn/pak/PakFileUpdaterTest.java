@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class PakFileUpdaterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] paths = {"\\resource\\ui\\a.dds", "\\resource\\table.dnt", "\\empty.txt",
+            "\\resource\\ui\\a.dds"};
+    private byte[][] contents;
+    private Path pak;
+
+    @Before
+    public void setUp() throws Exception {
+        contents = new byte[][]{TestPaks.content(100, 0), TestPaks.content(300000, 1), new byte[0],
+                TestPaks.content(5000, 3)};
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents);
+    }
+
+    @Test
+    public void testPutReplaceDelete() throws Exception {
+        byte[] replacement = TestPaks.content(2000, 5);
+        byte[] added = TestPaks.content(40000, 6);
+        Path source = folder.newFile("added.bin").toPath();
+        Files.write(source, added);
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            assertTrue(updater.contains("resource\\table.dnt"));
+            updater.put("\\resource\\table.dnt", replacement);
+            updater.put("resource\\new\\added.bin", source);
+            assertTrue(updater.delete("empty.txt"));
+            assertFalse(updater.delete("empty.txt"));
+            updater.commit();
+        }
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(3, pakFile.getHeader().getNumFiles());
+            assertArrayEquals(replacement, pakFile.readAllBytes("resource\\table.dnt"));
+            assertArrayEquals(added, pakFile.readAllBytes("resource\\new\\added.bin"));
+            assertArrayEquals(contents[3], pakFile.readAllBytes("resource\\ui\\a.dds"));
+            assertNull(pakFile.getFileInfo("empty.txt"));
+            //  Replaced entries keep their place, overridden ones are dropped and new ones go last
+            PakIndex index = pakFile.getIndex();
+            assertEquals("resource\\table.dnt", index.getPath(0));
+            assertEquals("resource\\ui\\a.dds", index.getPath(1));
+            assertEquals("resource\\new\\added.bin", index.getPath(2));
+        }
+    }
+
+    @Test
+    public void testReusesHoles() throws Exception {
+        long tableOffset;
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            tableOffset = pakFile.getHeader().getFileTableOffset();
+        }
+        //  The first commit drops the overridden entry, leaving a hole where its data was
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.commit();
+        }
+        long size = Files.size(pak);
+        byte[] small = new byte[10];
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.put("small.bin", small);
+            updater.commit();
+        }
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertTrue(pakFile.getFileInfo("small.bin").getDiskOffset() < tableOffset);
+            assertArrayEquals(small, pakFile.readAllBytes("small.bin"));
+            assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+        }
+        //  Only the table grew
+        assertTrue(Files.size(pak) <= size + FileInfo.FILE_INFO_SIZE);
+    }
+
+    @Test
+    public void testReplaceBeforeCommitReusesSpace() throws Exception {
+        byte[] data = TestPaks.content(50000, 7);
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            for (int i = 0; i < 10; ++i) {
+                updater.put("big.bin", data);
+            }
+            updater.commit();
+        }
+        long size = Files.size(pak);
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.put("big.bin", data);
+            updater.commit();
+        }
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertArrayEquals(data, pakFile.readAllBytes("big.bin"));
+            assertTrue(Files.size(pak) <= size + pakFile.getFileInfo("big.bin").getDiskSize());
+        }
+    }
+
+    @Test
+    public void testUncommittedChangesAreInvisible() throws Exception {
+        byte[] before = Files.readAllBytes(pak);
+        int tableOffset;
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            tableOffset = (int) pakFile.getHeader().getFileTableOffset();
+        }
+        try (PakFileUpdater updater = new PakFileUpdater(pak)) {
+            updater.put("resource\\table.dnt", new byte[5]);
+            updater.delete("resource\\ui\\a.dds");
+        }
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertArrayEquals(contents[1], pakFile.readAllBytes("resource\\table.dnt"));
+            assertArrayEquals(contents[3], pakFile.readAllBytes("resource\\ui\\a.dds"));
+        }
+        byte[] after = Files.readAllBytes(pak);
+        //  Header and table are untouched
+        for (int i = 0; i < PakHeader.HEADER_SIZE; ++i) {
+            assertEquals(before[i], after[i]);
+        }
+        for (int i = tableOffset; i < before.length; ++i) {
+            assertEquals(before[i], after[i]);
+        }
+    }
+}
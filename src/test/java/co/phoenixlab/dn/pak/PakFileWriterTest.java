@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class PakFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private final String[] paths = {"resource\\ui\\a.dds", "resource\\ui\\b.dds", "resource\\table.dnt", "empty.txt",
+            "resource\\sound\\big.wav"};
+    private byte[][] contents;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root").toPath();
+        contents = new byte[][]{TestPaks.content(100, 0), TestPaks.content(70000, 1), TestPaks.content(5000, 2),
+                new byte[0], TestPaks.content(3 * CodecPool.BUFFER_SIZE + 17, 4)};
+        for (int i = 0; i < paths.length; ++i) {
+            Path file = toFile(paths[i]);
+            Files.createDirectories(file.getParent());
+            Files.write(file, contents[i]);
+        }
+    }
+
+    private Path toFile(String path) {
+        return root.resolve(path.replace('\\', '/'));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path pak = folder.getRoot().toPath().resolve("out.pak");
+        assertEquals(paths.length, new PakFileWriter(root, pak).write());
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(PakHeader.MAGIC_WORD, pakFile.getHeader().getMagic());
+            assertEquals(paths.length, pakFile.getHeader().getNumFiles());
+            for (int i = 0; i < paths.length; ++i) {
+                FileInfo fileInfo = pakFile.getFileInfo(paths[i]);
+                assertNotNull(paths[i], fileInfo);
+                assertEquals(contents[i].length, fileInfo.getDecompressedSize());
+                assertEquals(fileInfo.getCompressedSize(), fileInfo.getDiskSize());
+                assertArrayEquals(paths[i], contents[i], pakFile.readAllBytes(fileInfo));
+            }
+            assertTrue(pakFile.getRoot().get("resource\\ui") instanceof DirEntry);
+            //  Entries are in sorted order and the table directly follows the data
+            PakIndex index = pakFile.getIndex();
+            String[] sorted = paths.clone();
+            Arrays.sort(sorted, (a, b) -> toFile(a).compareTo(toFile(b)));
+            long end = PakHeader.HEADER_SIZE;
+            for (int i = 0; i < index.size(); ++i) {
+                assertEquals(sorted[i], index.getPath(i));
+                assertEquals(end, index.getDiskOffset(i));
+                end += index.getDiskSize(i);
+            }
+            assertEquals(end, pakFile.getHeader().getFileTableOffset());
+            assertEquals(end + paths.length * FileInfo.FILE_INFO_SIZE, Files.size(pak));
+        }
+    }
+
+    @Test
+    public void testOverwriteAndLevel() throws Exception {
+        Path pak = folder.newFile("out.pak").toPath();
+        Files.write(pak, new byte[10 * 1024 * 1024]);
+        PakFileWriter writer = new PakFileWriter(root, pak);
+        writer.setLevel(0);
+        writer.write();
+        long stored = Files.size(pak);
+        writer.setLevel(9);
+        writer.write();
+        assertTrue(Files.size(pak) < stored);
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertArrayEquals(contents[4], pakFile.readAllBytes("resource\\sound\\big.wav"));
+        }
+    }
+
+    @Test
+    public void testParallelDeterministic() throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            Path file = root.resolve("many/dir" + (i % 5) + "/file" + i + ".bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, TestPaks.content((i * 7919) % (5 * CodecPool.BUFFER_SIZE), i));
+        }
+        CodecPool pool = CodecPool.getDefault();
+        long outstanding = pool.getOutstanding(CodecPool.Kind.BUFFER);
+        for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            byte[] expected = null;
+            for (int threads : new int[]{1, 2, 4}) {
+                for (long maxInFlight : new long[]{PakFileWriter.DEFAULT_MAX_IN_FLIGHT_BYTES, 0}) {
+                    Path pak = folder.getRoot().toPath().resolve("out" + threads + "_" + maxInFlight + ".pak");
+                    PakFileWriter writer = new PakFileWriter(root, pak);
+                    writer.setLevel(level);
+                    writer.setThreads(threads);
+                    writer.setMaxInFlightBytes(maxInFlight);
+                    assertEquals(paths.length + 100, writer.write());
+                    byte[] actual = Files.readAllBytes(pak);
+                    if (expected == null) {
+                        expected = actual;
+                    } else {
+                        assertArrayEquals("threads=" + threads + " level=" + level, expected, actual);
+                    }
+                }
+            }
+            assertEquals(outstanding, pool.getOutstanding(CodecPool.Kind.BUFFER));
+        }
+        Path pak = folder.getRoot().toPath().resolve("out.pak");
+        PakFileWriter writer = new PakFileWriter(root, pak);
+        writer.setThreads(4);
+        writer.write();
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            for (int i = 0; i < paths.length; ++i) {
+                assertArrayEquals(paths[i], contents[i], pakFile.readAllBytes(paths[i]));
+            }
+            assertArrayEquals(TestPaks.content((99 * 7919) % (5 * CodecPool.BUFFER_SIZE), 99),
+                    pakFile.readAllBytes("many\\dir4\\file99.bin"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new PakFileWriter(root, root.resolve("out.pak")).setLevel(10);
+    }
+
+    @Test(expected = IOException.class)
+    public void testPathTooLong() throws Exception {
+        char[] name = new char[200];
+        Arrays.fill(name, 'x');
+        Path dir = Files.createDirectories(root.resolve(new String(name)));
+        Files.write(dir.resolve(new String(name, 0, 60)), new byte[1]);
+        new PakFileWriter(root, folder.getRoot().toPath().resolve("out.pak")).write();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PakGrepTest {
+
+    private static final byte[] NEEDLE = "SkillTable".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String[] paths;
+    private byte[][] contents;
+    private Path pak;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(0);
+        //  Small files, a file spanning several inflate chunks, one larger than a read run, and an overridden one
+        int[] sizes = {100, 5000, 300000, PakGrep.MAX_READ_RUN * 2, 2000, 0, 700};
+        paths = new String[sizes.length];
+        contents = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; ++i) {
+            paths[i] = "\\resource\\ext\\file" + i + (i % 2 == 0 ? ".dnt" : ".xml");
+            contents[i] = new byte[sizes[i]];
+            for (int j = 0; j < sizes[i]; ++j) {
+                contents[i][j] = (byte) ('a' + random.nextInt(4));
+            }
+        }
+        plant(contents[0], 0);
+        plant(contents[0], 90);
+        plant(contents[2], 65536 - 4);
+        plant(contents[2], 200000);
+        plant(contents[3], PakGrep.MAX_READ_RUN);
+        plant(contents[3], contents[3].length - NEEDLE.length);
+        plant(contents[4], 1000);
+        plant(contents[6], 10);
+        paths[6] = paths[4];
+        pak = TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents);
+    }
+
+    private static void plant(byte[] content, int offset) {
+        System.arraycopy(NEEDLE, 0, content, offset, NEEDLE.length);
+    }
+
+    private List<PakGrep.Match> search(PakGrep grep) throws Exception {
+        List<PakGrep.Match> matches = new ArrayList<>();
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(grep.search(pakFile, matches::add), matches.size());
+        }
+        matches.sort((a, b) -> a.getPath().equals(b.getPath()) ? Long.compare(a.getOffset(), b.getOffset()) :
+                a.getPath().compareTo(b.getPath()));
+        return matches;
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        PakGrep grep = PakGrep.of("SkillTable");
+        grep.setContext(8);
+        List<PakGrep.Match> matches = search(grep);
+        assertEquals(Arrays.asList("resource\\ext\\file0.dnt@0", "resource\\ext\\file0.dnt@90",
+                "resource\\ext\\file2.dnt@65532", "resource\\ext\\file2.dnt@200000",
+                "resource\\ext\\file3.xml@" + PakGrep.MAX_READ_RUN,
+                "resource\\ext\\file3.xml@" + (contents[3].length - NEEDLE.length),
+                "resource\\ext\\file4.dnt@10"), toStrings(matches));
+        for (PakGrep.Match match : matches) {
+            byte[] content = contents[Integer.parseInt(match.getPath().replaceAll("\\D", ""))];
+            if (match.getPath().endsWith("file4.dnt")) {
+                content = contents[6];
+            }
+            long start = Math.max(0, match.getOffset() - 8);
+            long end = Math.min(content.length, match.getOffset() + NEEDLE.length + 8);
+            assertEquals(start, match.getContextOffset());
+            assertArrayEquals(match.toString(), Arrays.copyOfRange(content, (int) start, (int) end),
+                    match.getContext());
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        PakGrep grep = PakGrep.of("SkillTable", "aaaaaaaa");
+        List<String> expected = toStrings(search(grep));
+        grep.setThreads(3);
+        assertEquals(expected, toStrings(search(grep)));
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        PakGrep grep = PakGrep.of("skilltable");
+        assertTrue(search(grep).isEmpty());
+        grep.setIgnoreCase(true);
+        assertEquals(7, search(grep).size());
+        grep.setFilter(path -> path.endsWith(".xml"));
+        assertEquals(2, search(grep).size());
+        grep.setFilter(path -> true);
+        grep.setLimit(3);
+        assertEquals(3, search(grep).size());
+        grep.setThreads(2);
+        assertEquals(3, search(grep).size());
+    }
+
+    private static List<String> toStrings(List<PakGrep.Match> matches) {
+        List<String> strings = new ArrayList<>();
+        for (PakGrep.Match match : matches) {
+            strings.add(match.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class PakIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] paths = {"\\resource\\a.dds", "\\b.lua", "\\resource\\a.dds", "\\한글.txt"};
+    private PakIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = build(paths, new int[]{0xFFFFFFF0, 0xFFFFFFF1, 0xFFFFFFF2, 0xFFFFFFF3});
+    }
+
+    private static PakIndex build(String[] paths, int[] diskOffsets) {
+        ByteBuffer table = ByteBuffer.allocate(paths.length * FileInfo.FILE_INFO_SIZE);
+        table.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < paths.length; ++i) {
+            byte[] nameBytes = new byte[256];
+            byte[] str = paths[i].getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(str, 0, nameBytes, 0, str.length);
+            table.put(nameBytes);
+            table.putInt(10 + i);
+            table.putInt(20 + i);
+            table.putInt(30 + i);
+            table.putInt(diskOffsets[i]);
+            table.putInt(i);
+            table.put(new byte[40]);
+        }
+        table.flip();
+        return PakIndex.build(new FileTableCursor(table, paths.length));
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        assertEquals(4, index.size());
+        assertEquals(3, index.getNumPaths());
+    }
+
+    @Test
+    public void testOrdinalOf() throws Exception {
+        assertEquals(1, index.ordinalOf("b.lua"));
+        assertEquals(1, index.ordinalOf("\\b.lua"));
+        //  Later entries override earlier ones
+        assertEquals(2, index.ordinalOf("resource\\a.dds"));
+        assertEquals(3, index.ordinalOf("한글.txt"));
+        assertEquals(PakIndex.NOT_FOUND, index.ordinalOf("resource\\b.dds"));
+        assertEquals(PakIndex.NOT_FOUND, index.ordinalOf("RESOURCE\\a.dds"));
+        assertEquals(PakIndex.NOT_FOUND, index.ordinalOf(""));
+    }
+
+    @Test
+    public void testIsLive() throws Exception {
+        assertFalse(index.isLive(0));
+        assertTrue(index.isLive(1));
+        assertTrue(index.isLive(2));
+        assertTrue(index.isLive(3));
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        assertEquals("resource\\a.dds", index.getPath(0));
+        assertEquals(12, index.getDiskSize(2));
+        assertEquals(22, index.getDecompressedSize(2));
+        assertEquals(32, index.getCompressedSize(2));
+        assertEquals(0xFFFFFFF2L, index.getDiskOffset(2));
+        assertEquals(2, index.getUnknown(2));
+        assertEquals(11 + 12 + 13, index.getTotalDiskSize());
+        assertEquals(21 + 22 + 23, index.getTotalDecompressedSize());
+    }
+
+    @Test
+    public void testLiveOrdinals() throws Exception {
+        assertArrayEquals(new int[]{1, 2, 3}, index.liveOrdinals(false));
+        assertArrayEquals(new int[]{1, 2, 3}, index.liveOrdinals(true));
+        //  Offsets above 2 GB sort as unsigned, ties by ordinal
+        PakIndex unsorted = build(new String[]{"\\a", "\\b", "\\c", "\\a", "\\d", "\\e"},
+                new int[]{5, 0xFFFFFFF0, 100, 7, 100, 0});
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, unsorted.liveOrdinals(false));
+        assertArrayEquals(new int[]{5, 3, 2, 4, 1}, unsorted.liveOrdinals(true));
+    }
+
+    @Test
+    public void testSlotCount() throws Exception {
+        assertEquals(4, PakIndex.slotCount(0));
+        assertEquals(16, PakIndex.slotCount(4));
+        assertEquals(1 << 30, PakIndex.slotCount(PakIndex.MAX_SIZE));
+        for (int size : new int[]{PakIndex.MAX_SIZE + 1, Integer.MAX_VALUE - 8}) {
+            try {
+                PakIndex.slotCount(size);
+                fail("Accepted " + size);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testToFileInfo() throws Exception {
+        FileInfo fileInfo = index.toFileInfo(3);
+        assertEquals("한글.txt", fileInfo.getFullPath());
+        assertEquals("한글.txt", fileInfo.getFileName());
+        assertEquals(0xFFFFFFF3L, fileInfo.getDiskOffset());
+        assertEquals(13, fileInfo.getDiskSize());
+    }
+
+    @Test
+    public void testParallelBuild() throws Exception {
+        //  Duplicates within a chunk, across chunks and in the last, partial chunk
+        String[] paths = new String[50];
+        byte[][] contents = new byte[paths.length][];
+        for (int i = 0; i < paths.length; ++i) {
+            paths[i] = i % 7 == 3 ? "\\dup\\" + (i % 3) + ".txt" : "\\dir" + (i % 4) + "\\file" + i + ".dat";
+            contents[i] = TestPaks.content(i, i);
+        }
+        Path pak = TestPaks.write(folder.newFile().toPath(), paths, contents);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (FileChannel channel = FileChannel.open(pak, StandardOpenOption.READ)) {
+            PakHeader header = new PakHeader();
+            header.numFiles = paths.length;
+            header.fileTableOffset = channel.size() - paths.length * FileInfo.FILE_INFO_SIZE;
+            PakIndex expected = PakIndex.build(FileTableCursor.open(channel, header, false));
+            PakIndex actual = PakIndex.build(channel, header, pool, 3);
+            FileInfo[] fileInfos = PakFileReader.readFileInfos(channel, header, pool, 3);
+            assertEquals(paths.length, fileInfos.length);
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.getNumPaths(), actual.getNumPaths());
+            for (int i = 0; i < paths.length; ++i) {
+                assertEquals(expected.getPath(i), actual.getPath(i));
+                assertEquals(expected.isLive(i), actual.isLive(i));
+                assertEquals(expected.getDiskOffset(i), actual.getDiskOffset(i));
+                assertEquals(expected.getDecompressedSize(i), actual.getDecompressedSize(i));
+                assertEquals(expected.ordinalOf(paths[i]), actual.ordinalOf(paths[i]));
+                assertEquals(expected.getPath(i), fileInfos[i].getFullPath());
+                assertEquals(expected.getDiskOffset(i), fileInfos[i].getDiskOffset());
+            }
+            assertEquals(45, actual.ordinalOf("dup\\0.txt"));
+            assertEquals(38, actual.ordinalOf("dup\\2.txt"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PakSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private final byte[] a0 = TestPaks.content(100, 0);
+    private final byte[] a1 = TestPaks.content(200, 1);
+    private final byte[] b0 = TestPaks.content(300, 2);
+    private final byte[] c2 = TestPaks.content(400, 3);
+    private final byte[] d2 = TestPaks.content(500, 4);
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("paks").toPath();
+        //  Written out of order, the set must sort them by name
+        TestPaks.write(dir.resolve("Resource02.pak"), new String[]{"\\c.dnt", "\\a\\shared.xml"},
+                new byte[][]{c2, d2});
+        TestPaks.write(dir.resolve("resource00.pak"), new String[]{"\\a\\shared.xml", "\\b\\only0.lua"},
+                new byte[][]{a0, b0});
+        TestPaks.write(dir.resolve("Resource01.pak"), new String[]{"\\a\\shared.xml"}, new byte[][]{a1});
+        Files.write(dir.resolve("notapak.txt"), new byte[10]);
+    }
+
+    @Test
+    public void testLoadDirectory() throws Exception {
+        try (PakSet pakSet = PakSet.load(dir, 1)) {
+            assertEquals(3, pakSet.getPakFiles().size());
+            assertEquals("resource00.pak", pakSet.getPakFiles().get(0).getPath().getFileName().toString());
+            assertEquals(3, pakSet.getNumFiles());
+            assertArrayEquals(d2, pakSet.readAllBytes("\\a\\shared.xml"));
+            assertArrayEquals(b0, pakSet.readAllBytes("b\\only0.lua"));
+            assertArrayEquals(c2, pakSet.readAllBytes("c.dnt"));
+            assertSame(pakSet.getPakFiles().get(2), pakSet.getPakFile("a\\shared.xml"));
+            assertEquals(d2.length, pakSet.getFileInfo("a\\shared.xml").getDecompressedSize());
+            assertFalse(pakSet.contains("a\\missing.xml"));
+            assertNull(pakSet.getFileInfo("a\\missing.xml"));
+        }
+    }
+
+    @Test
+    public void testLoadParallel() throws Exception {
+        try (PakSet pakSet = PakSet.load(dir, 4)) {
+            assertEquals(3, pakSet.getNumFiles());
+            assertArrayEquals(d2, pakSet.readAllBytes("a\\shared.xml"));
+        }
+    }
+
+    @Test
+    public void testOverrideOrder() throws Exception {
+        try (PakSet pakSet = PakSet.load(Arrays.asList(dir.resolve("Resource01.pak"),
+                dir.resolve("resource00.pak")), 1)) {
+            assertArrayEquals(a0, pakSet.readAllBytes("a\\shared.xml"));
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testReadMissing() throws Exception {
+        try (PakSet pakSet = PakSet.load(dir, 1)) {
+            pakSet.readAllBytes("a\\missing.xml");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadRunTest {
+
+    private static FileInfo fileInfo(long offset, long size) {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setDiskOffset(offset);
+        fileInfo.setDiskSize(size);
+        fileInfo.setCompressedSize(size);
+        return fileInfo;
+    }
+
+    @Test
+    public void testPlanCoalescesAdjacent() {
+        //  Out of disk order, with a gap between 300 and 400
+        List<FileInfo> fileInfos = Arrays.asList(
+                fileInfo(200, 100),
+                fileInfo(1024, 100),
+                fileInfo(400, 50),
+                fileInfo(1124, 10),
+                fileInfo(450, 574));
+        List<ReadRun> runs = ReadRun.plan(fileInfos, 1 << 20);
+        assertEquals(2, runs.size());
+        assertEquals(new Segment(200, 100, -1), runs.get(0).segment);
+        assertArrayEquals(new int[]{0}, runs.get(0).indices);
+        assertEquals(new Segment(400, -1, 1134), runs.get(1).segment);
+        assertArrayEquals(new int[]{2, 4, 1, 3}, runs.get(1).indices);
+        assertEquals(624, runs.get(1).offsetOf(fileInfos.get(1)));
+    }
+
+    @Test
+    public void testPlanSharedData() {
+        List<FileInfo> fileInfos = Arrays.asList(
+                fileInfo(100, 50),
+                fileInfo(100, 50),
+                fileInfo(120, 10));
+        List<ReadRun> runs = ReadRun.plan(fileInfos, 1 << 20);
+        assertEquals(1, runs.size());
+        assertEquals(new Segment(100, 50, -1), runs.get(0).segment);
+        assertArrayEquals(new int[]{0, 1, 2}, runs.get(0).indices);
+    }
+
+    @Test
+    public void testPlanMaxRunBytes() {
+        List<FileInfo> fileInfos = Arrays.asList(
+                fileInfo(0, 40),
+                fileInfo(40, 40),
+                fileInfo(80, 40),
+                fileInfo(120, 500),
+                fileInfo(620, 10));
+        List<ReadRun> runs = ReadRun.plan(fileInfos, 100);
+        assertEquals(4, runs.size());
+        assertArrayEquals(new int[]{0, 1}, runs.get(0).indices);
+        assertArrayEquals(new int[]{2}, runs.get(1).indices);
+        //  Too large for a run, so it gets one to itself
+        assertArrayEquals(new int[]{3}, runs.get(2).indices);
+        assertEquals(500, runs.get(2).segment.length);
+        assertArrayEquals(new int[]{4}, runs.get(3).indices);
+    }
+
+    @Test
+    public void testPlanEmpty() {
+        assertTrue(ReadRun.plan(Arrays.asList(), 100).isEmpty());
+    }
+}
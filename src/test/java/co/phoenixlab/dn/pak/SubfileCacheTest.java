@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SubfileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int NUM_FILES = 20;
+    private static final int FILE_SIZE = 1000;
+
+    private byte[][] contents;
+    private PakFile pakFile;
+
+    @Before
+    public void setUp() throws Exception {
+        String[] paths = new String[NUM_FILES];
+        contents = new byte[NUM_FILES][];
+        for (int i = 0; i < NUM_FILES; ++i) {
+            paths[i] = "\\file" + i;
+            contents[i] = TestPaks.content(FILE_SIZE, i);
+        }
+        pakFile = new PakFileReader().load(TestPaks.write(folder.newFile("test.pak").toPath(), paths, contents));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pakFile.close();
+    }
+
+    private FileInfo info(int i) throws Exception {
+        return pakFile.getFileInfo("file" + i);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        SubfileCache cache = new SubfileCache(10 * FILE_SIZE);
+        assertArrayEquals(contents[0], bytes(cache.get(pakFile, info(0))));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        ByteBuffer cached = cache.get(pakFile, info(0));
+        assertTrue(cached.isReadOnly());
+        assertArrayEquals(contents[0], bytes(cached));
+        assertEquals(1, cache.getHits());
+        assertNotNull(cache.getIfPresent(pakFile.getPath(), info(0).getDiskOffset()));
+        assertEquals(FILE_SIZE, cache.getSize());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void testBoundedByBytes() throws Exception {
+        SubfileCache cache = new SubfileCache(5 * FILE_SIZE);
+        for (int i = 0; i < NUM_FILES; ++i) {
+            cache.get(pakFile, info(i));
+            assertTrue(cache.getSize() <= cache.getCapacity());
+        }
+        assertEquals(NUM_FILES - 5, cache.getEvictions());
+    }
+
+    @Test
+    public void testScanResistant() throws Exception {
+        SubfileCache cache = new SubfileCache(10 * FILE_SIZE);
+        //  Make file0 hot
+        cache.get(pakFile, info(0));
+        cache.get(pakFile, info(0));
+        for (int i = 1; i < NUM_FILES; ++i) {
+            cache.get(pakFile, info(i));
+        }
+        assertNotNull(cache.getIfPresent(pakFile.getPath(), info(0).getDiskOffset()));
+        assertNull(cache.getIfPresent(pakFile.getPath(), info(1).getDiskOffset()));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        SubfileCache cache = new SubfileCache(FILE_SIZE);
+        assertFalse(cache.isAdmissible(FILE_SIZE));
+        assertArrayEquals(contents[0], bytes(cache.get(pakFile, info(0))));
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testPakFileCacheBypassedWhenTooLarge() throws Exception {
+        SubfileCache cache = new SubfileCache(FILE_SIZE);
+        pakFile.setCache(cache);
+        //  Streams straight from the PakFile rather than materializing the whole subfile first
+        try (InputStream in = pakFile.openInputStream("file4")) {
+            assertTrue(in instanceof SubfileInputStream);
+        }
+        assertArrayEquals(contents[4], pakFile.readAllBytes("file4"));
+        ByteBuffer buffer = ByteBuffer.allocate(FILE_SIZE);
+        assertEquals(FILE_SIZE, pakFile.read("file4", buffer));
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        SubfileCache cache = new SubfileCache(10 * FILE_SIZE, true);
+        ByteBuffer cached = cache.get(pakFile, info(3));
+        assertTrue(cached.isDirect());
+        assertArrayEquals(contents[3], bytes(cached));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        SubfileCache cache = new SubfileCache(10 * FILE_SIZE);
+        cache.get(pakFile, info(0));
+        cache.get(pakFile, info(0));
+        cache.get(pakFile, info(1));
+        cache.invalidate(pakFile.getPath());
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testPakFileCache() throws Exception {
+        SubfileCache cache = new SubfileCache(10 * FILE_SIZE);
+        pakFile.setCache(cache);
+        assertArrayEquals(contents[2], pakFile.readAllBytes("file2"));
+        assertArrayEquals(contents[2], pakFile.readAllBytes("file2"));
+        ByteBuffer buffer = ByteBuffer.allocate(FILE_SIZE);
+        assertEquals(FILE_SIZE, pakFile.read("file2", buffer));
+        buffer.flip();
+        assertArrayEquals(contents[2], bytes(buffer));
+        try (InputStream in = pakFile.openInputStream("file2")) {
+            byte[] read = new byte[FILE_SIZE + 1];
+            assertEquals(FILE_SIZE, in.read(read));
+            assertEquals(-1, in.read());
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+    }
+}
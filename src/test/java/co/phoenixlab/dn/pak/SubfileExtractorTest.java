@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SubfileExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SubfileExtractor extractor;
+
+    @Before
+    public void setUp() throws Exception {
+        extractor = new SubfileExtractor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        extractor.close();
+    }
+
+    @Test
+    public void testExtractFromMemory() throws Exception {
+        byte[] content = TestPaks.content(300000, 1);
+        byte[] compressed = deflate(content);
+        //  Surround the subfile with other data, as in a read run
+        byte[] run = new byte[compressed.length + 20];
+        System.arraycopy(compressed, 0, run, 10, compressed.length);
+        Path path = folder.getRoot().toPath().resolve("a").resolve("b").resolve("c.bin");
+        assertEquals(content.length, extractor.extract(run, 10, fileInfo(compressed.length, content.length), path));
+        assertArrayEquals(content, Files.readAllBytes(path));
+        //  An existing file is replaced
+        byte[] smaller = TestPaks.content(10, 2);
+        byte[] smallerCompressed = deflate(smaller);
+        assertEquals(smaller.length, extractor.extract(smallerCompressed, 0,
+                fileInfo(smallerCompressed.length, smaller.length), path));
+        assertArrayEquals(smaller, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testExtractMapped() throws Exception {
+        extractor.setMapThreshold(1000);
+        byte[] content = TestPaks.content(300000, 1);
+        byte[] compressed = deflate(content);
+        Path path = folder.getRoot().toPath().resolve("mapped.bin");
+        //  Replacing a larger file must leave no trailing data behind
+        Files.write(path, new byte[400000]);
+        assertEquals(content.length, extractor.extract(compressed, 0, fileInfo(compressed.length, content.length),
+                path));
+        assertArrayEquals(content, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testExtractMappedFromPak() throws Exception {
+        extractor.setMapThreshold(1000);
+        byte[] content = new byte[CodecPool.BUFFER_SIZE * 3 + 7];
+        new Random(5).nextBytes(content);
+        Path pak = TestPaks.write(folder.newFile("test.pak").toPath(), new String[]{"\\big.bin"},
+                new byte[][]{content});
+        Path path = folder.getRoot().toPath().resolve("big.bin");
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(content.length, extractor.extract(pakFile, pakFile.getFileInfo("big.bin"), path));
+        }
+        assertArrayEquals(content, Files.readAllBytes(path));
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testExtractMappedTooShort() throws Exception {
+        extractor.setMapThreshold(0);
+        byte[] compressed = deflate(TestPaks.content(5000, 6));
+        extractor.extract(compressed, 0, fileInfo(compressed.length, 5001), folder.getRoot().toPath().resolve("a"));
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testExtractMappedTooLong() throws Exception {
+        extractor.setMapThreshold(0);
+        byte[] compressed = deflate(TestPaks.content(5000, 6));
+        extractor.extract(compressed, 0, fileInfo(compressed.length, 4999), folder.getRoot().toPath().resolve("a"));
+    }
+
+    @Test
+    public void testExtractFromPak() throws Exception {
+        //  Incompressible, so that the compressed data spans many read chunks
+        byte[] content = new byte[CodecPool.BUFFER_SIZE * 5 + 123];
+        new Random(3).nextBytes(content);
+        byte[] small = TestPaks.content(1000, 4);
+        Path pak = TestPaks.write(folder.newFile("test.pak").toPath(), new String[]{"\\big.bin", "\\small.txt"},
+                new byte[][]{content, small});
+        Path dest = folder.newFolder("out").toPath();
+        try (PakFile pakFile = new PakFileReader().load(pak)) {
+            assertEquals(content.length, extractor.extract(pakFile, pakFile.getFileInfo("big.bin"),
+                    dest.resolve("big.bin")));
+            assertEquals(small.length, extractor.extract(pakFile, pakFile.getFileInfo("small.txt"),
+                    dest.resolve("small.txt")));
+        }
+        assertArrayEquals(content, Files.readAllBytes(dest.resolve("big.bin")));
+        assertArrayEquals(small, Files.readAllBytes(dest.resolve("small.txt")));
+    }
+
+    @Test(expected = InvalidPakException.class)
+    public void testCorrupt() throws Exception {
+        byte[] compressed = deflate(TestPaks.content(1000, 5));
+        compressed[5] ^= 0x55;
+        compressed[6] ^= 0x55;
+        extractor.extract(compressed, 0, fileInfo(compressed.length, 1000),
+                folder.getRoot().toPath().resolve("corrupt.bin"));
+    }
+
+    private static FileInfo fileInfo(int compressedSize, int decompressedSize) {
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setCompressedSize(compressedSize);
+        fileInfo.setDiskSize(compressedSize);
+        fileInfo.setDecompressedSize(decompressedSize);
+        return fileInfo;
+    }
+
+    private static byte[] deflate(byte[] content) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+}
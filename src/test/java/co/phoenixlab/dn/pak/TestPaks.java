@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.pak;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Builds small PakFiles for tests, independently of {@link PakFileWriter}.
+ */
+final class TestPaks {
+
+    private TestPaks() {
+    }
+
+    /**
+     * Writes a pak containing the given subfiles, in order.
+     * @param path Where to write the pak
+     * @param paths The full paths of the subfiles, with leading backslashes. May contain duplicates.
+     * @param contents The decompressed contents of each subfile
+     * @return path
+     */
+    static Path write(Path path, String[] paths, byte[][] contents) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[PakHeader.HEADER_SIZE]);
+        ByteBuffer table = ByteBuffer.allocate(paths.length * FileInfo.FILE_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < paths.length; ++i) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+                out.write(contents[i]);
+            }
+            int offset = data.size();
+            data.write(compressed.toByteArray());
+            byte[] nameBytes = new byte[256];
+            byte[] str = paths[i].getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(str, 0, nameBytes, 0, str.length);
+            table.put(nameBytes);
+            table.putInt(compressed.size());
+            table.putInt(contents[i].length);
+            table.putInt(compressed.size());
+            table.putInt(offset);
+            table.putInt(0);
+            table.put(new byte[40]);
+        }
+        int tableOffset = data.size();
+        data.write(table.array());
+        byte[] bytes = data.toByteArray();
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(PakHeader.MAGIC_WORD.getBytes(StandardCharsets.UTF_8));
+        header.position(PakHeader.MAGIC_WORD_SIZE);
+        header.putInt(PakHeader.UNKNOWN_CONST);
+        header.putInt(paths.length);
+        header.putInt(tableOffset);
+        return Files.write(path, bytes);
+    }
+
+    /**
+     * Generates moderately compressible content of the given size.
+     */
+    static byte[] content(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            bytes[i] = (byte) ('a' + ((i * 31 + seed * 7 + (i >> 5)) % 26));
+        }
+        return bytes;
+    }
+}